@@ -0,0 +1,6 @@
+#!/bin/bash
+set -euo pipefail
+
+# PW_JOB_IDS is a space separated list of container IDs
+# shellcheck disable=SC2086
+docker stop ${PW_JOB_IDS}
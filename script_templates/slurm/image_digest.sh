@@ -0,0 +1,22 @@
+#!/bin/bash
+set -euo pipefail
+
+# Called by the agent to check whether a cached headnode image is up-to-date.
+# Prints the digest of the image in the registry on the last line.
+# Usage: image_digest.sh <image>
+# e.g. HEADNODE_IMAGE=730335334008.dkr.ecr.us-west-2.amazonaws.com/cirro-headnode:slurm-agent
+HEADNODE_IMAGE="${1}"
+
+source /app/lmod/lmod/init/profile
+ml awscli
+
+REGION=$(echo "${HEADNODE_IMAGE}" | cut -d'.' -f4)
+REPOSITORY=$(echo "${HEADNODE_IMAGE}" | cut -d'/' -f2- | cut -d':' -f1)
+TAG=$(echo "${HEADNODE_IMAGE}" | cut -d':' -f2)
+
+aws ecr describe-images \
+    --region "${REGION}" \
+    --repository-name "${REPOSITORY}" \
+    --image-ids "imageTag=${TAG}" \
+    --query 'imageDetails[0].imageDigest' \
+    --output text
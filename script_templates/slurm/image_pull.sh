@@ -0,0 +1,28 @@
+#!/bin/bash
+set -euo pipefail
+
+# Called by the agent to pull a headnode image into its image cache.
+# The agent ensures only one pull of an image runs at a time, and moves the file into place once complete.
+# Usage: image_pull.sh <image> <destination>
+HEADNODE_IMAGE="${1}"
+DESTINATION="${2}"
+
+# Load dependencies (adjust to your environment)
+source /app/lmod/lmod/init/profile
+ml awscli
+ml Apptainer/1.1.6
+
+# Parse the account ID and region from the image
+ACCOUNT_ID=$(echo "${HEADNODE_IMAGE}" | cut -d'.' -f1)
+REGION=$(echo "${HEADNODE_IMAGE}" | cut -d'.' -f4)
+
+echo "$(date) Logging in to AWS ECR registry for ${REGION} region and account ID ${ACCOUNT_ID}"
+aws ecr get-login-password --region "${REGION}" | \
+    apptainer remote login \
+        --password-stdin \
+        --username AWS \
+        "docker://${ACCOUNT_ID}.dkr.ecr.${REGION}.amazonaws.com"
+
+echo "$(date) Pulling image: ${HEADNODE_IMAGE}"
+APPTAINER_CACHEDIR="$(dirname "${DESTINATION}")/.cache" \
+apptainer pull "${DESTINATION}" "docker://${HEADNODE_IMAGE}"
@@ -0,0 +1,50 @@
+#!/bin/bash
+set -uo pipefail
+
+# Runs inside a pilot allocation and runs the analyses handed over by the agent, one at a time.
+# The agent writes the path of the environment file of the analysis to the `assignment` file,
+# which is renamed to `running` while the analysis runs and removed once it has finished.
+# The exit code of the headnode is written to the `exit_code` file before `running` is removed.
+# The pilot exits when the agent creates the `shutdown` file or after PW_PILOT_IDLE_TIMEOUT seconds without work,
+# an analysis already assigned to it is run before it exits.
+
+cd "${PW_PILOT_DIR}"
+touch heartbeat ready
+POLL_INTERVAL=2
+IDLE_SECONDS=0
+
+while true; do
+    touch heartbeat
+    if [[ -e assignment ]] && mv assignment running 2>/dev/null; then
+        rm -f exit_code
+        ENVIRONMENT_FILE=$(cat running)
+        WORKING_DIR=$(dirname "${ENVIRONMENT_FILE}")
+        echo "$(date) Running ${ENVIRONMENT_FILE}"
+        (
+            cd "${WORKING_DIR}" && \
+            PW_ENVIRONMENT_FILE="${ENVIRONMENT_FILE}" bash "${PW_SHARED_DIR}/run_headnode.sh" \
+                > process.out 2> process.err
+        ) &
+        HEADNODE_PID=$!
+        while kill -0 "${HEADNODE_PID}" 2>/dev/null; do
+            touch heartbeat
+            sleep 10
+        done
+        wait "${HEADNODE_PID}"
+        EXIT_CODE=$?
+        echo "$(date) Headnode exited with ${EXIT_CODE}"
+        echo "${EXIT_CODE}" > exit_code
+        rm -f running
+        IDLE_SECONDS=0
+    elif [[ -e shutdown ]]; then
+        break
+    else
+        sleep ${POLL_INTERVAL}
+        IDLE_SECONDS=$((IDLE_SECONDS + POLL_INTERVAL))
+        if (( IDLE_SECONDS > PW_PILOT_IDLE_TIMEOUT )); then
+            echo "$(date) Idle for ${IDLE_SECONDS}s, exiting"
+            break
+        fi
+    fi
+done
+echo "$(date) Pilot exiting"
@@ -40,11 +40,16 @@ ml Apptainer/1.1.6
 export APPTAINERENV_APPTAINERROOT=/app/software/Apptainer/1.1.6
 export APPTAINERENV_APPEND_PATH=/app/software/Apptainer/1.1.6/bin
 
-# Pull the headnode image using apptainer
-mkdir -p "${PW_SHARED_DIR}/headnode_images"
 mkdir -p "${PW_PROJECT_DIR}/apptainer"
-APPTAINER_CACHEDIR="${PW_SHARED_DIR}/headnode_images/.cache" \
-bash "${PW_SHARED_DIR}/apptainer_pull.sh" "${PW_HEADNODE_IMAGE}" "${LOCAL_IMAGE}"
+if [[ -n "${PW_HEADNODE_IMAGE_PATH:-}" && -f "${PW_HEADNODE_IMAGE_PATH}" ]]; then
+    # The image was already pulled by the agent (image-cache-enabled)
+    LOCAL_IMAGE="${PW_HEADNODE_IMAGE_PATH}"
+else
+    # Pull the headnode image using apptainer
+    mkdir -p "${PW_SHARED_DIR}/headnode_images"
+    APPTAINER_CACHEDIR="${PW_SHARED_DIR}/headnode_images/.cache" \
+    bash "${PW_SHARED_DIR}/apptainer_pull.sh" "${PW_HEADNODE_IMAGE}" "${LOCAL_IMAGE}"
+fi
 
 echo "$(date) Running headnode image: ${LOCAL_IMAGE}"
 echo "$(date) Project directory: ${PW_PROJECT_DIR}"
@@ -0,0 +1,19 @@
+#!/bin/bash
+set -euo pipefail
+
+# Runs a single element of a job array submitted by submit_headnode_batch.sh
+
+# Required Environment Variables:
+# - PW_BATCH_MANIFEST: File listing the environment file of each analysis, one per line
+# - SLURM_ARRAY_TASK_ID: The index of this element of the job array
+
+PW_ENVIRONMENT_FILE=$(sed -n "$((SLURM_ARRAY_TASK_ID + 1))p" "${PW_BATCH_MANIFEST}")
+export PW_ENVIRONMENT_FILE
+
+# Run from the working directory of the analysis and keep its logs there,
+# as is done for analyses submitted on their own
+cd "$(dirname "${PW_ENVIRONMENT_FILE}")"
+exec > process.out 2> process.err
+
+source "${PW_ENVIRONMENT_FILE}"
+exec bash "${PW_SHARED_DIR}/run_headnode.sh"
@@ -0,0 +1,6 @@
+#!/bin/bash
+set -euo pipefail
+
+# PW_JOB_IDS is a space separated list of job IDs
+# shellcheck disable=SC2086
+scancel -f --signal=TERM ${PW_JOB_IDS}
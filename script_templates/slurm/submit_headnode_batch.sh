@@ -0,0 +1,38 @@
+#!/bin/bash
+set -euo pipefail
+
+# This script is used to submit a batch of headnode jobs to the default SLURM cluster as a single job array.
+# It is only used when batching is enabled on the agent (submit-batch-window-millis > 0).
+# It will be run by the agent process itself, from a directory created for the batch.
+
+# Environment Variables from Cirro
+# - PW_BATCH_MANIFEST: File listing the environment file of each analysis, one per line
+# - PW_BATCH_SIZE: The number of analyses in the batch
+
+# Required Environment Variables from Agent Configuration:
+# - HEADNODE_ACCOUNTING: The accounting string to use for the headnode jobs
+# - HEADNODE_JOB_QUEUE: The partition to use for the headnode jobs
+
+# Optional Environment Variables:
+# - HEADNODE_CPUS: The number of CPUs to use for each headnode job
+# - HEADNODE_MEM: The amount of memory to use for each headnode job (e.g. 8G)
+# - HEADNODE_PRIORITY: The priority to use for the headnode jobs
+
+# The agent only batches analyses with the same HEADNODE_* settings,
+# so the environment of the first one is used for the job settings
+source "$(head -n 1 "${PW_BATCH_MANIFEST}")"
+
+# The job array ID is printed, element N of the array runs the analysis on line N of the manifest
+echo "Submitting ${PW_BATCH_SIZE} analyses from $(pwd)"
+sbatch \
+    --array="0-$((PW_BATCH_SIZE - 1))" \
+    --output=/dev/null \
+    --job-name="Cirro-batch" \
+    --account="${HEADNODE_ACCOUNTING}" \
+    --partition="${HEADNODE_JOB_QUEUE}" \
+    --cpus-per-task="${HEADNODE_CPUS:-4}" \
+    --mem="${HEADNODE_MEM:-8G}" \
+    --priority="${HEADNODE_PRIORITY:-10}" \
+    --export=PW_BATCH_MANIFEST \
+    --parsable \
+    "${PW_SHARED_DIR}/run_headnode_array.sh"
@@ -0,0 +1,35 @@
+#!/bin/bash
+set -euo pipefail
+
+# This script is used to submit a pilot headnode job, which runs analyses handed over by the agent.
+# It will be run by the agent process itself from the pilot directory, and should take very little time to execute.
+
+# Environment Variables from the agent
+# - PW_PILOT_DIR: The directory used to hand analyses to the pilot
+# - PW_PILOT_IDLE_TIMEOUT: Seconds after which an idle pilot exits on its own
+# - PW_SHARED_DIR: The directory for all shared scripts used by the agent
+
+# Optional Environment Variables from the agent (pilot-accounting and pilot-job-queue),
+# the scheduler defaults are used when they are not set:
+# - HEADNODE_ACCOUNTING: The accounting string to use for the pilot job
+# - HEADNODE_JOB_QUEUE: The partition to use for the pilot job
+
+OPTIONAL_ARGS=()
+if [[ -n "${HEADNODE_ACCOUNTING:-}" ]]; then
+    OPTIONAL_ARGS+=(--account="${HEADNODE_ACCOUNTING}")
+fi
+if [[ -n "${HEADNODE_JOB_QUEUE:-}" ]]; then
+    OPTIONAL_ARGS+=(--partition="${HEADNODE_JOB_QUEUE}")
+fi
+
+sbatch \
+    --error=pilot.err \
+    --output=pilot.out \
+    --job-name="Cirro-pilot" \
+    ${OPTIONAL_ARGS[@]+"${OPTIONAL_ARGS[@]}"} \
+    --cpus-per-task="${HEADNODE_CPUS:-4}" \
+    --mem="${HEADNODE_MEM:-8G}" \
+    --priority="${HEADNODE_PRIORITY:-10}" \
+    --export=PW_PILOT_DIR,PW_PILOT_IDLE_TIMEOUT,PW_SHARED_DIR \
+    --parsable \
+    "${PW_SHARED_DIR}/pilot_headnode.sh"
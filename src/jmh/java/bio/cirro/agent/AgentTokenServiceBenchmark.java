@@ -0,0 +1,83 @@
+package bio.cirro.agent;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of validating the tokens presented by jobs on every request to the agent endpoint.
+ * <p>
+ * {@code validateWithoutReuse} is the behaviour before the verifier was reused,
+ * and a cache size of 0 is the behaviour without the cache of verified tokens.
+ * <p>
+ * Run with {@code ./gradlew jmh}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AgentTokenServiceBenchmark {
+    private static final int EXECUTIONS = 500;
+    private static final String AGENT_ID = "agent";
+    private static final byte[] SECRET = "benchmark-secret".getBytes();
+
+    @Param({"0", "1000"})
+    int cacheSize;
+
+    AgentTokenService agentTokenService;
+    Algorithm algorithm;
+    String[] tokens;
+
+    @Setup
+    public void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setJwtSecret(SECRET);
+        agentConfig.setId(AGENT_ID);
+        agentConfig.setJwtExpiryDays(7);
+        agentConfig.setJwtCacheSize(cacheSize);
+        agentTokenService = new AgentTokenService(agentConfig);
+        algorithm = Algorithm.HMAC256(SECRET);
+        tokens = new String[EXECUTIONS];
+        for (int i = 0; i < EXECUTIONS; i++) {
+            tokens[i] = "Bearer " + agentTokenService.generateForExecution(String.valueOf(i));
+        }
+    }
+
+    @Benchmark
+    public void validate() {
+        var i = ThreadLocalRandom.current().nextInt(EXECUTIONS);
+        agentTokenService.validate(tokens[i], String.valueOf(i));
+    }
+
+    @Benchmark
+    public String validateWithoutReuse() {
+        var i = ThreadLocalRandom.current().nextInt(EXECUTIONS);
+        var token = tokens[i].replace("Bearer ", "");
+        var subject = JWT.require(algorithm)
+                .withIssuer(AGENT_ID)
+                .build()
+                .verify(token)
+                .getSubject();
+        if (!String.valueOf(i).equals(subject)) {
+            throw new SecurityException("Not authorized to access this execution");
+        }
+        return subject;
+    }
+}
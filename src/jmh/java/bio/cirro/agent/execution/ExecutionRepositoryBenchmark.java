@@ -0,0 +1,105 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import io.micronaut.serde.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of looking up an execution, as done for every credential refresh and status update from a job.
+ * <p>
+ * The database is replaced by a map holding the stored rows, so this measures the hydration of executions
+ * (JSON deserialization) without the cost of the JDBC query, which the cache also saves.
+ * A cache size of 0 is the behaviour without the cache.
+ * <p>
+ * Run with {@code ./gradlew jmh}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionRepositoryBenchmark {
+    private static final int EXECUTIONS = 5_000;
+
+    @Param({"0", "10000"})
+    int cacheSize;
+
+    ExecutionRepository executionRepository;
+
+    @Setup
+    public void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("work"));
+        agentConfig.setAbsoluteSharedDirectory(Path.of("shared"));
+        agentConfig.setExecutionCacheSize(cacheSize);
+        executionRepository = new ExecutionRepository(inMemoryDataRepository(), ObjectMapper.getDefault(), agentConfig);
+        for (int i = 0; i < EXECUTIONS; i++) {
+            var execution = executionRepository.getNew(makeMessage(String.valueOf(i)));
+            execution.setStatus(Status.RUNNING);
+            execution.setStartOutput(new ExecutionStartOutput("Submitted batch job " + i, String.valueOf(i), null, null));
+            executionRepository.add(execution);
+        }
+    }
+
+    @Benchmark
+    public Execution get() {
+        var executionId = String.valueOf(ThreadLocalRandom.current().nextInt(EXECUTIONS));
+        return executionRepository.get(executionId);
+    }
+
+    private static RunAnalysisCommandMessage makeMessage(String datasetId) {
+        return RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("project")
+                .username("user@example.com")
+                .region("us-west-2")
+                .datasetPath("s3://bucket/datasets/" + datasetId)
+                .fileAccessRoleArn("arn:aws:iam::123456789012:role/file-access")
+                .environment(Map.of(
+                        "PW_WORKFLOW", "nextflow",
+                        "PW_S3_DATASET", "s3://bucket/datasets/" + datasetId,
+                        "PW_HEADNODE_IMAGE", "ghcr.io/cirrobio/headnode:latest"
+                ))
+                .build();
+    }
+
+    /**
+     * Implements the repository methods used by {@link ExecutionRepository#add} and {@link ExecutionRepository#get}
+     */
+    private static ExecutionDataRepository inMemoryDataRepository() {
+        var rows = new ConcurrentHashMap<String, ExecutionData>();
+        return (ExecutionDataRepository) Proxy.newProxyInstance(
+                ExecutionDataRepository.class.getClassLoader(),
+                new Class<?>[]{ExecutionDataRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "save", "update" -> {
+                        var data = (ExecutionData) args[0];
+                        rows.put(data.getId(), data);
+                        yield data;
+                    }
+                    case "findById" -> Optional.ofNullable(rows.get((String) args[0]));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,143 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.AgentClientFactory;
+import bio.cirro.agent.messaging.PortalMessageSender;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import io.micronaut.serde.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of progress updates reported by jobs while other threads update the same executions.
+ * <p>
+ * With a single execution every update contends on the same execution lock,
+ * with more executions the updates are spread over the lock stripes.
+ * A window of 0 applies every update, otherwise updates within the window are coalesced.
+ * The database is replaced by maps and the connection to the portal is closed, so messages are only queued.
+ * <p>
+ * Run with {@code ./gradlew jmh}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ExecutionServiceBenchmark {
+    private static final UpdateStatusRequest PROGRESS = UpdateStatusRequest.builder()
+            .status(Status.RUNNING)
+            .message("Process done")
+            .build();
+
+    @Param({"1", "100"})
+    int executions;
+
+    @Param({"0", "1000"})
+    long windowMillis;
+
+    ExecutionStatusCoalescer executionStatusCoalescer;
+    PortalMessageSender portalMessageSender;
+    ExecutionService executionService;
+
+    @Setup
+    public void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("work"));
+        agentConfig.setAbsoluteSharedDirectory(Path.of("shared"));
+        agentConfig.setStatusUpdateWindowMillis(windowMillis);
+        var objectMapper = ObjectMapper.getDefault();
+        var executionRepository = new ExecutionRepository(inMemoryDataRepository(), objectMapper, agentConfig);
+        var executionLocks = new ExecutionLocks();
+        executionStatusCoalescer = new ExecutionStatusCoalescer(agentConfig, executionLocks);
+        portalMessageSender = new PortalMessageSender(new AgentClientFactory(null, null, null));
+        executionService = new ExecutionService(
+                executionRepository,
+                new ExecutionSummaryRepository(null, agentConfig),
+                new ExecutionStatusHistory(discardingEventRepository(), objectMapper),
+                executionLocks,
+                executionStatusCoalescer,
+                agentConfig,
+                portalMessageSender,
+                new ExecutionBatchStopper(agentConfig, null),
+                new AdmissionController(agentConfig),
+                event -> {
+                }
+        );
+        for (int i = 0; i < executions; i++) {
+            var execution = executionRepository.getNew(RunAnalysisCommandMessage.builder()
+                    .datasetId(String.valueOf(i))
+                    .projectId("project")
+                    .username("user@example.com")
+                    .build());
+            execution.setStatus(Status.RUNNING);
+            executionRepository.add(execution);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executionStatusCoalescer.close();
+        portalMessageSender.close();
+    }
+
+    @Benchmark
+    public void updateStatus() {
+        var executionId = String.valueOf(ThreadLocalRandom.current().nextInt(executions));
+        executionService.updateStatus(executionId, PROGRESS);
+    }
+
+    /**
+     * Implements the repository methods used by {@link ExecutionRepository#add}, {@link ExecutionRepository#get}
+     * and {@link ExecutionRepository#update}
+     */
+    private static ExecutionDataRepository inMemoryDataRepository() {
+        var rows = new ConcurrentHashMap<String, ExecutionData>();
+        return (ExecutionDataRepository) Proxy.newProxyInstance(
+                ExecutionDataRepository.class.getClassLoader(),
+                new Class<?>[]{ExecutionDataRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "save", "update" -> {
+                        var data = (ExecutionData) args[0];
+                        rows.put(data.getId(), data);
+                        yield data;
+                    }
+                    case "findById" -> Optional.ofNullable(rows.get((String) args[0]));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Keeps nothing, the cost of the history is serializing each update
+     */
+    private static ExecutionStatusEventRepository discardingEventRepository() {
+        return (ExecutionStatusEventRepository) Proxy.newProxyInstance(
+                ExecutionStatusEventRepository.class.getClassLoader(),
+                new Class<?>[]{ExecutionStatusEventRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "save" -> args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
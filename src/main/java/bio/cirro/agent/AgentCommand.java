@@ -2,11 +2,17 @@ package bio.cirro.agent;
 
 import bio.cirro.agent.exception.AgentException;
 import bio.cirro.agent.execution.ExecutionCleanupService;
+import bio.cirro.agent.execution.ExecutionRecoveryService;
+import bio.cirro.agent.execution.ExecutionSchemaMigrator;
+import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.execution.ExecutionTokenService;
 import bio.cirro.agent.messaging.AgentClientFactory;
 import bio.cirro.agent.messaging.ConnectionInfo;
 import bio.cirro.agent.messaging.dto.AgentRegisterMessage;
 import bio.cirro.agent.messaging.dto.HeartbeatMessage;
 import bio.cirro.agent.models.SystemInfoResponse;
+import bio.cirro.agent.pilot.PilotPool;
+import bio.cirro.agent.scheduler.JobStatePoller;
 import bio.cirro.agent.utils.FileUtils;
 import bio.cirro.agent.utils.SystemUtils;
 import io.micronaut.configuration.picocli.MicronautFactory;
@@ -32,6 +38,7 @@ import picocli.CommandLine.Option;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
@@ -46,6 +53,8 @@ import java.util.concurrent.ExecutionException;
 @Slf4j
 @RequiredArgsConstructor
 public class AgentCommand implements Runnable {
+    private static final Duration TOKEN_RENEW_INTERVAL = Duration.ofMinutes(1);
+
     // Injected dependencies
     private final ApplicationContext applicationContext;
     private final AgentClientFactory agentClientFactory;
@@ -53,6 +62,10 @@ public class AgentCommand implements Runnable {
     private final TaskScheduler taskScheduler;
     private final MessageHandler messageHandler;
     private final ExecutionCleanupService executionCleanupService;
+    private final ExecutionSchemaMigrator executionSchemaMigrator;
+    private final ExecutionRecoveryService executionRecoveryService;
+    private final ExecutionService executionService;
+    private final ExecutionTokenService executionTokenService;
     private final AgentConfig agentConfig;
     private final LoggingSystem loggingSystem;
 
@@ -108,6 +121,9 @@ public class AgentCommand implements Runnable {
             setLogLevel();
             validateParams();
             systemInfo = connectCirro();
+            // Reconcile executions from before a restart before jobs can report back
+            executionSchemaMigrator.migrate();
+            executionRecoveryService.recover();
 
             applicationContext
                     .findBean(EmbeddedServer.class)
@@ -115,11 +131,23 @@ public class AgentCommand implements Runnable {
                         server.start();
                         log.debug("Embedded server started at {}", server.getURI());
                     });
+            ProcessHandle.current().info().startInstant().ifPresent(startedAt ->
+                    log.info("Serving after {} ms", Duration.between(startedAt, Instant.now()).toMillis()));
+
+            applicationContext
+                    .findBean(JobStatePoller.class)
+                    .ifPresent(JobStatePoller::start);
+            applicationContext
+                    .findBean(PilotPool.class)
+                    .filter(PilotPool::isEnabled)
+                    .ifPresent(PilotPool::start);
 
             // Schedule connection watcher and heartbeat tasks
             var watcher = taskScheduler.scheduleAtFixedRate(Duration.ZERO, agentConfig.watchInterval(), this::watchAndInitConnection);
             taskScheduler.scheduleAtFixedRate(agentConfig.heartbeatInterval(), agentConfig.heartbeatInterval(), this::sendHeartbeat);
-            taskScheduler.scheduleAtFixedRate(Duration.ofSeconds(1), Duration.ofDays(1), executionCleanupService::cleanupOldExecutions);
+            taskScheduler.scheduleWithFixedDelay(Duration.ofSeconds(1), agentConfig.cleanupInterval(), executionCleanupService::cleanupOldExecutions);
+            taskScheduler.scheduleWithFixedDelay(agentConfig.credentialRefreshInterval(), agentConfig.credentialRefreshInterval(), executionTokenService::refreshDue);
+            taskScheduler.scheduleWithFixedDelay(TOKEN_RENEW_INTERVAL, TOKEN_RENEW_INTERVAL, agentClientFactory::renewTokenIfExpiring);
             // Wait for the watcher task to complete (it only completes when an exception is thrown)
             watcher.get();
         } catch (InterruptedException e) {
@@ -168,6 +196,7 @@ public class AgentCommand implements Runnable {
                                 .build()
                 );
             }
+            executionService.flushPendingMessages();
         }
         // Only throw an exception if the first attempt to connect has failed
         // (clientSocket will be null) Exceptions will cause the agent to exit
@@ -1,5 +1,7 @@
 package bio.cirro.agent;
 
+import bio.cirro.agent.exception.AgentException;
+import bio.cirro.agent.utils.FileUtils;
 import bio.cirro.agent.utils.SystemUtils;
 import io.micronaut.context.annotation.ConfigurationProperties;
 import jakarta.annotation.PostConstruct;
@@ -8,9 +10,15 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 /**
@@ -35,17 +43,115 @@ public class AgentConfig {
     private String version;
     private byte[] jwtSecret;
     private int jwtExpiryDays;
+    private int jwtCacheSize;
+    private int credentialRefreshPercent;
+    private int credentialRefreshInterval;
+    private int credentialCacheSize;
+    private boolean credentialsFileEnabled;
+    private boolean containerCredentialsEnabled;
+    private int stsRequestsPerSecond;
+    private int stsBurst;
     private int cleanupThreshold;
+    private int cleanupInterval;
+    private int cleanupBatchSize;
+    private boolean cleanupDeleteFiles;
+    private int cleanupDeleteConcurrency;
+    private int cleanupDeleteOpsPerSecond;
     private String submitScriptName;
     private String stopScriptName;
+    private String stopBatchScriptName;
+    private int stopBatchWindowMillis;
+    private int statusUpdateWindowMillis;
+    private int statusUpdateConcurrency;
+    private int submitConcurrency;
+    private int submitQueueDepth;
+    private String submitBatchScriptName;
+    private int submitBatchWindowMillis;
+    private int submitBatchMaxSize;
+    private int maxActiveExecutions;
+    private int maxActiveExecutionsPerProject;
+    private int maxActiveExecutionsPerUser;
+    private int submitRatePerMinute;
+    private int submitBurst;
+    private Map<String, Integer> userWeights = new HashMap<>();
+    private int maxConcurrentScripts;
+    private int submitScriptTimeout;
+    private int stopScriptTimeout;
+    private int scriptKillGrace;
+    private String schedulerType;
+    private String squeueCommand;
+    private String sacctCommand;
+    private int schedulerCommandTimeout;
+    private int schedulerPollMinInterval;
+    private int schedulerPollMaxInterval;
+    private boolean imageCacheEnabled;
+    private String imagePullScriptName;
+    private String imageDigestScriptName;
+    private int imagePullTimeout;
+    private int imageDigestCheckInterval;
+    private long imageCacheMaxMb;
+    private String pilotSubmitScriptName;
+    private int pilotMinSize;
+    private int pilotMaxSize;
+    private int pilotIdleTimeout;
+    private int pilotHeartbeatTimeout;
+    private int pilotAckTimeout;
+    private int pilotPollInterval;
+    private String pilotAccounting;
+    private String pilotJobQueue;
+    private String persistence;
+    private int executionCacheSize;
 
     @PostConstruct
     public void init() {
         this.absoluteWorkDirectory = getAbsolutePath(workDirectory);
         this.absoluteSharedDirectory = getAbsolutePath(sharedDirectory);
         if (this.jwtSecret == null) {
+            this.jwtSecret = loadOrGenerateJwtSecret();
+        }
+    }
+
+    /**
+     * Executions are stored in a database file under the work directory, and survive restarts
+     */
+    public boolean isPersistent() {
+        return "file".equalsIgnoreCase(persistence);
+    }
+
+    /**
+     * Path of the execution database, without the H2 file extension
+     */
+    public Path getDatabasePath() {
+        return getAbsoluteWorkDirectory().resolve(".agent/db/cirro-agent");
+    }
+
+    public Path getJwtSecretPath() {
+        return getAbsoluteWorkDirectory().resolve(".agent/jwt-secret");
+    }
+
+    /**
+     * When executions are persisted, the generated JWT secret is kept alongside them
+     * so that the tokens handed to running jobs remain valid after a restart
+     */
+    private byte[] loadOrGenerateJwtSecret() {
+        if (!isPersistent() || absoluteWorkDirectory == null || !Files.isDirectory(absoluteWorkDirectory)) {
             log.info("Generating random JWT secret since none was provided");
-            this.jwtSecret = SystemUtils.generateRandomBytes(20);
+            return SystemUtils.generateRandomBytes(20);
+        }
+        var secretPath = getJwtSecretPath();
+        try {
+            if (Files.exists(secretPath)) {
+                log.debug("Loading JWT secret from {}", secretPath);
+                return Base64.getDecoder().decode(Files.readString(secretPath).strip());
+            }
+            log.info("Generating random JWT secret since none was provided, saved to {}", secretPath);
+            var secret = SystemUtils.generateRandomBytes(20);
+            Files.createDirectories(secretPath.getParent());
+            FileUtils.writeAtomically(secretPath, Base64.getEncoder().encodeToString(secret),
+                    PosixFilePermissions.fromString("rw-------"));
+            return secret;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new AgentException(String.format("Failed to load JWT secret from %s: %s", secretPath, e.getMessage()));
         }
     }
 
@@ -57,10 +163,66 @@ public class AgentConfig {
         return Duration.ofSeconds(heartbeatInterval);
     }
 
+    public Duration submitScriptTimeout() {
+        return Duration.ofSeconds(submitScriptTimeout);
+    }
+
+    public Duration stopScriptTimeout() {
+        return Duration.ofSeconds(stopScriptTimeout);
+    }
+
+    public Duration scriptKillGrace() {
+        return Duration.ofSeconds(scriptKillGrace);
+    }
+
+    public Duration schedulerCommandTimeout() {
+        return Duration.ofSeconds(schedulerCommandTimeout);
+    }
+
+    public Duration schedulerPollMinInterval() {
+        return Duration.ofSeconds(schedulerPollMinInterval);
+    }
+
+    public Duration schedulerPollMaxInterval() {
+        return Duration.ofSeconds(schedulerPollMaxInterval);
+    }
+
+    public Duration imagePullTimeout() {
+        return Duration.ofSeconds(imagePullTimeout);
+    }
+
+    public Duration imageDigestCheckInterval() {
+        return Duration.ofSeconds(imageDigestCheckInterval);
+    }
+
+    public Duration pilotIdleTimeout() {
+        return Duration.ofSeconds(pilotIdleTimeout);
+    }
+
+    public Duration pilotHeartbeatTimeout() {
+        return Duration.ofSeconds(pilotHeartbeatTimeout);
+    }
+
+    public Duration pilotAckTimeout() {
+        return Duration.ofSeconds(pilotAckTimeout);
+    }
+
+    public Duration pilotPollInterval() {
+        return Duration.ofSeconds(pilotPollInterval);
+    }
+
     public Duration cleanupThresholdDays() {
         return Duration.ofDays(cleanupThreshold);
     }
 
+    public Duration cleanupInterval() {
+        return Duration.ofSeconds(cleanupInterval);
+    }
+
+    public Duration credentialRefreshInterval() {
+        return Duration.ofSeconds(credentialRefreshInterval);
+    }
+
     private Path getAbsolutePath(String directory) {
         if (directory == null) {
             return null;
@@ -78,7 +240,31 @@ public class AgentConfig {
         return getAbsoluteSharedDirectory().resolve(submitScriptName);
     }
 
+    public Path getSubmitBatchScript() {
+        return getAbsoluteSharedDirectory().resolve(submitBatchScriptName);
+    }
+
+    public Duration submitBatchWindow() {
+        return Duration.ofMillis(submitBatchWindowMillis);
+    }
+
     public Path getStopScript() {
         return getAbsoluteSharedDirectory().resolve(stopScriptName);
     }
+
+    public Path getStopBatchScript() {
+        return getAbsoluteSharedDirectory().resolve(stopBatchScriptName);
+    }
+
+    public Path getImagePullScript() {
+        return getAbsoluteSharedDirectory().resolve(imagePullScriptName);
+    }
+
+    public Path getImageDigestScript() {
+        return getAbsoluteSharedDirectory().resolve(imageDigestScriptName);
+    }
+
+    public Path getPilotSubmitScript() {
+        return getAbsoluteSharedDirectory().resolve(pilotSubmitScriptName);
+    }
 }
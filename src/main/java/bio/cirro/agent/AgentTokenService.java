@@ -1,26 +1,45 @@
 package bio.cirro.agent;
 
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import jakarta.inject.Singleton;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for generating and validating tokens given to the running jobs
+ * <p>
+ * The jobs of an execution present the same token on every request, so tokens that have been verified
+ * are remembered until they expire, keyed by their SHA-256 hash, and are not verified again.
  */
 @Singleton
 public class AgentTokenService {
+    private static final String BEARER_PREFIX = "Bearer ";
+
     private final Algorithm algorithm;
+    private final JWTVerifier verifier;
     private final String issuer;
     private final Duration jwtExpiration;
+    private final int cacheSize;
+    private final Map<ByteBuffer, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
 
     public AgentTokenService(AgentConfig agentConfig) {
         this.algorithm = Algorithm.HMAC256(agentConfig.getJwtSecret());
         this.issuer = agentConfig.getId();
+        this.verifier = JWT.require(algorithm)
+                .withIssuer(issuer)
+                .build();
         this.jwtExpiration = Duration.ofDays(agentConfig.getJwtExpiryDays());
+        this.cacheSize = agentConfig.getJwtCacheSize();
     }
 
     /**
@@ -38,19 +57,65 @@ public class AgentTokenService {
      * Validate the token and return the execution ID
      */
     public void validate(String token, String executionId) {
-        try {
-            token = token.replace("Bearer ", "");
-            var resp = JWT.require(algorithm)
-                    .withIssuer(issuer)
-                    .build()
-                    .verify(token);
-            var executionIdFromToken = resp.getSubject();
-            if (!executionId.equals(executionIdFromToken)) {
-                throw new SecurityException("Not authorized to access this execution");
+        if (token.startsWith(BEARER_PREFIX)) {
+            token = token.substring(BEARER_PREFIX.length());
+        }
+        var subject = getVerifiedSubject(token);
+        if (!MessageDigest.isEqual(subject, executionId.getBytes(StandardCharsets.UTF_8))) {
+            throw new SecurityException("Not authorized to access this execution");
+        }
+    }
+
+    private byte[] getVerifiedSubject(String token) {
+        if (cacheSize <= 0) {
+            return verify(token).subject();
+        }
+        var key = ByteBuffer.wrap(sha256(token));
+        var cached = verifiedTokens.get(key);
+        if (cached != null) {
+            if (!cached.isExpired()) {
+                return cached.subject();
+            }
+            verifiedTokens.remove(key, cached);
+        }
+        var verified = verify(token);
+        if (verifiedTokens.size() >= cacheSize) {
+            verifiedTokens.values().removeIf(VerifiedToken::isExpired);
+            if (verifiedTokens.size() >= cacheSize) {
+                // Only tokens in use are worth keeping, and they are verified again on their next request
+                verifiedTokens.clear();
             }
+        }
+        verifiedTokens.put(key, verified);
+        return verified.subject();
+    }
+
+    private VerifiedToken verify(String token) {
+        try {
+            var decoded = verifier.verify(token);
+            var subject = decoded.getSubject() == null ? new byte[0] : decoded.getSubject().getBytes(StandardCharsets.UTF_8);
+            var expiresAt = decoded.getExpiresAtAsInstant() == null ? Instant.now() : decoded.getExpiresAtAsInstant();
+            return new VerifiedToken(subject, expiresAt);
         } catch (JWTVerificationException e) {
             throw new SecurityException(e.getMessage(), e);
         }
     }
-}
 
+    private static byte[] sha256(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param subject   execution ID the token was issued for
+     * @param expiresAt time after which the token has to be verified again, and is rejected
+     */
+    private record VerifiedToken(byte[] subject, Instant expiresAt) {
+        boolean isExpired() {
+            return !expiresAt.isAfter(Instant.now());
+        }
+    }
+}
@@ -1,15 +1,12 @@
 package bio.cirro.agent;
 
-import bio.cirro.agent.exception.ExecutionException;
-import bio.cirro.agent.execution.ExecutionCreateService;
 import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.execution.ExecutionSubmissionService;
 import bio.cirro.agent.messaging.dto.AckMessage;
-import bio.cirro.agent.messaging.dto.AnalysisUpdateMessage;
 import bio.cirro.agent.messaging.dto.PortalMessage;
 import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
 import bio.cirro.agent.messaging.dto.StopAnalysisMessage;
 import bio.cirro.agent.messaging.dto.UnknownMessage;
-import bio.cirro.agent.models.Status;
 import jakarta.inject.Singleton;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,13 +21,15 @@ import java.util.Optional;
 @Slf4j
 @AllArgsConstructor
 public class MessageHandler {
-    private final ExecutionCreateService executionCreateService;
+    private final ExecutionSubmissionService executionSubmissionService;
     private final ExecutionService executionService;
 
     public Optional<PortalMessage> handleMessage(PortalMessage message) {
         return switch (message) {
-            case RunAnalysisCommandMessage runAnalysisCommandMessage ->
-                    Optional.of(handleRunAnalysisCommand(runAnalysisCommandMessage));
+            case RunAnalysisCommandMessage runAnalysisCommandMessage -> {
+                handleRunAnalysisCommand(runAnalysisCommandMessage);
+                yield Optional.empty();
+            }
             case StopAnalysisMessage stopAnalysisMessage ->
                     Optional.of(handleStopAnalysisCommand(stopAnalysisMessage));
             case UnknownMessage unknownMessage -> {
@@ -44,33 +43,18 @@ public class MessageHandler {
         };
     }
 
-    private AnalysisUpdateMessage handleRunAnalysisCommand(RunAnalysisCommandMessage runAnalysisCommandMessage) {
-        try {
-            var execution = executionCreateService.create(runAnalysisCommandMessage);
-            return AnalysisUpdateMessage.builder()
-                    .datasetId(runAnalysisCommandMessage.getDatasetId())
-                    .projectId(runAnalysisCommandMessage.getProjectId())
-                    .nativeJobId(execution.getStartOutput().localJobId())
-                    .message(null)
-                    .status(Status.PENDING)
-                    .build();
-        } catch (ExecutionException e) {
-            var message = String.format("Error running analysis: %s", e.getMessage());
-            log.error(message, e);
-            return AnalysisUpdateMessage.builder()
-                    .datasetId(runAnalysisCommandMessage.getDatasetId())
-                    .projectId(runAnalysisCommandMessage.getProjectId())
-                    .nativeJobId(null)
-                    .message(e.getMessage())
-                    .status(Status.FAILED)
-                    .build();
-        }
+    /**
+     * Queue the analysis for submission, the acknowledgement and the result of the submission
+     * are sent by the execution service in order, so nothing is returned here.
+     */
+    private void handleRunAnalysisCommand(RunAnalysisCommandMessage runAnalysisCommandMessage) {
+        executionSubmissionService.submit(runAnalysisCommandMessage);
     }
 
     private AckMessage handleStopAnalysisCommand(StopAnalysisMessage stopAnalysisMessage) {
         try {
             executionService.stopExecution(stopAnalysisMessage);
-            return new AckMessage("Analysis stopped");
+            return new AckMessage("Analysis stop requested");
         } catch (Exception e) {
             var message = String.format("Error stopping analysis: %s", e.getMessage());
             log.error(message, e);
@@ -3,8 +3,8 @@ package bio.cirro.agent.aws;
 import bio.cirro.agent.exception.AgentException;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.MutableHttpRequest;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Singleton;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkException;
@@ -14,22 +14,32 @@ import software.amazon.awssdk.http.SdkHttpRequest;
 import software.amazon.awssdk.http.auth.aws.signer.AwsV4FamilyHttpSigner;
 import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
 
-import java.util.concurrent.ExecutionException;
-
 
 /**
  * Signs an HTTP request to API Gateway using AWS Signature Version 4.
  * Uses the default credentials provider chain to get the credentials.
+ * <p>
+ * The provider is kept for the life of the agent, so the chain is only walked once,
+ * and temporary credentials are refreshed in the background before they expire.
  */
 @Singleton
 @Slf4j
-@AllArgsConstructor
 public class AwsRequestSigner {
     private static final String SERVICE_NAME = "execute-api";
 
+    private final DefaultCredentialsProvider credentialsProvider;
+    private final AwsV4HttpSigner signer;
+
+    public AwsRequestSigner() {
+        this.credentialsProvider = DefaultCredentialsProvider.builder()
+                .asyncCredentialUpdateEnabled(true)
+                .build();
+        this.signer = AwsV4HttpSigner.create();
+    }
+
     public MutableHttpRequest<String> signRequest(MutableHttpRequest<String> request, String region) {
-        try (var credentialsProvider = DefaultCredentialsProvider.create()) {
-            var identity = credentialsProvider.resolveIdentity().get();
+        try {
+            var identity = credentialsProvider.resolveCredentials();
             log.debug("Signing request with identity: {}", identity.accessKeyId());
             var body = request.getBody().orElse(null);
             // Convert to SDK request object
@@ -39,7 +49,6 @@ public class AwsRequestSigner {
                     .headers(request.getHeaders().asMap())
                     .build();
             // Sign the request
-            var signer = AwsV4HttpSigner.create();
             var signedSdkRequest = signer.sign(r ->
                     r.identity(identity)
                             .request(sdkHttpRequest)
@@ -51,15 +60,13 @@ public class AwsRequestSigner {
             return HttpRequest.create(request.getMethod(), request.getUri().toString())
                     .headers(headers -> signedSdkRequest.headers().forEach((k, v) -> headers.add(k, v.getFirst())))
                     .body(body);
-        } catch (ExecutionException e) {
-            log.error("Error getting credentials", e);
-            return request;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Interrupted", e);
-            return request;
         } catch (SdkException e) {
             throw new AgentException(e.getMessage());
         }
     }
+
+    @PreDestroy
+    public void close() {
+        credentialsProvider.close();
+    }
 }
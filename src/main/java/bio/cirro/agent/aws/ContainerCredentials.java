@@ -0,0 +1,31 @@
+package bio.cirro.agent.aws;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micronaut.serde.annotation.Serdeable;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Credentials in the format expected by the AWS container credentials provider,
+ * fetched from {@code AWS_CONTAINER_CREDENTIALS_FULL_URI}
+ * <a href="https://docs.aws.amazon.com/sdkref/latest/guide/feature-container-credentials.html">Container credential provider</a>
+ */
+@Serdeable
+public record ContainerCredentials(
+        @JsonProperty("AccessKeyId") String accessKeyId,
+        @JsonProperty("SecretAccessKey") String secretAccessKey,
+        @JsonProperty("Token") String token,
+        // ISO 8601, which the SDKs use to know when to fetch new credentials
+        @JsonProperty("Expiration") String expiration
+) {
+    public static ContainerCredentials from(AwsCredentials credentials) {
+        return new ContainerCredentials(
+                credentials.getAccessKeyId(),
+                credentials.getSecretAccessKey(),
+                credentials.getSessionToken(),
+                credentials.getExpiration() == null
+                        ? null
+                        : DateTimeFormatter.ISO_INSTANT.format(credentials.getExpiration())
+        );
+    }
+}
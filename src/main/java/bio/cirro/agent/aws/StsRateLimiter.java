@@ -0,0 +1,118 @@
+package bio.cirro.agent.aws;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.AgentException;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.TokenBucket;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Limits the rate of STS calls made by the agent, shared by all executions.
+ * <p>
+ * When STS throttles a call, every caller holds off for an exponentially growing delay
+ * before the call is retried, rather than adding to the load.
+ */
+@Singleton
+@Slf4j
+public class StsRateLimiter implements StatsProvider {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Duration BASE_BACKOFF = Duration.ofMillis(100);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(10);
+
+    private final TokenBucket tokenBucket;
+    // System.nanoTime() until which no call is made after being throttled
+    private final AtomicLong backoffUntil = new AtomicLong(System.nanoTime());
+    private final LongAdder callCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public StsRateLimiter(AgentConfig agentConfig) {
+        this.tokenBucket = new TokenBucket(agentConfig.getStsBurst(), agentConfig.getStsRequestsPerSecond());
+    }
+
+    /**
+     * Make the call once allowed, retrying it if it is throttled
+     */
+    public <T> T call(Supplier<T> stsCall) {
+        for (int attempt = 1; ; attempt++) {
+            awaitPermit();
+            callCount.increment();
+            try {
+                return stsCall.get();
+            } catch (SdkServiceException e) {
+                if (!e.isThrottlingException() || attempt >= MAX_ATTEMPTS) {
+                    failedCount.increment();
+                    throw e;
+                }
+                throttledCount.increment();
+                var backoff = getBackoff(attempt);
+                log.warn("STS call throttled, retrying in {} ms", backoff.toMillis());
+                var until = System.nanoTime() + backoff.toNanos();
+                backoffUntil.accumulateAndGet(until, Math::max);
+            }
+        }
+    }
+
+    private void awaitPermit() {
+        var start = System.nanoTime();
+        try {
+            while (true) {
+                var backoff = backoffUntil.get() - System.nanoTime();
+                if (backoff > 0) {
+                    Thread.sleep(Duration.ofNanos(backoff));
+                } else if (tokenBucket.tryAcquire()) {
+                    return;
+                } else {
+                    Thread.sleep(Math.max(1, tokenBucket.timeUntilAvailable().toMillis()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AgentException("Interrupted while waiting to call STS");
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Exponential backoff with full jitter
+     */
+    private static Duration getBackoff(int attempt) {
+        var ceiling = Math.min(MAX_BACKOFF.toMillis(), BASE_BACKOFF.toMillis() << Math.min(attempt, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(BASE_BACKOFF.toMillis(), ceiling + 1));
+    }
+
+    @Override
+    public String getStatsName() {
+        return "sts";
+    }
+
+    @Override
+    public StsStats getStats() {
+        return new StsStats(
+                callCount.sum(),
+                throttledCount.sum(),
+                failedCount.sum(),
+                Duration.ofNanos(waitNanos.sum()).toMillis()
+        );
+    }
+
+    @Serdeable
+    public record StsStats(
+            long calls,
+            long throttled,
+            long failed,
+            long totalWaitMillis
+    ) {
+    }
+}
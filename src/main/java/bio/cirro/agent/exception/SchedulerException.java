@@ -0,0 +1,14 @@
+package bio.cirro.agent.exception;
+
+/**
+ * Thrown when the scheduler cannot be queried, the state of the jobs is then unknown.
+ */
+public class SchedulerException extends RuntimeException {
+    public SchedulerException(String message) {
+        super(message);
+    }
+
+    public SchedulerException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,354 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.TokenBucket;
+import io.micronaut.runtime.event.annotation.EventListener;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when executions are submitted to the compute environment.
+ * <ul>
+ *     <li>The number of active executions is capped globally, per project and per user</li>
+ *     <li>The rate of submissions is limited by a token bucket</li>
+ *     <li>Executions over the limits wait in a queue per user, and users are served in proportion to their weight
+ *     (stride scheduling), so that one user submitting hundreds of analyses does not hold up everyone else</li>
+ * </ul>
+ * An execution holds its slot from admission until it reaches a terminal status.
+ * A limit of zero or less disables it.
+ */
+@Singleton
+@Slf4j
+public class AdmissionController implements StatsProvider {
+    private static final int DEFAULT_WEIGHT = 1;
+
+    private final AgentConfig agentConfig;
+    private final TokenBucket tokenBucket;
+    private final int maxQueued;
+    private final int maxDispatching;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<String, UserQueue> queues = new HashMap<>();
+    private final Map<String, Slot> active = new HashMap<>();
+    private final Map<String, Integer> activeByUser = new HashMap<>();
+    private final Map<String, Integer> activeByProject = new HashMap<>();
+    private final LatencyRecorder queueLatency = new LatencyRecorder();
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+    private int queuedCount;
+    private int dispatchingCount;
+    // Pass of the last admitted execution, users joining the queue start from here
+    private double virtualTime;
+    private boolean retryScheduled;
+
+    public AdmissionController(AgentConfig agentConfig) {
+        this.agentConfig = agentConfig;
+        this.tokenBucket = new TokenBucket(agentConfig.getSubmitBurst(), agentConfig.getSubmitRatePerMinute() / 60.0);
+        this.maxQueued = Math.max(1, agentConfig.getSubmitQueueDepth());
+        // Do not hand over more work than the submission workers can accept
+        this.maxDispatching = Math.max(1, agentConfig.getSubmitConcurrency()) + maxQueued;
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("admission-controller").daemon().factory());
+    }
+
+    /**
+     * Queue an execution, running {@code task} once it is admitted
+     *
+     * @param task hands the execution over for submission, must not block
+     * @return true if the execution was admitted right away, false if it is queued
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public boolean submit(RunAnalysisCommandMessage message, Runnable task) {
+        var pending = new Pending(message, task, System.nanoTime());
+        synchronized (this) {
+            if (queuedCount >= maxQueued) {
+                throw new RejectedExecutionException("Admission queue is full");
+            }
+            var username = Objects.requireNonNullElse(message.getUsername(), "");
+            queues.computeIfAbsent(username, u -> new UserQueue(getWeight(u), virtualTime))
+                    .items.add(pending);
+            queuedCount++;
+        }
+        dispatch();
+        synchronized (this) {
+            return pending.admitted;
+        }
+    }
+
+    /**
+     * Remove an execution from the queue before it is admitted
+     *
+     * @return true if the execution was queued, false if it was already admitted or is unknown
+     */
+    public synchronized boolean cancel(String executionId) {
+        for (var entry : queues.entrySet()) {
+            var queue = entry.getValue();
+            var removed = queue.items.removeIf(pending -> executionId.equals(pending.message.getDatasetId()));
+            if (removed) {
+                if (queue.items.isEmpty()) {
+                    queues.remove(entry.getKey());
+                }
+                queuedCount--;
+                cancelledCount.increment();
+                log.debug("Cancelled queued execution {}", executionId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of executions waiting to be admitted
+     */
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Called once the task of an admitted execution has finished handing it over
+     */
+    public void dispatched() {
+        synchronized (this) {
+            dispatchingCount = Math.max(0, dispatchingCount - 1);
+        }
+        dispatch();
+    }
+
+    /**
+     * Free the slot held by an execution
+     */
+    public void release(String executionId) {
+        synchronized (this) {
+            var slot = active.remove(executionId);
+            if (slot == null) {
+                return;
+            }
+            decrement(activeByUser, slot.username());
+            decrement(activeByProject, slot.projectId());
+        }
+        dispatch();
+    }
+
+    /**
+     * Count an execution recovered after a restart against the limits, without queueing it
+     */
+    public void restore(Execution execution) {
+        synchronized (this) {
+            var slot = new Slot(execution.getUsername(), execution.getProjectId());
+            if (active.putIfAbsent(execution.getExecutionId(), slot) != null) {
+                return;
+            }
+            activeByUser.merge(slot.username(), 1, Integer::sum);
+            activeByProject.merge(slot.projectId(), 1, Integer::sum);
+        }
+    }
+
+    @EventListener
+    public void onStatusChanged(ExecutionStatusChangedEvent event) {
+        if (event.isTerminal()) {
+            release(event.executionId());
+        }
+    }
+
+    /**
+     * Admit as many queued executions as the limits allow
+     */
+    void dispatch() {
+        var admitted = new ArrayList<Pending>();
+        synchronized (this) {
+            while (queuedCount > 0 && hasCapacity()) {
+                var next = pickNext();
+                if (next == null) {
+                    break;
+                }
+                if (!tokenBucket.tryAcquire()) {
+                    throttledCount.increment();
+                    scheduleRetry();
+                    break;
+                }
+                admit(next);
+                admitted.add(next.pending);
+            }
+        }
+        for (var pending : admitted) {
+            queueLatency.recordNanos(System.nanoTime() - pending.queuedAt);
+            pending.task.run();
+        }
+    }
+
+    private boolean hasCapacity() {
+        var maxActive = agentConfig.getMaxActiveExecutions();
+        return dispatchingCount < maxDispatching && (maxActive <= 0 || active.size() < maxActive);
+    }
+
+    /**
+     * Find the user with the lowest pass that has an execution within its limits
+     */
+    private Candidate pickNext() {
+        Candidate best = null;
+        for (var entry : queues.entrySet()) {
+            var username = entry.getKey();
+            var queue = entry.getValue();
+            if (best != null && queue.pass >= best.queue.pass) {
+                continue;
+            }
+            if (isAtLimit(activeByUser, username, agentConfig.getMaxActiveExecutionsPerUser())) {
+                continue;
+            }
+            // Skip over executions in projects that are at their limit
+            for (var pending : queue.items) {
+                var projectId = pending.message.getProjectId();
+                if (!isAtLimit(activeByProject, projectId, agentConfig.getMaxActiveExecutionsPerProject())) {
+                    best = new Candidate(username, queue, pending);
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void admit(Candidate candidate) {
+        var queue = candidate.queue;
+        queue.items.remove(candidate.pending);
+        virtualTime = queue.pass;
+        queue.pass += 1.0 / queue.weight;
+        if (queue.items.isEmpty()) {
+            queues.remove(candidate.username);
+        }
+        queuedCount--;
+        dispatchingCount++;
+        admittedCount.increment();
+
+        var message = candidate.pending.message;
+        var slot = new Slot(candidate.username, message.getProjectId());
+        var previous = active.put(message.getDatasetId(), slot);
+        if (previous != null) {
+            decrement(activeByUser, previous.username());
+            decrement(activeByProject, previous.projectId());
+        }
+        activeByUser.merge(slot.username(), 1, Integer::sum);
+        activeByProject.merge(slot.projectId(), 1, Integer::sum);
+        candidate.pending.admitted = true;
+        log.debug("Admitted execution {} for {}", message.getDatasetId(), candidate.username);
+    }
+
+    private void scheduleRetry() {
+        if (retryScheduled) {
+            return;
+        }
+        retryScheduled = true;
+        var delay = tokenBucket.timeUntilAvailable();
+        timer.schedule(() -> {
+            synchronized (this) {
+                retryScheduled = false;
+            }
+            dispatch();
+        }, Math.max(1, delay.toMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private int getWeight(String username) {
+        var weights = agentConfig.getUserWeights();
+        var weight = weights == null ? null : weights.get(username);
+        return weight == null || weight <= 0 ? DEFAULT_WEIGHT : weight;
+    }
+
+    private static boolean isAtLimit(Map<String, Integer> counts, String key, int limit) {
+        return limit > 0 && counts.getOrDefault(Objects.requireNonNullElse(key, ""), 0) >= limit;
+    }
+
+    private static void decrement(Map<String, Integer> counts, String key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "admission";
+    }
+
+    @Override
+    public synchronized AdmissionStats getStats() {
+        var queuedByUser = new TreeMap<String, Integer>();
+        queues.forEach((username, queue) -> queuedByUser.put(username, queue.items.size()));
+        return new AdmissionStats(
+                queuedCount,
+                active.size(),
+                admittedCount.sum(),
+                throttledCount.sum(),
+                cancelledCount.sum(),
+                tokenBucket.isLimited() ? tokenBucket.getAvailableTokens() : null,
+                queuedByUser,
+                new TreeMap<>(activeByUser),
+                new TreeMap<>(activeByProject),
+                queueLatency.snapshot()
+        );
+    }
+
+    private static class Pending {
+        private final RunAnalysisCommandMessage message;
+        private final Runnable task;
+        private final long queuedAt;
+        private boolean admitted;
+
+        Pending(RunAnalysisCommandMessage message, Runnable task, long queuedAt) {
+            this.message = message;
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class UserQueue {
+        private final ArrayDeque<Pending> items = new ArrayDeque<>();
+        private final int weight;
+        private double pass;
+
+        UserQueue(int weight, double pass) {
+            this.weight = weight;
+            this.pass = pass;
+        }
+    }
+
+    private record Candidate(String username, UserQueue queue, Pending pending) {
+    }
+
+    private record Slot(String username, String projectId) {
+        Slot {
+            username = Objects.requireNonNullElse(username, "");
+            projectId = Objects.requireNonNullElse(projectId, "");
+        }
+    }
+
+    @Serdeable
+    public record AdmissionStats(
+            int queued,
+            int active,
+            long admitted,
+            long throttled,
+            long cancelled,
+            Double availableTokens,
+            Map<String, Integer> queuedByUser,
+            Map<String, Integer> activeByUser,
+            Map<String, Integer> activeByProject,
+            LatencyRecorder.Snapshot queueLatency
+    ) {
+    }
+}
@@ -0,0 +1,158 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.aws.AwsCredentials;
+import io.micronaut.serde.annotation.Serdeable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the S3 credentials of executions, kept in least recently used order.
+ * <p>
+ * Entries expire with their credentials, or once an execution has finished and its grace period has passed,
+ * so that the cache does not grow with the number of executions the agent has run.
+ * A capacity of zero or less disables the cache.
+ */
+public class CredentialCache {
+    private final int capacity;
+    private final LinkedHashMap<String, CachedCredentials> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder removedCount = new LongAdder();
+
+    CredentialCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached credentials, or null if there are none or they have expired
+     */
+    synchronized CachedCredentials get(String executionId) {
+        var cached = entries.get(executionId);
+        if (cached != null && cached.isExpired(Instant.now())) {
+            entries.remove(executionId);
+            expiredCount.increment();
+            return null;
+        }
+        return cached;
+    }
+
+    synchronized void put(String executionId, CachedCredentials cached) {
+        if (capacity <= 0) {
+            return;
+        }
+        var existing = entries.get(executionId);
+        if (existing != null && existing.evictAt() != null) {
+            // The execution finished while the credentials were being refreshed
+            cached = cached.withEvictAt(existing.evictAt());
+        }
+        entries.put(executionId, cached);
+        while (entries.size() > capacity) {
+            var eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Drop the credentials of the execution at the given time, used once it has finished
+     */
+    synchronized void evictAt(String executionId, Instant evictAt) {
+        entries.computeIfPresent(executionId, (id, cached) -> cached.withEvictAt(evictAt));
+    }
+
+    synchronized void remove(String executionId, CachedCredentials cached) {
+        if (entries.remove(executionId, cached)) {
+            removedCount.increment();
+        }
+    }
+
+    synchronized void removeAll(Collection<String> executionIds) {
+        for (var executionId : executionIds) {
+            if (entries.remove(executionId) != null) {
+                removedCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Drop the entries that have expired
+     *
+     * @return number of entries dropped
+     */
+    synchronized int removeExpired(Instant now) {
+        var removed = 0;
+        var iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        expiredCount.add(removed);
+        return removed;
+    }
+
+    /**
+     * Entries that have reached their refresh time
+     */
+    synchronized List<Map.Entry<String, CachedCredentials>> getDueForRefresh(Instant now) {
+        var due = new ArrayList<Map.Entry<String, CachedCredentials>>();
+        // Iterating over the entries does not change their access order
+        for (var entry : entries.entrySet()) {
+            if (!now.isBefore(entry.getValue().refreshAt())) {
+                due.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        return due;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized CacheStats getStats() {
+        return new CacheStats(
+                capacity,
+                entries.size(),
+                expiredCount.sum(),
+                evictionCount.sum(),
+                removedCount.sum()
+        );
+    }
+
+    /**
+     * @param refreshAt time after which the credentials are renewed in the background
+     * @param evictAt   time after which the credentials are dropped, set once the execution has finished
+     */
+    record CachedCredentials(AwsCredentials credentials, Instant refreshAt, Instant evictAt) {
+        boolean isValidFor(Duration duration) {
+            return credentials.getExpiration().isAfter(Instant.now().plus(duration));
+        }
+
+        boolean isExpired(Instant now) {
+            return !credentials.getExpiration().isAfter(now) || (evictAt != null && !evictAt.isAfter(now));
+        }
+
+        CachedCredentials withEvictAt(Instant evictAt) {
+            return new CachedCredentials(credentials, refreshAt, evictAt);
+        }
+    }
+
+    @Serdeable
+    public record CacheStats(
+            int capacity,
+            int size,
+            long expired,
+            long evictions,
+            long removed
+    ) {
+    }
+}
@@ -0,0 +1,125 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.aws.AwsCredentials;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.FileUtils;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the S3 credentials of executions to the shared credentials file in their working directory
+ * ({@code AWS_SHARED_CREDENTIALS_FILE}), so that AWS tools read them from disk
+ * rather than running the credential helper, which remains as a fallback.
+ * <p>
+ * The file is rewritten whenever the credentials are refreshed, and deleted when they are about to expire
+ * without having been refreshed, so that tools never read expired credentials.
+ */
+@Singleton
+@Slf4j
+public class CredentialsFileWriter implements StatsProvider {
+    private static final Set<PosixFilePermission> PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    private final AgentConfig agentConfig;
+    // Credential files written, with the expiration of the credentials they hold
+    private final Map<Path, Instant> written = new ConcurrentHashMap<>();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder deleteCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+
+    public CredentialsFileWriter(AgentConfig agentConfig) {
+        this.agentConfig = agentConfig;
+    }
+
+    public boolean isEnabled() {
+        return agentConfig.isCredentialsFileEnabled();
+    }
+
+    public void write(Execution execution, AwsCredentials credentials) {
+        var path = execution.getAwsCredentialsFilePath();
+        try {
+            // Credentials may be generated before the working directory is set up
+            Files.createDirectories(path.getParent());
+            FileUtils.writeAtomically(path, render(credentials), PERMISSIONS);
+            written.put(path, credentials.getExpiration());
+            writeCount.increment();
+        } catch (IOException e) {
+            errorCount.increment();
+            log.warn("Failed to write credentials file of execution {}: {}", execution.getExecutionId(), e.getMessage());
+        }
+    }
+
+    public void delete(Execution execution) {
+        delete(execution.getAwsCredentialsFilePath());
+    }
+
+    /**
+     * Delete the files holding credentials that expire before the given time
+     */
+    public void deleteExpiring(Instant before) {
+        for (var entry : List.copyOf(written.entrySet())) {
+            if (entry.getValue().isBefore(before) && written.remove(entry.getKey(), entry.getValue())) {
+                delete(entry.getKey());
+            }
+        }
+    }
+
+    private void delete(Path path) {
+        written.remove(path);
+        try {
+            if (Files.deleteIfExists(path)) {
+                deleteCount.increment();
+            }
+        } catch (IOException e) {
+            errorCount.increment();
+            log.warn("Failed to delete credentials file {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static String render(AwsCredentials credentials) {
+        return String.format("[default]%n"
+                        + "aws_access_key_id = %s%n"
+                        + "aws_secret_access_key = %s%n"
+                        + "aws_session_token = %s%n",
+                credentials.getAccessKeyId(), credentials.getSecretAccessKey(), credentials.getSessionToken());
+    }
+
+    @Override
+    public String getStatsName() {
+        return "credentialsFiles";
+    }
+
+    @Override
+    public CredentialsFileStats getStats() {
+        return new CredentialsFileStats(
+                isEnabled(),
+                written.size(),
+                writeCount.sum(),
+                deleteCount.sum(),
+                errorCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record CredentialsFileStats(
+            boolean enabled,
+            int files,
+            long writes,
+            long deletes,
+            long errors
+    ) {
+    }
+}
@@ -60,17 +60,25 @@ public class Execution {
      * Working directory of the execution, this is where all the scripts are run under.
      */
     public Path getWorkingDirectory() {
-        return getProjectRoot().resolve(
-                String.format("datasets/%s", getDatasetId())
-        );
+        return getWorkingDirectory(agentWorkingDirectory, getProjectId(), getDatasetId());
     }
 
     /**
      * Root of the project directory, this is where the executors work directory is stored
      */
     public Path getProjectRoot() {
+        return getProjectRoot(agentWorkingDirectory, getProjectId());
+    }
+
+    static Path getWorkingDirectory(Path agentWorkingDirectory, String projectId, String datasetId) {
+        return getProjectRoot(agentWorkingDirectory, projectId).resolve(
+                String.format("datasets/%s", datasetId)
+        );
+    }
+
+    static Path getProjectRoot(Path agentWorkingDirectory, String projectId) {
         return agentWorkingDirectory.resolve(
-                String.format("projects/%s", getProjectId())
+                String.format("projects/%s", projectId)
         );
     }
 
@@ -85,6 +93,16 @@ public class Execution {
      * Generates the environment variables for the execution
      */
     public Map<String, String> getEnvironment(String token, String agentEndpoint) {
+        return getEnvironment(token, agentEndpoint, false);
+    }
+
+    /**
+     * Generates the environment variables for the execution
+     *
+     * @param containerCredentials have AWS tools fetch credentials from the container credentials endpoint
+     *                             of the agent, rather than through the credential helper
+     */
+    public Map<String, String> getEnvironment(String token, String agentEndpoint, boolean containerCredentials) {
         // Add any variables injected from Cirro
         var environment = Optional.ofNullable(messageData.getEnvironment())
                 .map(HashMap::new)
@@ -103,11 +121,32 @@ public class Execution {
         environment.put("AWS_REGION", getMessageData().getRegion());
         environment.put("AWS_CONFIG_FILE", getAwsConfigPath().toString());
         environment.put("AWS_SHARED_CREDENTIALS_FILE", getAwsCredentialsFilePath().toString());
+        if (containerCredentials) {
+            environment.put("AWS_CONTAINER_CREDENTIALS_FULL_URI",
+                    String.format("%s/executions/%s/container-credentials", agentEndpoint, getDatasetId()));
+            environment.put("AWS_CONTAINER_AUTHORIZATION_TOKEN", token);
+        }
         // Escape all values
         environment.replaceAll((k, v) -> StringEscapeUtils.escapeXSI(v));
         return Map.copyOf(environment);
     }
 
+    /**
+     * Headnode image provided by Cirro, if any
+     */
+    public String getHeadnodeImage() {
+        return Optional.ofNullable(messageData.getEnvironment())
+                .map(environment -> environment.get("PW_HEADNODE_IMAGE"))
+                .orElse(null);
+    }
+
+    /**
+     * Path to the file containing the full output of the submit script
+     */
+    public Path getSubmitOutputPath() {
+        return getWorkingDirectory().resolve("submit.log");
+    }
+
     public Path getAwsConfigPath() {
         return getWorkingDirectory().resolve("aws.config");
     }
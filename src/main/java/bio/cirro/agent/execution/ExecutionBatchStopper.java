@@ -0,0 +1,231 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import bio.cirro.agent.process.ProcessSupervisor;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects stop requests received within a short window and stops the jobs
+ * with a single call to the batch stop script, off the thread receiving messages from the portal.
+ * <p>
+ * The batch stop script is run from the agent work directory with {@code PW_JOB_IDS} set to the
+ * space separated job IDs to stop. Without it, the stop script is run for each execution.
+ * As the batch stop script only reports a single exit code, the jobs are stopped one at a time
+ * with the stop script when it fails, so that each execution gets its own result.
+ */
+@Singleton
+@Slf4j
+public class ExecutionBatchStopper implements StatsProvider {
+    private final AgentConfig agentConfig;
+    private final ProcessSupervisor processSupervisor;
+    private final ScheduledExecutorService scheduler;
+    private final List<PendingStop> pending = new ArrayList<>();
+    private final LongAdder requestedCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder scriptCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public ExecutionBatchStopper(AgentConfig agentConfig, ProcessSupervisor processSupervisor) {
+        this.agentConfig = agentConfig;
+        this.processSupervisor = processSupervisor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("execution-stop").daemon().factory()
+        );
+    }
+
+    /**
+     * A stop script is needed to stop executions
+     */
+    public boolean isAvailable() {
+        return Files.exists(agentConfig.getStopScript()) || Files.exists(agentConfig.getStopBatchScript());
+    }
+
+    /**
+     * Add the execution to the current batch of stops
+     *
+     * @return future completed with the exit code of the stop script once the job has been stopped
+     */
+    public CompletableFuture<Integer> stop(Execution execution) {
+        requestedCount.increment();
+        var startOutput = execution.getStartOutput();
+        if (startOutput == null || startOutput.localJobId() == null) {
+            failedCount.increment();
+            return CompletableFuture.failedFuture(new ExecutionException("Execution has no job ID, cannot stop job"));
+        }
+        var stop = new PendingStop(execution, new CompletableFuture<>());
+        synchronized (pending) {
+            pending.add(stop);
+            if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush,
+                        Math.max(0, agentConfig.getStopBatchWindowMillis()), TimeUnit.MILLISECONDS);
+            }
+        }
+        return stop.future();
+    }
+
+    private void flush() {
+        List<PendingStop> batch;
+        synchronized (pending) {
+            batch = List.copyOf(pending);
+            pending.clear();
+            scheduledFlush = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchCount.increment();
+        var useBatchScript = Files.exists(agentConfig.getStopBatchScript())
+                && (batch.size() > 1 || !Files.exists(agentConfig.getStopScript()));
+        if (useBatchScript) {
+            Thread.ofVirtual().name("execution-batch-stop").start(() -> stopBatch(batch));
+            return;
+        }
+        // The supervisor limits how many of these run at once
+        for (var stop : batch) {
+            Thread.ofVirtual().name("execution-stop-" + stop.execution().getDatasetId())
+                    .start(() -> stopSingle(stop));
+        }
+    }
+
+    private void stopBatch(List<PendingStop> batch) {
+        var jobIds = batch.stream()
+                .map(stop -> stop.execution().getStartOutput().localJobId())
+                .toList();
+        log.info("Stopping {} executions", batch.size());
+        var processBuilder = new ProcessBuilder()
+                .directory(agentConfig.getAbsoluteWorkDirectory().toFile())
+                .command(agentConfig.getStopBatchScript().toAbsolutePath().toString())
+                .redirectErrorStream(true);
+        processBuilder.environment().put("PW_JOB_IDS", String.join(" ", jobIds));
+        int exitCode;
+        try {
+            exitCode = runScript("batch stop", processBuilder);
+        } catch (Exception e) {
+            if (fallBackToSingle(batch)) {
+                return;
+            }
+            failedCount.add(batch.size());
+            batch.forEach(stop -> stop.future().completeExceptionally(e));
+            return;
+        }
+        if (exitCode == 0 || !fallBackToSingle(batch)) {
+            if (exitCode != 0) {
+                failedCount.add(batch.size());
+            }
+            batch.forEach(stop -> stop.future().complete(exitCode));
+        }
+    }
+
+    /**
+     * Stop each job of a failed batch on its own, to find out which of them could not be stopped
+     *
+     * @return false if there is no stop script to fall back to
+     */
+    private boolean fallBackToSingle(List<PendingStop> batch) {
+        if (!Files.exists(agentConfig.getStopScript())) {
+            return false;
+        }
+        log.warn("Batch stop failed, stopping {} executions one at a time", batch.size());
+        for (var stop : batch) {
+            Thread.ofVirtual().name("execution-stop-" + stop.execution().getDatasetId())
+                    .start(() -> stopSingle(stop));
+        }
+        return true;
+    }
+
+    private void stopSingle(PendingStop stop) {
+        var execution = stop.execution();
+        log.info("Stopping execution: {}", execution.getDatasetId());
+        var processBuilder = new ProcessBuilder()
+                .directory(execution.getWorkingDirectory().toFile())
+                .command(agentConfig.getStopScript().toAbsolutePath().toString())
+                .redirectErrorStream(true);
+        var env = processBuilder.environment();
+        env.put("PW_ENVIRONMENT_FILE", execution.getEnvironmentPath().toString());
+        env.put("PW_JOB_ID", execution.getStartOutput().localJobId());
+        try {
+            var exitCode = runScript("stop " + execution.getDatasetId(), processBuilder);
+            if (exitCode != 0) {
+                failedCount.increment();
+            }
+            stop.future().complete(exitCode);
+        } catch (Exception e) {
+            failedCount.increment();
+            stop.future().completeExceptionally(e);
+        }
+    }
+
+    private int runScript(String name, ProcessBuilder processBuilder) throws IOException, InterruptedException {
+        var script = processBuilder.command().getFirst();
+        if (!Files.exists(Path.of(script))) {
+            throw new ExecutionException("Stop script not found");
+        }
+        scriptCount.increment();
+        var process = processSupervisor.start(name, processBuilder, agentConfig.stopScriptTimeout());
+        var capture = new ProcessOutputCapture(null, null)
+                .start(process.getProcess().getInputStream());
+        var exitCode = process.awaitExit();
+        capture.getCompletion().completeOnTimeout(null, 5, TimeUnit.SECONDS).join();
+        log.debug("{} output: {}", name, capture.getTail());
+        if (exitCode != 0) {
+            log.error("Failed to stop execution. Output: {}", capture.getTail());
+        }
+        return exitCode;
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "stop";
+    }
+
+    @Override
+    public StopStats getStats() {
+        var batches = batchCount.sum();
+        var requested = requestedCount.sum();
+        return new StopStats(
+                requested,
+                batches,
+                batches == 0 ? 0 : requested / (double) batches,
+                scriptCount.sum(),
+                failedCount.sum()
+        );
+    }
+
+    private record PendingStop(Execution execution, CompletableFuture<Integer> future) {
+    }
+
+    @Serdeable
+    public record StopStats(
+            long requested,
+            long batches,
+            double averageBatchSize,
+            long scriptsRun,
+            long failed
+    ) {
+    }
+}
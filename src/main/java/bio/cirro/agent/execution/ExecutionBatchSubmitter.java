@@ -0,0 +1,232 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import bio.cirro.agent.process.ProcessSupervisor;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Collects executions submitted within a short window and submits them
+ * together as a single job array using the batch submit script.
+ * <p>
+ * The batch submit script is run from the batch directory with the following environment variables:
+ * <ul>
+ *     <li>{@code PW_BATCH_MANIFEST}: file listing the environment file of each execution, one per line</li>
+ *     <li>{@code PW_BATCH_SIZE}: number of executions in the batch</li>
+ * </ul>
+ * It must print the ID of the job array, the job of each execution is then {@code <arrayId>_<index>}
+ * where index is the line number (starting at 0) of the execution in the manifest.
+ * <p>
+ * The job settings of the array are taken from the first execution of the batch,
+ * so executions are only batched with those that have the same {@link #BATCH_SETTINGS}.
+ */
+@Singleton
+@Slf4j
+public class ExecutionBatchSubmitter {
+    static final Pattern ARRAY_JOB_ID_REGEX = Pattern.compile("^(\\d+)(;\\S+)?$");
+    // Environment variables used by the batch submit script to set up the job array
+    static final List<String> BATCH_SETTINGS = List.of(
+            "HEADNODE_ACCOUNTING",
+            "HEADNODE_JOB_QUEUE",
+            "HEADNODE_CPUS",
+            "HEADNODE_MEM",
+            "HEADNODE_PRIORITY"
+    );
+
+    private final AgentConfig agentConfig;
+    private final ExecutionCreateService executionCreateService;
+    private final ProcessSupervisor processSupervisor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<List<String>, PendingBatch> pending = new HashMap<>();
+
+    public ExecutionBatchSubmitter(AgentConfig agentConfig,
+                                   ExecutionCreateService executionCreateService,
+                                   ProcessSupervisor processSupervisor) {
+        this.agentConfig = agentConfig;
+        this.executionCreateService = executionCreateService;
+        this.processSupervisor = processSupervisor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("execution-batch").daemon().factory()
+        );
+    }
+
+    /**
+     * Batching is enabled when a window is configured and the batch submit script exists
+     */
+    public boolean isEnabled() {
+        return agentConfig.getSubmitBatchWindowMillis() > 0
+                && Files.exists(agentConfig.getSubmitBatchScript());
+    }
+
+    /**
+     * Add the execution to the current batch of executions with the same job settings
+     *
+     * @return future completed with the start output once the batch has been submitted
+     */
+    public CompletableFuture<ExecutionStartOutput> submit(Execution execution) {
+        var submission = new PendingSubmission(execution, new CompletableFuture<>());
+        var batchKey = getBatchKey(execution);
+        List<PendingSubmission> batch = null;
+        synchronized (pending) {
+            var pendingBatch = pending.computeIfAbsent(batchKey, key -> new PendingBatch());
+            pendingBatch.submissions.add(submission);
+            if (pendingBatch.submissions.size() >= Math.max(1, agentConfig.getSubmitBatchMaxSize())) {
+                batch = drainPending(batchKey);
+            } else if (pendingBatch.scheduledFlush == null) {
+                pendingBatch.scheduledFlush = scheduler.schedule(() -> flush(batchKey),
+                        agentConfig.getSubmitBatchWindowMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            var fullBatch = batch;
+            Thread.ofVirtual().name("execution-batch-submit").start(() -> submitBatch(fullBatch));
+        }
+        return submission.future();
+    }
+
+    /**
+     * Values of the job settings of the execution, executions are batched with those with the same values
+     */
+    static List<String> getBatchKey(Execution execution) {
+        var environment = Optional.ofNullable(execution.getMessageData().getEnvironment())
+                .orElse(Map.of());
+        return BATCH_SETTINGS.stream()
+                .map(name -> Objects.toString(environment.get(name), ""))
+                .toList();
+    }
+
+    private void flush(List<String> batchKey) {
+        List<PendingSubmission> batch;
+        synchronized (pending) {
+            batch = drainPending(batchKey);
+        }
+        submitBatch(batch);
+    }
+
+    private List<PendingSubmission> drainPending(List<String> batchKey) {
+        var pendingBatch = pending.remove(batchKey);
+        if (pendingBatch == null) {
+            return List.of();
+        }
+        if (pendingBatch.scheduledFlush != null) {
+            pendingBatch.scheduledFlush.cancel(false);
+        }
+        return List.copyOf(pendingBatch.submissions);
+    }
+
+    private void submitBatch(List<PendingSubmission> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Not worth a job array, or the script was removed since the batch started
+        if (batch.size() == 1 || !Files.exists(agentConfig.getSubmitBatchScript())) {
+            batch.forEach(this::submitSingle);
+            return;
+        }
+        try {
+            var jobIds = runBatchScript(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(jobIds.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Failed to submit batch of {} executions", batch.size(), e);
+            batch.forEach(submission -> submission.future().completeExceptionally(e));
+        }
+    }
+
+    private void submitSingle(PendingSubmission submission) {
+        try {
+            submission.future().complete(executionCreateService.start(submission.execution()));
+        } catch (Exception e) {
+            submission.future().completeExceptionally(e);
+        }
+    }
+
+    private List<ExecutionStartOutput> runBatchScript(List<PendingSubmission> batch) throws IOException, InterruptedException {
+        var batchDirectory = agentConfig.getAbsoluteWorkDirectory()
+                .resolve("batches")
+                .resolve(UUID.randomUUID().toString());
+        Files.createDirectories(batchDirectory);
+        var manifest = batchDirectory.resolve("manifest");
+        var environmentFiles = batch.stream()
+                .map(submission -> submission.execution().getEnvironmentPath().toString())
+                .toList();
+        Files.write(manifest, environmentFiles);
+
+        Path batchScript = agentConfig.getSubmitBatchScript();
+        log.info("Submitting batch of {} executions from {}", batch.size(), batchDirectory);
+        var processBuilder = new ProcessBuilder()
+                .directory(batchDirectory.toFile())
+                .command(batchScript.toAbsolutePath().toString())
+                .redirectErrorStream(true);
+        var env = processBuilder.environment();
+        env.put("PW_BATCH_MANIFEST", manifest.toString());
+        env.put("PW_BATCH_SIZE", String.valueOf(batch.size()));
+
+        var process = processSupervisor.start("batch submit", processBuilder, agentConfig.submitScriptTimeout());
+        var capture = new ProcessOutputCapture(batchDirectory.resolve("submit.log"), ARRAY_JOB_ID_REGEX)
+                .start(process.getProcess().getInputStream());
+        var exitCode = process.awaitExit();
+        capture.getCompletion().completeOnTimeout(null, 5, TimeUnit.SECONDS).join();
+        log.debug("Batch submit output: {}", capture.getTail());
+        if (exitCode != 0) {
+            throw new ExecutionException("Batch submission failed: " + capture.getTail());
+        }
+        var jobIds = toJobIds(capture.getLatestJobId(), batch.size());
+        return jobIds.stream()
+                .map(jobId -> ExecutionStartOutput.from(capture, jobId))
+                .toList();
+    }
+
+    /**
+     * Job ID of each element of the job array
+     */
+    static List<String> toJobIds(String arrayJobId, int batchSize) {
+        if (arrayJobId == null) {
+            throw new ExecutionException("Batch submit script did not return a job array ID");
+        }
+        var jobIds = new ArrayList<String>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            jobIds.add(String.format("%s_%d", arrayJobId, i));
+        }
+        return jobIds;
+    }
+
+    @PreDestroy
+    public void close() {
+        List<List<String>> batchKeys;
+        synchronized (pending) {
+            batchKeys = List.copyOf(pending.keySet());
+        }
+        batchKeys.forEach(this::flush);
+        scheduler.shutdown();
+    }
+
+    private record PendingSubmission(Execution execution, CompletableFuture<ExecutionStartOutput> future) {
+    }
+
+    private static class PendingBatch {
+        private final List<PendingSubmission> submissions = new ArrayList<>();
+        private ScheduledFuture<?> scheduledFlush;
+    }
+}
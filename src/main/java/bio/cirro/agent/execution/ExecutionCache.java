@@ -0,0 +1,125 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+import io.micronaut.serde.annotation.Serdeable;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of hydrated executions, kept in least recently used order.
+ * <p>
+ * Executions that reached a terminal status are evicted before active ones,
+ * since active executions are the ones looked up by running jobs.
+ * A capacity of zero or less disables the cache.
+ */
+public class ExecutionCache {
+    private final int capacity;
+    private final LinkedHashMap<String, Execution> active = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Execution> terminal = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    ExecutionCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cached execution, or null if it is not cached
+     */
+    synchronized Execution get(String executionId) {
+        var execution = peek(executionId);
+        if (execution == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return execution;
+    }
+
+    /**
+     * Same as {@link #get(String)}, without counting towards the hit rate
+     */
+    synchronized Execution peek(String executionId) {
+        var execution = active.get(executionId);
+        return execution != null ? execution : terminal.get(executionId);
+    }
+
+    /**
+     * Cache an execution that was just written
+     */
+    synchronized void put(Execution execution) {
+        if (capacity <= 0) {
+            return;
+        }
+        var executionId = execution.getExecutionId();
+        active.remove(executionId);
+        terminal.remove(executionId);
+        (isTerminal(execution) ? terminal : active).put(executionId, execution);
+        evict();
+    }
+
+    /**
+     * Cache an execution that was just loaded, unless another thread cached it in the meantime
+     *
+     * @return the cached execution
+     */
+    synchronized Execution putIfAbsent(Execution execution) {
+        var existing = peek(execution.getExecutionId());
+        if (existing != null) {
+            return existing;
+        }
+        put(execution);
+        return execution;
+    }
+
+    synchronized void remove(String executionId) {
+        active.remove(executionId);
+        terminal.remove(executionId);
+    }
+
+    synchronized int size() {
+        return active.size() + terminal.size();
+    }
+
+    private void evict() {
+        while (active.size() + terminal.size() > capacity) {
+            var entries = terminal.isEmpty() ? active : terminal;
+            var eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private static boolean isTerminal(Execution execution) {
+        return execution.getStatus() == Status.COMPLETED || execution.getStatus() == Status.FAILED;
+    }
+
+    synchronized CacheStats getStats() {
+        var hits = hitCount.sum();
+        var lookups = hits + missCount.sum();
+        return new CacheStats(
+                capacity,
+                active.size(),
+                terminal.size(),
+                hits,
+                missCount.sum(),
+                lookups == 0 ? 0 : (double) hits / lookups,
+                evictionCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record CacheStats(
+            int capacity,
+            int active,
+            int terminal,
+            long hits,
+            long misses,
+            double hitRate,
+            long evictions
+    ) {
+    }
+}
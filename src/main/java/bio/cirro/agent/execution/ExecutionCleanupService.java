@@ -1,36 +1,67 @@
 package bio.cirro.agent.execution;
 
 import bio.cirro.agent.AgentConfig;
-import bio.cirro.agent.models.Status;
 import jakarta.inject.Singleton;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @AllArgsConstructor
 @Singleton
 @Slf4j
 public class ExecutionCleanupService {
     private final ExecutionRepository executionRepository;
+    private final WorkspaceReclaimer workspaceReclaimer;
+    private final ExecutionStatusHistory executionStatusHistory;
+    private final ExecutionTokenService executionTokenService;
     private final AgentConfig agentConfig;
+    // Executions whose working directory could not be moved to the trash, retried after a restart
+    private final Set<String> reclaimFailed = ConcurrentHashMap.newKeySet();
 
+    /**
+     * Remove up to a batch of old executions, run regularly so that the work is spread out over the day.
+     * When enabled, their working directories are deleted too.
+     * Executions whose working directory cannot be reclaimed are kept, and skipped by later runs
+     * so that they do not take up every batch.
+     */
     public void cleanupOldExecutions() {
-        log.info("Cleaning up old executions");
-        var executions = executionRepository.getAll();
+        log.debug("Cleaning up old executions");
         var threshold = Instant.now().minus(agentConfig.cleanupThresholdDays());
-
-        for (var execution : executions) {
-            if (execution.getStatus() == Status.RUNNING || execution.getStatus() == Status.PENDING) {
-                log.debug("Skipping running execution: {}", execution.getDatasetId());
+        var executionIds = executionRepository.getTerminalIdsCreatedBefore(threshold).stream()
+                .filter(executionId -> !reclaimFailed.contains(executionId))
+                .toList();
+        var batch = executionIds.subList(0, Math.min(executionIds.size(), Math.max(1, agentConfig.getCleanupBatchSize())));
+        var removed = new ArrayList<String>(batch.size());
+        if (workspaceReclaimer.isEnabled()) {
+            workspaceReclaimer.resume();
+        }
+        for (var executionId : batch) {
+            log.info("Cleaning up execution: {}", executionId);
+            if (workspaceReclaimer.isEnabled() && !reclaimWorkspace(executionId)) {
+                reclaimFailed.add(executionId);
                 continue;
             }
+            removed.add(executionId);
+        }
+        executionRepository.removeAll(removed);
+        executionStatusHistory.removeAll(removed);
+        executionTokenService.evictAll(removed);
+        log.debug("Finished cleaning up {} old executions, {} remaining, {} skipped",
+                removed.size(), executionIds.size() - removed.size(), reclaimFailed.size());
+    }
 
-            if (threshold.isAfter(execution.getCreatedAt())) {
-                log.info("Cleaning up execution: {}", execution.getDatasetId());
-                executionRepository.remove(execution.getDatasetId());
-            }
+    private boolean reclaimWorkspace(String executionId) {
+        try {
+            workspaceReclaimer.reclaim(executionRepository.get(executionId));
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to reclaim working directory of execution {}: {}", executionId, e.getMessage());
+            return false;
         }
-        log.debug("Finished cleaning up old executions");
     }
 }
@@ -2,6 +2,8 @@ package bio.cirro.agent.execution;
 
 import bio.cirro.agent.AgentTokenService;
 import bio.cirro.agent.aws.AwsCredentials;
+import bio.cirro.agent.aws.ContainerCredentials;
+import bio.cirro.agent.models.Status;
 import bio.cirro.agent.models.UpdateStatusRequest;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.annotation.Body;
@@ -11,20 +13,64 @@ import io.micronaut.http.annotation.Header;
 import io.micronaut.http.annotation.PathVariable;
 import io.micronaut.http.annotation.Post;
 import io.micronaut.http.annotation.Put;
+import io.micronaut.http.annotation.QueryValue;
+import jakarta.annotation.Nullable;
 import lombok.AllArgsConstructor;
 
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Controller("/executions")
 @AllArgsConstructor
 public class ExecutionController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final AgentTokenService agentTokenService;
     private final ExecutionService executionService;
     private final ExecutionTokenService executionTokenService;
 
+    /**
+     * List executions a page at a time, the cursor of the next page is returned in the {@code X-Next-Cursor} header
+     *
+     * @param status comma-separated statuses
+     * @param order  {@code desc} (newest first) or {@code asc}
+     */
     @Get
-    public HttpResponse<List<ExecutionDto>> list() {
-        return HttpResponse.ok(executionService.list());
+    public HttpResponse<List<ExecutionDto>> list(@QueryValue @Nullable String status,
+                                                 @QueryValue @Nullable String projectId,
+                                                 @QueryValue @Nullable String username,
+                                                 @QueryValue @Nullable Instant createdAfter,
+                                                 @QueryValue @Nullable Instant createdBefore,
+                                                 @QueryValue(defaultValue = "desc") String order,
+                                                 @QueryValue(defaultValue = "100") int limit,
+                                                 @QueryValue @Nullable String cursor) {
+        if (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc")) {
+            throw new IllegalArgumentException("Order must be asc or desc");
+        }
+        var filter = ExecutionFilter.builder()
+                .statuses(parseStatuses(status))
+                .projectId(projectId)
+                .username(username)
+                .createdAfter(createdAfter)
+                .createdBefore(createdBefore)
+                .ascending(order.equalsIgnoreCase("asc"))
+                .limit(limit)
+                .cursor(cursor)
+                .build();
+        var page = executionService.list(filter);
+        var response = HttpResponse.ok(page.executions());
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response;
+    }
+
+    @Get("/{executionId}/history")
+    public HttpResponse<List<ExecutionStatusEventDto>> history(@PathVariable String executionId) {
+        return HttpResponse.ok(executionService.getHistory(executionId));
     }
 
     @Post("/{executionId}/s3-token")
@@ -34,6 +80,17 @@ public class ExecutionController {
         return HttpResponse.ok(executionTokenService.generateS3Credentials(executionId));
     }
 
+    /**
+     * Same credentials as {@code s3-token}, in the format of the AWS container credentials provider.
+     * The SDKs send the value of {@code AWS_CONTAINER_AUTHORIZATION_TOKEN} as is in the Authorization header.
+     */
+    @Get("/{executionId}/container-credentials")
+    public HttpResponse<ContainerCredentials> getContainerCredentials(@PathVariable String executionId,
+                                                                      @Header("Authorization") String authorization) {
+        agentTokenService.validate(authorization, executionId);
+        return HttpResponse.ok(ContainerCredentials.from(executionTokenService.generateS3Credentials(executionId)));
+    }
+
     @Put("/{executionId}/status")
     public HttpResponse<Void> updateStatus(@PathVariable String executionId,
                                            @Body UpdateStatusRequest request,
@@ -45,4 +102,17 @@ public class ExecutionController {
         executionService.updateStatus(executionId, request);
         return HttpResponse.accepted();
     }
+
+    private static Set<Status> parseStatuses(String status) {
+        if (status == null || status.isBlank()) {
+            return Set.of();
+        }
+        try {
+            return Arrays.stream(status.split(","))
+                    .map(value -> Status.valueOf(value.strip().toUpperCase()))
+                    .collect(Collectors.toSet());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid status: " + status);
+        }
+    }
 }
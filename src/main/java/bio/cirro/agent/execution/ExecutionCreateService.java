@@ -5,17 +5,17 @@ import bio.cirro.agent.AgentTokenService;
 import bio.cirro.agent.exception.ExecutionException;
 import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
 import bio.cirro.agent.models.Status;
-import bio.cirro.agent.utils.FileUtils;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import bio.cirro.agent.process.ProcessSupervisor;
 import jakarta.inject.Singleton;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -27,80 +27,98 @@ import java.util.regex.Pattern;
 @Slf4j
 public class ExecutionCreateService {
     private static final Pattern JOB_ID_REGEX = Pattern.compile("^\\d+$");
+    private static final Duration EXIT_GRACE = Duration.ofSeconds(5);
 
     private final AgentConfig agentConfig;
     private final AgentTokenService agentTokenService;
     private final ExecutionRepository executionRepository;
+    private final ProcessSupervisor processSupervisor;
+    private final WorkspaceMaterializer workspaceMaterializer;
+    private final ExecutionStatusHistory executionStatusHistory;
+    private final ExecutionLocks executionLocks;
+    private final ExecutionTokenService executionTokenService;
 
     /**
-     * Create and start an execution
+     * Store a new execution as PENDING, before it waits to be admitted
      *
      * @param runAnalysisCommandMessage message containing details on the analysis to run
      * @return the created execution
      */
-    public Execution create(RunAnalysisCommandMessage runAnalysisCommandMessage) {
+    public Execution register(RunAnalysisCommandMessage runAnalysisCommandMessage) {
         var execution = executionRepository.getNew(runAnalysisCommandMessage);
         executionRepository.add(execution);
+        executionStatusHistory.record(execution.getExecutionId(), Status.PENDING, "Received by agent", null);
+        return execution;
+    }
 
+    /**
+     * Set up the working directory of an admitted execution,
+     * the execution is left as it is on failure and should be passed to {@link #markFailed}
+     *
+     * @return the execution, ready to be started
+     */
+    public Execution prepare(Execution execution) {
+        // The S3 credentials of the jobs are generated while the working directory is being written
+        executionTokenService.prewarm(execution);
         var token = agentTokenService.generateForExecution(execution.getDatasetId());
         try {
-            // Set up working directory
-            Files.createDirectories(execution.getWorkingDirectory());
-            writeEnvironment(execution, token);
-            writeAwsConfig(execution);
-            log.info("Starting execution {} from {}", execution.getDatasetId(), execution.getUsername());
-            var executionOutput = startExecution(execution);
-            execution.setStartOutput(executionOutput);
+            workspaceMaterializer.materialize(execution, token);
         } catch (Exception ex) {
-            execution.setStatus(Status.FAILED);
-            throw new ExecutionException("Failed to start execution", ex);
+            throw new ExecutionException("Failed to start execution: " + ex.getMessage(), ex);
         }
-        executionRepository.update(execution);
         return execution;
     }
 
     /**
-     * Write environment variables to a file
+     * Start a prepared execution on its own using the submit script
      */
-    private void writeEnvironment(Execution execution, String token) {
-        var agentEndpoint = agentConfig.getEndpoint();
-        var environmentVariables = execution.getEnvironment(token, agentEndpoint);
-
-        var environmentSb = new StringBuilder();
-        environmentSb.append("#!/bin/bash\n");
-        for (Map.Entry<String, String> entry : environmentVariables.entrySet()) {
-            environmentSb.append(String.format("export %s=\"%s\"%n", entry.getKey(), entry.getValue()));
-        }
+    public ExecutionStartOutput start(Execution execution) {
+        log.info("Starting execution {} from {}", execution.getDatasetId(), execution.getUsername());
+        return startExecution(execution);
+    }
 
-        var environmentFile = execution.getEnvironmentPath();
-        try {
-            FileUtils.writeScript(environmentFile, environmentSb.toString());
-        } catch (IOException e) {
-            throw new ExecutionException("Failed to write environment file", e);
-        }
+    /**
+     * Whether the execution was stopped or failed before it was started
+     */
+    public boolean isFinished(Execution execution) {
+        return executionRepository.get(execution.getExecutionId()).getStatus().isTerminal();
     }
 
-    /*
-     * Write AWS config file and credential helper script
-     * @implNote The AWS config file has the full path to the credential helper script
-     * because it cannot read from environment variables or relative paths
+    /**
+     * Record the output of the submit script on a started execution
+     *
+     * @return false if the execution was stopped while it was being started, and its job should be stopped
      */
-    private void writeAwsConfig(Execution execution) {
-        var awsConfigTemplate = FileUtils.getResourceAsString("aws-config.properties");
-        var awsConfigFile = awsConfigTemplate
-                .replace("%%CREDENTIAL_PROCESS_SCRIPT%%", execution.getCredentialsHelperPath().toString());
-        try {
-            Files.writeString(execution.getAwsConfigPath(), awsConfigFile);
-        } catch (IOException e) {
-            throw new ExecutionException("Failed to write AWS config", e);
-        }
+    public boolean markStarted(Execution execution, ExecutionStartOutput startOutput) {
+        execution.setStartOutput(startOutput);
+        return executionLocks.withLock(execution.getExecutionId(), () -> {
+            // Keep any status update received in the meantime
+            var current = executionRepository.get(execution.getExecutionId());
+            current.setStartOutput(startOutput);
+            executionRepository.update(current);
+            return !current.getStatus().isTerminal();
+        });
+    }
 
-        var credentialHelperScript = FileUtils.getResourceAsString("credentials-helper.sh");
-        try {
-            FileUtils.writeScript(execution.getCredentialsHelperPath(), credentialHelperScript);
-        } catch (IOException e) {
-            throw new ExecutionException("Failed to write credential helper", e);
-        }
+    /**
+     * Record that the execution could not be started, unless it has already finished
+     *
+     * @return false if the execution had already finished, such as when it was stopped while being submitted
+     */
+    public boolean markFailed(Execution execution, Throwable cause) {
+        return executionLocks.withLock(execution.getExecutionId(), () -> {
+            var current = executionRepository.get(execution.getExecutionId());
+            if (current.getStatus().isTerminal()) {
+                return false;
+            }
+            executionStatusHistory.record(current.getExecutionId(), Status.FAILED, cause.getMessage(), null);
+            current.setStatus(Status.FAILED);
+            current.setFinishedAt(Instant.now());
+            current.setFinishOutput(new ExecutionFinishOutput(cause.getMessage()));
+            executionRepository.update(current);
+            execution.setStatus(Status.FAILED);
+            return true;
+        });
     }
 
     /**
@@ -122,28 +140,29 @@ public class ExecutionCreateService {
             var env = headnodeLaunchProcessBuilder.environment();
             env.put("PW_ENVIRONMENT_FILE", execution.getEnvironmentPath().toString());
 
-            var headnodeLaunchProcess = headnodeLaunchProcessBuilder.start();
+            var headnodeLaunchProcess = processSupervisor.start("submit " + execution.getDatasetId(),
+                    headnodeLaunchProcessBuilder, agentConfig.submitScriptTimeout());
+            var capture = new ProcessOutputCapture(execution.getSubmitOutputPath(), JOB_ID_REGEX)
+                    .start(headnodeLaunchProcess.getProcess().getInputStream());
 
-            StringBuilder processOutputSb = new StringBuilder();
-            String jobId = null;
-            try (var reader = new BufferedReader(new InputStreamReader(headnodeLaunchProcess.getInputStream()))) {
-                for (String line : reader.lines().toList()) {
-                    // Try to extract job ID
-                    if (JOB_ID_REGEX.matcher(line).matches()) {
-                        jobId = line;
-                    }
-                    processOutputSb.append(line).append("\n");
-                }
+            // Stop waiting shortly after the job ID is reported, the script is expected to exit right after
+            CompletableFuture.anyOf(headnodeLaunchProcess.onExit(), capture.getJobIdReported()).join();
+            var exited = headnodeLaunchProcess.getProcess().waitFor(EXIT_GRACE.toSeconds(), TimeUnit.SECONDS);
+            var jobId = capture.getLatestJobId();
+            if (!exited && jobId != null) {
+                log.warn("Submit script for {} still running after reporting job {}", execution.getDatasetId(), jobId);
+                return ExecutionStartOutput.from(capture, jobId);
             }
-            var processOutput = processOutputSb.toString();
-            log.debug("Execution output: {}", processOutput);
-            headnodeLaunchProcess.waitFor(10, TimeUnit.SECONDS);
+            // The supervisor ends the script if it does not exit in time
+            var exitCode = headnodeLaunchProcess.awaitExit();
+            // Wait for the remaining output to be read
+            capture.getCompletion().completeOnTimeout(null, EXIT_GRACE.toSeconds(), TimeUnit.SECONDS).join();
+            log.debug("Execution output: {}", capture.getTail());
 
-            if (headnodeLaunchProcess.exitValue() != 0) {
-                throw new ExecutionException("Execution failed: " + processOutput);
+            if (exitCode != 0) {
+                throw new ExecutionException("Execution failed: " + capture.getTail());
             }
-            headnodeLaunchProcess.destroy();
-            return new ExecutionStartOutput(processOutput, jobId);
+            return ExecutionStartOutput.from(capture, capture.getLatestJobId());
         } catch (IOException e) {
             throw new ExecutionException(e.getMessage());
         } catch (InterruptedException e) {
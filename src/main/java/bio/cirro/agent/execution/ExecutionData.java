@@ -3,6 +3,8 @@ package bio.cirro.agent.execution;
 import bio.cirro.agent.models.Status;
 import io.micronaut.core.annotation.Introspected;
 import io.micronaut.data.annotation.Id;
+import io.micronaut.data.annotation.Index;
+import io.micronaut.data.annotation.Indexes;
 import io.micronaut.data.annotation.MappedEntity;
 import jakarta.annotation.Nullable;
 import jakarta.persistence.Column;
@@ -11,13 +13,33 @@ import lombok.Data;
 
 import java.time.Instant;
 
+/**
+ * Stored form of an {@link Execution}.
+ * <p>
+ * The fields used to look up executions are stored in their own indexed columns,
+ * the rest is kept as JSON. Indexes are also created on existing databases by {@link ExecutionSchemaMigrator}.
+ */
 @MappedEntity("executions")
+@Indexes({
+        @Index(name = "executions_status_idx", columns = {"status", "created_at"}),
+        @Index(name = "executions_project_idx", columns = {"project_id", "created_at"}),
+        @Index(name = "executions_username_idx", columns = {"username"}),
+        @Index(name = "executions_job_id_idx", columns = {"job_id"}),
+        @Index(name = "executions_created_at_idx", columns = {"created_at"}),
+        @Index(name = "executions_finished_at_idx", columns = {"finished_at"})
+})
 @Introspected
 @Data
 @Builder
 public class ExecutionData {
     @Id
     private String id;
+    @Nullable
+    private String projectId;
+    @Nullable
+    private String username;
+    @Nullable
+    private String jobId;
     @Column(length = 10000)
     private String messageDataJson;
     private Status status;
@@ -1,9 +1,24 @@
 package bio.cirro.agent.execution;
 
+import bio.cirro.agent.models.Status;
 import io.micronaut.data.jdbc.annotation.JdbcRepository;
 import io.micronaut.data.model.query.builder.sql.Dialect;
 import io.micronaut.data.repository.CrudRepository;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
 @JdbcRepository(dialect = Dialect.H2)
 public interface ExecutionDataRepository extends CrudRepository<ExecutionData, String> {
+    List<ExecutionData> findByStatusInList(Collection<Status> statuses);
+
+    List<String> findIdByStatusInListAndCreatedAtBefore(Collection<Status> statuses, Instant createdAt);
+
+    /**
+     * Rows stored before the indexed columns were added
+     */
+    List<ExecutionData> findByProjectIdIsNull();
+
+    void deleteByIdInList(Collection<String> ids);
 }
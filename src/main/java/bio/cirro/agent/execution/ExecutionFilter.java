@@ -0,0 +1,28 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+import lombok.Builder;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Filters, sort order and page of an execution listing, unset filters match everything
+ *
+ * @param createdAfter  inclusive
+ * @param createdBefore exclusive
+ * @param ascending     oldest first, newest first otherwise
+ * @param cursor        position returned with the previous page, null for the first page
+ */
+@Builder
+public record ExecutionFilter(
+        Set<Status> statuses,
+        String projectId,
+        String username,
+        Instant createdAfter,
+        Instant createdBefore,
+        boolean ascending,
+        int limit,
+        String cursor
+) {
+}
@@ -0,0 +1,42 @@
+package bio.cirro.agent.execution;
+
+import jakarta.inject.Singleton;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes the read-modify-write updates made to each execution.
+ * <p>
+ * Executions are spread over a fixed number of locks (lock striping), so memory does not grow
+ * with the number of executions, while updates to different executions rarely wait on each other.
+ */
+@Singleton
+public class ExecutionLocks {
+    private static final int STRIPES = 256;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    public ExecutionLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public <T> T withLock(String executionId, Supplier<T> action) {
+        var lock = locks[Math.floorMod(executionId.hashCode(), STRIPES)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void withLock(String executionId, Runnable action) {
+        withLock(executionId, () -> {
+            action.run();
+            return null;
+        });
+    }
+}
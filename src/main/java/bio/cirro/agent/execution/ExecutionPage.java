@@ -0,0 +1,14 @@
+package bio.cirro.agent.execution;
+
+import java.util.List;
+
+/**
+ * A page of an execution listing
+ *
+ * @param nextCursor position of the next page, null if this is the last page
+ */
+public record ExecutionPage(
+        List<ExecutionDto> executions,
+        String nextCursor
+) {
+}
@@ -0,0 +1,185 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.exception.SchedulerException;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import bio.cirro.agent.scheduler.JobState;
+import bio.cirro.agent.scheduler.SchedulerAdapter;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Picks up the executions stored before the agent was restarted.
+ * <p>
+ * Run once at startup, before the agent serves requests from jobs and connects to Cirro:
+ * <ul>
+ *     <li>All active executions are loaded in a single query</li>
+ *     <li>Executions still waiting in the admission queue are queued again</li>
+ *     <li>Executions whose submission was in progress are failed, since it was lost with the previous process</li>
+ *     <li>The jobs of the others are checked with a single scheduler query, and executions whose job
+ *     ended while the agent was down are failed</li>
+ *     <li>Executions submitted without a job ID the scheduler knows of, such as local containers,
+ *     cannot be checked and are kept running</li>
+ *     <li>Executions still running count towards the admission limits again</li>
+ * </ul>
+ * Status updates are sent to Cirro once the connection is open.
+ */
+@Singleton
+@Slf4j
+public class ExecutionRecoveryService implements StatsProvider {
+    private final ExecutionRepository executionRepository;
+    private final ExecutionService executionService;
+    private final AdmissionController admissionController;
+    private final ExecutionSubmissionService executionSubmissionService;
+    private final SchedulerAdapter schedulerAdapter;
+
+    private volatile RecoveryStats stats;
+
+    public ExecutionRecoveryService(ExecutionRepository executionRepository,
+                                    ExecutionService executionService,
+                                    AdmissionController admissionController,
+                                    ExecutionSubmissionService executionSubmissionService,
+                                    Optional<SchedulerAdapter> schedulerAdapter) {
+        this.executionRepository = executionRepository;
+        this.executionService = executionService;
+        this.admissionController = admissionController;
+        this.executionSubmissionService = executionSubmissionService;
+        this.schedulerAdapter = schedulerAdapter.orElse(null);
+    }
+
+    /**
+     * Reconcile the stored executions with the scheduler
+     */
+    public RecoveryStats recover() {
+        var startedAt = System.nanoTime();
+        var executions = executionRepository.getActive();
+        var loadedAt = System.nanoTime();
+
+        var running = new HashMap<String, Execution>();
+        var unknown = new ArrayList<Execution>();
+        var queued = new ArrayList<Execution>();
+        var unsubmitted = 0;
+        for (var execution : executions) {
+            if (isQueued(execution)) {
+                queued.add(execution);
+            } else if (execution.getStartOutput() == null) {
+                fail(execution, "Agent restarted before the execution was submitted");
+                unsubmitted++;
+            } else if (execution.getStartOutput().localJobId() == null) {
+                unknown.add(execution);
+            } else {
+                running.put(execution.getStartOutput().localJobId(), execution);
+            }
+        }
+
+        var ended = 0;
+        var states = getJobStates(running);
+        if (states != null) {
+            for (var entry : running.entrySet()) {
+                var state = states.get(entry.getKey());
+                if (state == null || !state.isActive()) {
+                    var message = String.format("Job %s ended while the agent was offline", entry.getKey());
+                    fail(entry.getValue(), message);
+                    ended++;
+                }
+            }
+        }
+        var failed = unsubmitted + ended;
+        running.values().stream()
+                .filter(execution -> execution.getStatus() == Status.PENDING || execution.getStatus() == Status.RUNNING)
+                .forEach(admissionController::restore);
+        unknown.forEach(admissionController::restore);
+        // Queued after the running executions so that they count towards the limits first
+        queued.forEach(executionSubmissionService::resubmit);
+
+        var finishedAt = System.nanoTime();
+        stats = new RecoveryStats(
+                Instant.now(),
+                executions.size(),
+                executions.size() - failed - queued.size(),
+                queued.size(),
+                unknown.size(),
+                unsubmitted,
+                ended,
+                states != null,
+                Duration.ofNanos(loadedAt - startedAt).toMillis(),
+                Duration.ofNanos(finishedAt - loadedAt).toMillis(),
+                Duration.ofNanos(finishedAt - startedAt).toMillis()
+        );
+        log.info("Recovered {} active executions in {} ms ({} still running, {} without job ID, {} queued, {} failed)",
+                executions.size(), stats.totalMillis(), stats.running(), stats.unknown(), stats.requeued(), failed);
+        return stats;
+    }
+
+    /**
+     * @return state of the jobs, or null if they could not be checked
+     */
+    private Map<String, JobState> getJobStates(Map<String, Execution> running) {
+        if (running.isEmpty() || schedulerAdapter == null) {
+            return null;
+        }
+        try {
+            return schedulerAdapter.getJobStates(running.keySet());
+        } catch (SchedulerException e) {
+            // Lost jobs will be found by the poller later on
+            log.warn("Failed to check recovered jobs with the scheduler: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void fail(Execution execution, String message) {
+        log.warn("Execution {}: {}", execution.getExecutionId(), message);
+        var request = UpdateStatusRequest.builder()
+                .status(Status.FAILED)
+                .message(message)
+                .build();
+        executionService.updateStatus(execution.getExecutionId(), request);
+        execution.setStatus(Status.FAILED);
+    }
+
+    /**
+     * Executions that were never admitted have no start output, nor an environment file,
+     * which is written once the submission starts
+     */
+    private static boolean isQueued(Execution execution) {
+        return execution.getStatus() == Status.PENDING
+                && execution.getStartOutput() == null
+                && !Files.exists(execution.getEnvironmentPath());
+    }
+
+    @Override
+    public String getStatsName() {
+        return "recovery";
+    }
+
+    @Override
+    public RecoveryStats getStats() {
+        return stats;
+    }
+
+    @Serdeable
+    public record RecoveryStats(
+            Instant recoveredAt,
+            int loaded,
+            int running,
+            int requeued,
+            int unknown,
+            int unsubmitted,
+            int ended,
+            boolean reconciled,
+            long loadMillis,
+            long reconcileMillis,
+            long totalMillis
+    ) {
+    }
+}
@@ -3,23 +3,38 @@ package bio.cirro.agent.execution;
 import bio.cirro.agent.AgentConfig;
 import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
 import bio.cirro.agent.models.Status;
+import bio.cirro.agent.stats.StatsProvider;
 import io.micronaut.serde.ObjectMapper;
 import jakarta.inject.Singleton;
-import lombok.AllArgsConstructor;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Storage location for executions
+ * <p>
+ * Hydrated executions are kept in a write-through cache, so that the lookups made for every request
+ * from a running job do not go through the database and JSON deserialization.
+ * The same instance is returned for an execution as long as it is cached.
  */
 @Singleton
-@AllArgsConstructor
-public class ExecutionRepository {
+public class ExecutionRepository implements StatsProvider {
     private final ExecutionDataRepository executionDataRepository;
     private final ObjectMapper objectMapper;
     private final AgentConfig agentConfig;
+    private final ExecutionCache executionCache;
+
+    public ExecutionRepository(ExecutionDataRepository executionDataRepository,
+                               ObjectMapper objectMapper,
+                               AgentConfig agentConfig) {
+        this.executionDataRepository = executionDataRepository;
+        this.objectMapper = objectMapper;
+        this.agentConfig = agentConfig;
+        this.executionCache = new ExecutionCache(agentConfig.getExecutionCacheSize());
+    }
 
     public Execution getNew(RunAnalysisCommandMessage messageData) {
         return Execution.builder()
@@ -33,34 +48,109 @@ public class ExecutionRepository {
 
     public void add(Execution execution) {
         var executionData = toData(execution);
-        executionDataRepository.save(executionData);
+        try {
+            executionDataRepository.save(executionData);
+        } catch (RuntimeException e) {
+            executionCache.remove(execution.getExecutionId());
+            throw e;
+        }
+        executionCache.put(execution);
     }
 
     public List<Execution> getAll() {
         var executionDataList = executionDataRepository.findAll();
         return executionDataList.stream()
-                .map(this::fromData)
+                .map(this::fromDataOrCache)
+                .toList();
+    }
+
+    /**
+     * IDs of executions that have reached a terminal status and were created before the given time
+     */
+    public List<String> getTerminalIdsCreatedBefore(Instant createdAt) {
+        return executionDataRepository.findIdByStatusInListAndCreatedAtBefore(
+                List.of(Status.COMPLETED, Status.FAILED), createdAt);
+    }
+
+    /**
+     * Executions that have not reached a terminal status
+     */
+    public List<Execution> getActive() {
+        var executionDataList = executionDataRepository.findByStatusInList(List.of(Status.PENDING, Status.RUNNING));
+        return executionDataList.stream()
+                .map(this::fromDataOrCache)
                 .toList();
     }
 
     public Execution get(String executionId) {
+        var cached = executionCache.get(executionId);
+        if (cached != null) {
+            return cached;
+        }
         var executionData = executionDataRepository.findById(executionId)
                 .orElseThrow(() -> new IllegalArgumentException("Execution not found: " + executionId));
-        return fromData(executionData);
+        return executionCache.putIfAbsent(fromData(executionData));
     }
 
+    /**
+     * Store the execution, the cached copy is only kept if the write succeeds
+     * since callers modify the cached execution before updating it
+     */
     public void update(Execution execution) {
         var executionData = toData(execution);
-        executionDataRepository.update(executionData);
+        try {
+            executionDataRepository.update(executionData);
+        } catch (RuntimeException e) {
+            // Reloaded from the database on the next lookup
+            executionCache.remove(execution.getExecutionId());
+            throw e;
+        }
+        executionCache.put(execution);
     }
 
     public void remove(String executionId) {
         executionDataRepository.deleteById(executionId);
+        executionCache.remove(executionId);
+    }
+
+    public void removeAll(Collection<String> executionIds) {
+        if (executionIds.isEmpty()) {
+            return;
+        }
+        executionDataRepository.deleteByIdInList(executionIds);
+        executionIds.forEach(executionCache::remove);
+    }
+
+    /**
+     * Fill in the indexed columns of rows stored before they were added
+     *
+     * @return number of rows updated
+     */
+    int backfillIndexedColumns() {
+        var rows = executionDataRepository.findByProjectIdIsNull();
+        for (var row : rows) {
+            executionDataRepository.update(toData(fromData(row)));
+        }
+        return rows.size();
+    }
+
+    /**
+     * Use the cached execution when there is one, so that callers see a single instance per execution
+     */
+    private Execution fromDataOrCache(ExecutionData executionData) {
+        var cached = executionCache.peek(executionData.getId());
+        return cached != null ? cached : fromData(executionData);
     }
 
     private ExecutionData toData(Execution execution) {
+        var jobId = Optional.ofNullable(execution.getStartOutput())
+                .map(ExecutionStartOutput::localJobId)
+                .orElse(null);
         return ExecutionData.builder()
                 .id(execution.getExecutionId())
+                .projectId(execution.getProjectId())
+                .username(execution.getUsername())
+                .jobId(jobId)
                 .messageDataJson(toJson(execution.getMessageData()))
                 .status(execution.getStatus())
                 .startOutputJson(toJson(execution.getStartOutput()))
@@ -94,6 +184,16 @@ public class ExecutionRepository {
         }
     }
 
+    @Override
+    public String getStatsName() {
+        return "executionCache";
+    }
+
+    @Override
+    public ExecutionCache.CacheStats getStats() {
+        return executionCache.getStats();
+    }
+
     private <T> T fromJson(String json, Class<T> clazz) {
         if (json == null) {
             return null;
@@ -0,0 +1,60 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.exception.AgentException;
+import io.micronaut.transaction.jdbc.DelegatingDataSource;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Brings the tables of a database created by an earlier version of the agent up to date.
+ * <p>
+ * New databases are created with the current schema, every statement here is a no-op on them.
+ * Rows stored before the indexed columns existed are filled in from their JSON.
+ */
+@Singleton
+@Slf4j
+public class ExecutionSchemaMigrator {
+    private static final List<String> STATEMENTS = List.of(
+            "ALTER TABLE executions ADD COLUMN IF NOT EXISTS project_id VARCHAR(255)",
+            "ALTER TABLE executions ADD COLUMN IF NOT EXISTS username VARCHAR(255)",
+            "ALTER TABLE executions ADD COLUMN IF NOT EXISTS job_id VARCHAR(255)",
+            "CREATE INDEX IF NOT EXISTS executions_status_idx ON executions (status, created_at)",
+            "CREATE INDEX IF NOT EXISTS executions_project_idx ON executions (project_id, created_at)",
+            "CREATE INDEX IF NOT EXISTS executions_username_idx ON executions (username)",
+            "CREATE INDEX IF NOT EXISTS executions_job_id_idx ON executions (job_id)",
+            "CREATE INDEX IF NOT EXISTS executions_created_at_idx ON executions (created_at)",
+            "CREATE INDEX IF NOT EXISTS executions_finished_at_idx ON executions (finished_at)",
+            "CREATE TABLE IF NOT EXISTS execution_status_history (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "execution_id VARCHAR(255) NOT NULL, status VARCHAR(255) NOT NULL, message VARCHAR(10000), "
+                    + "details_json VARCHAR(10000), created_at TIMESTAMP NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS execution_status_history_execution_idx ON execution_status_history (execution_id)"
+    );
+
+    private final DataSource dataSource;
+    private final ExecutionRepository executionRepository;
+
+    public ExecutionSchemaMigrator(DataSource dataSource, ExecutionRepository executionRepository) {
+        this.dataSource = DelegatingDataSource.unwrapDataSource(dataSource);
+        this.executionRepository = executionRepository;
+    }
+
+    public void migrate() {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.createStatement()) {
+            for (var sql : STATEMENTS) {
+                log.debug("Migrating schema: {}", sql);
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new AgentException("Failed to migrate execution database: " + e.getMessage());
+        }
+        var backfilled = executionRepository.backfillIndexedColumns();
+        if (backfilled > 0) {
+            log.info("Migrated {} stored executions", backfilled);
+        }
+    }
+}
@@ -2,109 +2,236 @@ package bio.cirro.agent.execution;
 
 import bio.cirro.agent.AgentConfig;
 import bio.cirro.agent.exception.ExecutionException;
-import bio.cirro.agent.messaging.AgentClientFactory;
+import bio.cirro.agent.messaging.PortalMessageSender;
 import bio.cirro.agent.messaging.dto.AnalysisUpdateMessage;
+import bio.cirro.agent.messaging.dto.PortalMessage;
 import bio.cirro.agent.messaging.dto.StopAnalysisMessage;
 import bio.cirro.agent.models.Status;
 import bio.cirro.agent.models.UpdateStatusRequest;
+import io.micronaut.context.event.ApplicationEventPublisher;
 import jakarta.inject.Singleton;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.IOException;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
 @AllArgsConstructor
 @Singleton
 @Slf4j
 public class ExecutionService {
     private final ExecutionRepository executionRepository;
+    private final ExecutionSummaryRepository executionSummaryRepository;
+    private final ExecutionStatusHistory executionStatusHistory;
+    private final ExecutionLocks executionLocks;
+    private final ExecutionStatusCoalescer executionStatusCoalescer;
     private final AgentConfig agentConfig;
-    private final AgentClientFactory agentClientFactory;
+    private final PortalMessageSender portalMessageSender;
+    private final ExecutionBatchStopper executionBatchStopper;
+    private final AdmissionController admissionController;
+    private final ApplicationEventPublisher<ExecutionStatusChangedEvent> statusChangedPublisher;
 
-    public List<ExecutionDto> list() {
-        var executions = executionRepository.getAll();
-        return executions.stream()
-                .map(ExecutionDto::from)
-                .toList();
+    public ExecutionPage list(ExecutionFilter filter) {
+        return executionSummaryRepository.list(filter);
     }
 
+    /**
+     * Status updates of the execution, oldest first
+     */
+    public List<ExecutionStatusEventDto> getHistory(String executionId) {
+        // Fails if the execution does not exist
+        executionRepository.get(executionId);
+        return executionStatusHistory.getTimeline(executionId);
+    }
+
+    /**
+     * Every update is recorded in the history as it is received,
+     * the execution and the portal are updated with updates reported in quick succession coalesced,
+     * see {@link ExecutionStatusCoalescer}
+     */
     public void updateStatus(String executionId, UpdateStatusRequest request) {
         var execution = executionRepository.get(executionId);
-        updateStatusInternal(execution, request);
+        executionStatusHistory.record(execution.getExecutionId(), request.status(), request.message(), request.details());
+        executionStatusCoalescer.submit(execution.getExecutionId(), request,
+                (id, update) -> applyStatus(executionRepository.get(id), update));
+    }
+
+    /**
+     * Mark the execution as running once it has been submitted to the compute environment
+     */
+    void markSubmitted(Execution execution) {
+        var updateRequest = UpdateStatusRequest.builder()
+                .status(Status.RUNNING)
+                .build();
+        updateStatusInternal(execution, updateRequest);
     }
 
+    /**
+     * Request the execution to be stopped, the stop is coalesced with other stops received around the same time.
+     * The execution is marked as failed once the stop script has run successfully.
+     * Executions that were not submitted yet are cancelled instead.
+     */
     public void stopExecution(StopAnalysisMessage stopAnalysisMessage) {
         var execution = executionRepository.get(stopAnalysisMessage.getDatasetId());
+        if (execution.getStartOutput() == null && cancelUnsubmitted(execution)) {
+            return;
+        }
+        if (!executionBatchStopper.isAvailable()) {
+            throw new ExecutionException("Stop script not found");
+        }
         log.info("Stopping execution: {}", execution.getDatasetId());
-        try {
-            Path stopScript = agentConfig.getStopScript();
-            if (!stopScript.toFile().exists()) {
-                throw new ExecutionException("Stop script not found");
+        executionBatchStopper.stop(execution).whenComplete((exitCode, ex) -> {
+            if (ex != null || exitCode != 0) {
+                var reason = ex != null ? ex.getMessage() : "stop script exited with code " + exitCode;
+                log.error("Failed to stop execution {}: {}", execution.getDatasetId(), reason);
+                sendMessage(buildUpdateMessage(execution, execution.getStatus(),
+                        "Failed to stop execution: " + reason, null));
+                return;
             }
-            var stopProcessBuilder = new ProcessBuilder()
-                    .directory(execution.getWorkingDirectory().toFile())
-                    .command(stopScript.toAbsolutePath().toString())
-                    .redirectErrorStream(true);
-            var env = stopProcessBuilder.environment();
-            if (execution.getStartOutput() == null) {
-                throw new ExecutionException("Execution not started, cannot stop job");
-            }
-            env.put("PW_ENVIRONMENT_FILE", execution.getEnvironmentPath().toString());
-            env.put("PW_JOB_ID", execution.getStartOutput().localJobId());
+            var updateRequest = UpdateStatusRequest.builder()
+                    .status(Status.FAILED)
+                    .message("Execution stopped by user")
+                    .build();
+            executionStatusCoalescer.submit(execution.getExecutionId(), updateRequest,
+                    (id, update) -> updateStatusInternal(execution, update));
+        });
+    }
 
-            var stopProcess = stopProcessBuilder.start();
-            var output = new String(stopProcess.getInputStream().readAllBytes());
-            log.debug("Stop execution output: {}", output);
+    /**
+     * Fail an execution that has not been submitted, removing it from the admission queue if it is still there.
+     * Submissions in progress check the status of the execution before and after starting its job.
+     *
+     * @return false if the execution was submitted in the meantime
+     */
+    private boolean cancelUnsubmitted(Execution execution) {
+        return executionLocks.withLock(execution.getExecutionId(), () -> {
+            var current = executionRepository.get(execution.getExecutionId());
+            if (current.getStartOutput() != null) {
+                return false;
+            }
+            var queued = admissionController.cancel(current.getExecutionId());
+            log.info("Cancelling {} execution: {}", queued ? "queued" : "unsubmitted", current.getDatasetId());
+            var updateRequest = UpdateStatusRequest.builder()
+                    .status(Status.FAILED)
+                    .message("Execution stopped by user before it was submitted")
+                    .build();
+            updateStatusInternal(current, updateRequest);
+            return true;
+        });
+    }
 
-            stopProcess.waitFor(10, TimeUnit.SECONDS);
-            if (stopProcess.exitValue() != 0) {
-                log.error("Failed to stop execution. Output: {}", output);
+    /**
+     * Fail an execution whose job has ended without reporting that it has finished
+     *
+     * @return false if the execution had already finished
+     */
+    public boolean failIfUnfinished(String executionId, String message) {
+        return executionLocks.withLock(executionId, () -> {
+            var current = executionRepository.get(executionId);
+            if (current.getStatus().isTerminal()) {
+                return false;
             }
-            stopProcess.destroy();
             var updateRequest = UpdateStatusRequest.builder()
                     .status(Status.FAILED)
-                    .message("Execution stopped by user")
+                    .message(message)
                     .build();
-            updateStatusInternal(execution, updateRequest);
-        } catch (IOException e) {
-            throw new ExecutionException("Failed to stop execution", e);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new ExecutionException("Thread interrupted", e);
-        }
+            updateStatusInternal(current, updateRequest);
+            return true;
+        });
     }
 
+    /**
+     * Stop the job of an execution that was stopped while it was being submitted
+     */
+    void stopJob(Execution execution) {
+        log.info("Stopping job of cancelled execution: {}", execution.getDatasetId());
+        executionBatchStopper.stop(execution).whenComplete((exitCode, ex) -> {
+            if (ex != null || exitCode != 0) {
+                log.error("Failed to stop job of cancelled execution {}", execution.getDatasetId());
+            }
+        });
+    }
+
+    /**
+     * Record the update in the status history and apply it
+     */
     private void updateStatusInternal(Execution execution, UpdateStatusRequest request) {
-        execution.setStatus(request.status());
+        executionStatusHistory.record(execution.getExecutionId(), request.status(), request.message(), request.details());
+        applyStatus(execution, request);
+    }
 
-        if (request.status() == Status.COMPLETED || request.status() == Status.FAILED) {
-            execution.setFinishedAt(Instant.now());
-            execution.setFinishOutput(new ExecutionFinishOutput(request.message()));
-        }
-        executionRepository.update(execution);
+    /**
+     * The execution itself is only rewritten when its status changes or it finishes, so progress updates stay cheap.
+     * <p>
+     * Updates to an execution are applied one at a time to its latest stored state, and updates that would
+     * move it backwards, such as a late RUNNING after it was stopped, are ignored.
+     */
+    private void applyStatus(Execution execution, UpdateStatusRequest request) {
+        executionLocks.withLock(execution.getExecutionId(), () -> {
+            var current = executionRepository.get(execution.getExecutionId());
+            if (current.getStatus().isRegression(request.status())) {
+                log.info("Ignoring {} update of execution {}, already {}",
+                        request.status(), current.getExecutionId(), current.getStatus());
+                return;
+            }
+            if (current.getStatus() != request.status()) {
+                current.setStatus(request.status());
+                if (request.status().isTerminal()) {
+                    current.setFinishedAt(Instant.now());
+                    current.setFinishOutput(new ExecutionFinishOutput(request.message()));
+                }
+                executionRepository.update(current);
+                statusChangedPublisher.publishEvent(new ExecutionStatusChangedEvent(
+                        current.getExecutionId(),
+                        current.getProjectId(),
+                        current.getUsername(),
+                        request.status()
+                ));
+            }
+            if (current != execution) {
+                execution.setStatus(current.getStatus());
+            }
 
-        var socket = agentClientFactory.getClientSocket();
-        if (!socket.isOpen()) {
-            log.warn("Socket is closed, cannot send message");
-            return;
-        }
-        // Build update message and send back to the server.
+            // Build update message and send back to the server, in the order the updates were applied
+            sendMessage(buildUpdateMessage(current, request.status(), request.message(), request.details()));
+        });
+    }
+
+    private static AnalysisUpdateMessage buildUpdateMessage(Execution execution,
+                                                            Status status,
+                                                            String message,
+                                                            Map<String, Object> details) {
         var nativeJobId = Optional.ofNullable(execution.getStartOutput())
                 .map(ExecutionStartOutput::localJobId)
                 .orElse(null);
-        var msg = AnalysisUpdateMessage.builder()
+        return AnalysisUpdateMessage.builder()
                 .datasetId(execution.getDatasetId())
                 .projectId(execution.getProjectId())
                 .nativeJobId(nativeJobId)
-                .status(request.status())
-                .message(request.message())
-                .details(request.details())
+                .status(status)
+                .message(message)
+                .details(details)
                 .build();
-        socket.sendMessage(msg);
+    }
+
+    /**
+     * Send a message to the portal, messages are kept until the connection is open
+     * and sent in the order they were queued, see {@link PortalMessageSender}
+     */
+    void sendMessage(PortalMessage message) {
+        portalMessageSender.send(message);
+    }
+
+    /**
+     * Send the messages kept while the connection was closed, in order
+     */
+    public void flushPendingMessages() {
+        portalMessageSender.flush();
+    }
+
+    public int getPendingMessageCount() {
+        return portalMessageSender.getPendingMessageCount();
     }
 }
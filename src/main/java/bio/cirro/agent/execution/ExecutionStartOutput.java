@@ -1,10 +1,31 @@
 package bio.cirro.agent.execution;
 
+import bio.cirro.agent.process.ProcessOutputCapture;
+import io.micronaut.core.annotation.Nullable;
 import io.micronaut.serde.annotation.Serdeable;
 
+/**
+ * Output of the submit script
+ *
+ * @param stdout     last lines of the output
+ * @param localJobId job ID reported by the submit script
+ * @param outputPath file containing the full output
+ * @param outputLines number of lines in the full output
+ */
 @Serdeable
 public record ExecutionStartOutput(
         String stdout,
-        String localJobId
+        String localJobId,
+        @Nullable String outputPath,
+        @Nullable Long outputLines
 ) {
+    public static ExecutionStartOutput from(ProcessOutputCapture capture, String localJobId) {
+        var outputFile = capture.getOutputFile();
+        return new ExecutionStartOutput(
+                capture.getTail(),
+                localJobId,
+                outputFile != null ? outputFile.toString() : null,
+                capture.getLineCount()
+        );
+    }
 }
@@ -0,0 +1,17 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+
+/**
+ * Published whenever the status of an execution is updated
+ */
+public record ExecutionStatusChangedEvent(
+        String executionId,
+        String projectId,
+        String username,
+        Status status
+) {
+    public boolean isTerminal() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+}
@@ -0,0 +1,161 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Collapses the status updates an execution reports within a short window into one,
+ * so that chatty pipelines do not cause a database write and a message to the portal per update.
+ * <p>
+ * Non-terminal updates received within the window are merged into the latest, with their details combined.
+ * Terminal updates are applied right away, after any update still waiting for the same execution.
+ * Updates due at the end of their window are applied on a bounded pool, so that a slow write
+ * or message for one execution does not hold up the others.
+ */
+@Singleton
+@Slf4j
+public class ExecutionStatusCoalescer implements StatsProvider {
+    private final AgentConfig agentConfig;
+    private final ExecutionLocks executionLocks;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService flushers;
+    private final Map<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder appliedCount = new LongAdder();
+
+    public ExecutionStatusCoalescer(AgentConfig agentConfig, ExecutionLocks executionLocks) {
+        this.agentConfig = agentConfig;
+        this.executionLocks = executionLocks;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("execution-status").daemon().factory()
+        );
+        this.flushers = Executors.newFixedThreadPool(Math.max(1, agentConfig.getStatusUpdateConcurrency()),
+                Thread.ofPlatform().name("execution-status-flush-", 0).daemon().factory());
+    }
+
+    /**
+     * Apply the update now if it is terminal, or once the window has passed
+     *
+     * @param apply applies an update to the execution
+     */
+    public void submit(String executionId, UpdateStatusRequest request, BiConsumer<String, UpdateStatusRequest> apply) {
+        receivedCount.increment();
+        var window = agentConfig.getStatusUpdateWindowMillis();
+        if (window <= 0) {
+            applyNow(executionId, request, apply);
+            return;
+        }
+        executionLocks.withLock(executionId, () -> {
+            if (request.status().isTerminal()) {
+                flush(executionId);
+                applyNow(executionId, request, apply);
+                return;
+            }
+            var previous = pending.get(executionId);
+            if (previous == null) {
+                pending.put(executionId, new PendingUpdate(request, apply));
+                scheduler.schedule(() -> flushers.execute(() -> flushLocked(executionId)), window, TimeUnit.MILLISECONDS);
+            } else {
+                pending.put(executionId, new PendingUpdate(merge(previous.request(), request), apply));
+            }
+        });
+    }
+
+    private void flushLocked(String executionId) {
+        try {
+            executionLocks.withLock(executionId, () -> flush(executionId));
+        } catch (Exception e) {
+            log.error("Failed to apply status update of execution {}: {}", executionId, e.getMessage());
+        }
+    }
+
+    /**
+     * Apply the update waiting for the execution, if any. Must hold the execution lock.
+     */
+    private void flush(String executionId) {
+        var update = pending.remove(executionId);
+        if (update != null) {
+            applyNow(executionId, update.request(), update.apply());
+        }
+    }
+
+    private void applyNow(String executionId, UpdateStatusRequest request, BiConsumer<String, UpdateStatusRequest> apply) {
+        appliedCount.increment();
+        apply.accept(executionId, request);
+    }
+
+    /**
+     * The latest status and message, with the details of both updates
+     */
+    static UpdateStatusRequest merge(UpdateStatusRequest previous, UpdateStatusRequest next) {
+        Map<String, Object> details = null;
+        if (previous.details() != null || next.details() != null) {
+            details = new HashMap<>();
+            if (previous.details() != null) {
+                details.putAll(previous.details());
+            }
+            if (next.details() != null) {
+                details.putAll(next.details());
+            }
+        }
+        return UpdateStatusRequest.builder()
+                .status(next.status())
+                .message(next.message() != null ? next.message() : previous.message())
+                .details(details)
+                .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        flushers.shutdown();
+        for (var executionId : List.copyOf(pending.keySet())) {
+            flushLocked(executionId);
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "statusUpdates";
+    }
+
+    @Override
+    public StatusUpdateStats getStats() {
+        var received = receivedCount.sum();
+        var applied = appliedCount.sum();
+        return new StatusUpdateStats(
+                received,
+                applied,
+                pending.size(),
+                applied == 0 ? 0 : received / (double) applied
+        );
+    }
+
+    private record PendingUpdate(UpdateStatusRequest request, BiConsumer<String, UpdateStatusRequest> apply) {
+    }
+
+    @Serdeable
+    public record StatusUpdateStats(
+            long received,
+            long applied,
+            int pending,
+            double coalescingRatio
+    ) {
+    }
+}
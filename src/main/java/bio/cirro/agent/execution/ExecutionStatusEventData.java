@@ -0,0 +1,41 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+import io.micronaut.core.annotation.Introspected;
+import io.micronaut.data.annotation.GeneratedValue;
+import io.micronaut.data.annotation.Id;
+import io.micronaut.data.annotation.Index;
+import io.micronaut.data.annotation.Indexes;
+import io.micronaut.data.annotation.MappedEntity;
+import jakarta.annotation.Nullable;
+import jakarta.persistence.Column;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * One status update of an execution, rows are only ever inserted
+ */
+@MappedEntity("execution_status_history")
+@Indexes({
+        @Index(name = "execution_status_history_execution_idx", columns = {"execution_id"})
+})
+@Introspected
+@Data
+@Builder
+public class ExecutionStatusEventData {
+    @Id
+    @GeneratedValue
+    @Nullable
+    private Long id;
+    private String executionId;
+    private Status status;
+    @Column(length = 10000)
+    @Nullable
+    private String message;
+    @Column(length = 10000)
+    @Nullable
+    private String detailsJson;
+    private Instant createdAt;
+}
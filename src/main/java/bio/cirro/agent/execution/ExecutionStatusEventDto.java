@@ -0,0 +1,15 @@
+package bio.cirro.agent.execution;
+
+import io.micronaut.serde.annotation.Serdeable;
+
+import java.time.Instant;
+import java.util.Map;
+
+@Serdeable
+public record ExecutionStatusEventDto(
+        String status,
+        String message,
+        Map<String, Object> details,
+        Instant createdAt
+) {
+}
@@ -0,0 +1,17 @@
+package bio.cirro.agent.execution;
+
+import io.micronaut.data.jdbc.annotation.JdbcRepository;
+import io.micronaut.data.model.query.builder.sql.Dialect;
+import io.micronaut.data.repository.GenericRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+@JdbcRepository(dialect = Dialect.H2)
+public interface ExecutionStatusEventRepository extends GenericRepository<ExecutionStatusEventData, Long> {
+    ExecutionStatusEventData save(ExecutionStatusEventData event);
+
+    List<ExecutionStatusEventData> findByExecutionIdOrderById(String executionId);
+
+    void deleteByExecutionIdInList(Collection<String> executionIds);
+}
@@ -0,0 +1,108 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+import io.micronaut.core.type.Argument;
+import io.micronaut.serde.ObjectMapper;
+import jakarta.inject.Singleton;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only log of the status updates of each execution.
+ * <p>
+ * Every update is kept with its message and details, including progress updates
+ * that do not change the status of the execution.
+ * Messages are truncated, and details too large to keep are replaced by
+ * {@code {"truncated": true, "length": N}} with N the length of their JSON.
+ */
+@Singleton
+@AllArgsConstructor
+@Slf4j
+public class ExecutionStatusHistory {
+    private static final int MAX_LENGTH = 10000;
+    private static final Argument<Map<String, Object>> DETAILS_TYPE = Argument.mapOf(String.class, Object.class);
+
+    private final ExecutionStatusEventRepository executionStatusEventRepository;
+    private final ObjectMapper objectMapper;
+    // Executions that have already been warned about, until they are removed
+    private final Set<String> truncatedExecutions = ConcurrentHashMap.newKeySet();
+
+    public void record(String executionId, Status status, String message, Map<String, Object> details) {
+        var event = ExecutionStatusEventData.builder()
+                .executionId(executionId)
+                .status(status)
+                .message(truncate(message))
+                .detailsJson(toJson(executionId, details))
+                .createdAt(Instant.now())
+                .build();
+        executionStatusEventRepository.save(event);
+    }
+
+    /**
+     * Status updates of the execution, oldest first
+     */
+    public List<ExecutionStatusEventDto> getTimeline(String executionId) {
+        return executionStatusEventRepository.findByExecutionIdOrderById(executionId).stream()
+                .map(event -> new ExecutionStatusEventDto(
+                        event.getStatus().name(),
+                        event.getMessage(),
+                        fromJson(event.getDetailsJson()),
+                        event.getCreatedAt()
+                ))
+                .toList();
+    }
+
+    public void removeAll(Collection<String> executionIds) {
+        if (executionIds.isEmpty()) {
+            return;
+        }
+        executionStatusEventRepository.deleteByExecutionIdInList(executionIds);
+        truncatedExecutions.removeAll(executionIds);
+    }
+
+    private String toJson(String executionId, Map<String, Object> details) {
+        if (details == null || details.isEmpty()) {
+            return null;
+        }
+        try {
+            var json = objectMapper.writeValueAsString(details);
+            if (json.length() > MAX_LENGTH) {
+                if (truncatedExecutions.add(executionId)) {
+                    log.warn("Status details of execution {} too large to keep ({} characters), only their length is kept",
+                            executionId, json.length());
+                }
+                return objectMapper.writeValueAsString(Map.of("truncated", true, "length", json.length()));
+            }
+            return json;
+        } catch (IOException e) {
+            log.debug("Failed to serialize status details: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, Object> fromJson(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, DETAILS_TYPE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= MAX_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_LENGTH);
+    }
+}
@@ -0,0 +1,41 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import io.micronaut.configuration.jdbc.hikari.DatasourceConfiguration;
+import io.micronaut.context.event.BeanCreatedEvent;
+import io.micronaut.context.event.BeanCreatedEventListener;
+import jakarta.inject.Singleton;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Points the default datasource to a database file under the work directory when persistence is enabled,
+ * so that executions survive agent restarts.
+ * <p>
+ * A datasource URL set explicitly in the configuration is left as is.
+ */
+@Singleton
+@Slf4j
+@RequiredArgsConstructor
+public class ExecutionStoreConfigurer implements BeanCreatedEventListener<DatasourceConfiguration> {
+    private static final String IN_MEMORY_PREFIX = "jdbc:h2:mem:";
+
+    private final AgentConfig agentConfig;
+
+    @Override
+    public DatasourceConfiguration onCreated(BeanCreatedEvent<DatasourceConfiguration> event) {
+        var datasource = event.getBean();
+        if (!"default".equals(datasource.getName()) || !agentConfig.isPersistent()) {
+            return datasource;
+        }
+        var url = datasource.getUrl();
+        if (url != null && !url.startsWith(IN_MEMORY_PREFIX)) {
+            log.info("Using configured datasource {}", url);
+            return datasource;
+        }
+        var fileUrl = String.format("jdbc:h2:file:%s;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE", agentConfig.getDatabasePath());
+        log.info("Storing executions in {}.mv.db", agentConfig.getDatabasePath());
+        datasource.setUrl(fileUrl);
+        return datasource;
+    }
+}
@@ -0,0 +1,298 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.image.HeadnodeImageCache;
+import bio.cirro.agent.messaging.dto.AnalysisUpdateMessage;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.pilot.PilotPool;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Submits executions on a bounded worker pool so that slow submit scripts
+ * do not block the thread receiving messages from the portal.
+ * <p>
+ * The run analysis command is acknowledged immediately with a PENDING update sent through
+ * {@link ExecutionService#sendMessage}, and a RUNNING or FAILED update is sent once the submit script has returned.
+ * When batching is enabled, the submit script is replaced by the {@link ExecutionBatchSubmitter}.
+ * Executions are stored as PENDING when they are received, then wait in the {@link AdmissionController}
+ * until they are within the configured limits, and are acknowledged as queued until then.
+ */
+@Singleton
+@Slf4j
+public class ExecutionSubmissionService implements StatsProvider {
+    private final ExecutionCreateService executionCreateService;
+    private final ExecutionService executionService;
+    private final ExecutionBatchSubmitter executionBatchSubmitter;
+    private final AdmissionController admissionController;
+    private final HeadnodeImageCache headnodeImageCache;
+    private final PilotPool pilotPool;
+    private final ThreadPoolExecutor executor;
+    private final LatencyRecorder queueLatency = new LatencyRecorder();
+    private final LatencyRecorder submitLatency = new LatencyRecorder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    public ExecutionSubmissionService(ExecutionCreateService executionCreateService,
+                                      ExecutionService executionService,
+                                      ExecutionBatchSubmitter executionBatchSubmitter,
+                                      AdmissionController admissionController,
+                                      HeadnodeImageCache headnodeImageCache,
+                                      PilotPool pilotPool,
+                                      AgentConfig agentConfig) {
+        this.executionCreateService = executionCreateService;
+        this.executionService = executionService;
+        this.executionBatchSubmitter = executionBatchSubmitter;
+        this.admissionController = admissionController;
+        this.headnodeImageCache = headnodeImageCache;
+        this.pilotPool = pilotPool;
+        var concurrency = Math.max(1, agentConfig.getSubmitConcurrency());
+        var queueDepth = Math.max(1, agentConfig.getSubmitQueueDepth());
+        this.executor = new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth),
+                Thread.ofVirtual().name("execution-submit-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Queue the execution for submission and acknowledge it to the portal
+     *
+     * @param message message containing details on the analysis to run
+     */
+    public void submit(RunAnalysisCommandMessage message) {
+        var queuedAt = System.nanoTime();
+        // Start pulling the image while the execution waits its turn
+        Optional.ofNullable(message.getEnvironment())
+                .map(environment -> environment.get("PW_HEADNODE_IMAGE"))
+                .ifPresent(headnodeImageCache::prefetch);
+        Execution execution;
+        try {
+            execution = executionCreateService.register(message);
+        } catch (RuntimeException e) {
+            failedCount.increment();
+            log.error("Error storing analysis {}: {}", message.getDatasetId(), e.getMessage(), e);
+            executionService.sendMessage(buildUpdate(message, Status.FAILED, e.getMessage()));
+            return;
+        }
+        enqueue(execution, queuedAt, true);
+    }
+
+    /**
+     * Queue an execution recovered after a restart that had not been admitted yet
+     */
+    public void resubmit(Execution execution) {
+        enqueue(execution, System.nanoTime(), false);
+    }
+
+    /**
+     * Queue the execution in the admission controller.
+     * The acknowledgement goes through the same ordered queue as the updates sent by the workers,
+     * and the execution is only handed over once it is queued, so the portal never sees it out of order.
+     */
+    private void enqueue(Execution execution, long queuedAt, boolean acknowledge) {
+        var message = execution.getMessageData();
+        var acknowledged = new CompletableFuture<Void>();
+        boolean admitted;
+        try {
+            admitted = admissionController.submit(message,
+                    () -> acknowledged.thenRun(() -> dispatch(execution, queuedAt)));
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            log.error("Submission queue is full, rejecting execution {}", message.getDatasetId());
+            var cause = new ExecutionException("Agent submission queue is full");
+            if (executionCreateService.markFailed(execution, cause)) {
+                executionService.sendMessage(buildUpdate(message, Status.FAILED, cause.getMessage()));
+            }
+            return;
+        }
+        try {
+            if (!admitted) {
+                log.info("Execution {} from {} is queued", message.getDatasetId(), message.getUsername());
+                if (acknowledge) {
+                    var statusMessage = String.format("Queued by agent, %d executions waiting", admissionController.getQueuedCount());
+                    executionService.sendMessage(buildUpdate(message, Status.PENDING, statusMessage));
+                }
+            } else {
+                log.debug("Queued execution {} for submission", message.getDatasetId());
+                if (acknowledge) {
+                    executionService.sendMessage(buildUpdate(message, Status.PENDING, null));
+                }
+            }
+        } finally {
+            acknowledged.complete(null);
+        }
+    }
+
+    /**
+     * Hand an admitted execution to the workers,
+     * the admission controller never admits more than they can accept
+     */
+    private void dispatch(Execution execution, long queuedAt) {
+        try {
+            executor.execute(() -> {
+                try {
+                    runSubmission(execution, queuedAt);
+                } finally {
+                    admissionController.dispatched();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            admissionController.dispatched();
+            admissionController.release(execution.getExecutionId());
+            log.error("Submission workers are shut down, rejecting execution {}", execution.getExecutionId());
+        }
+    }
+
+    private void runSubmission(Execution execution, long queuedAt) {
+        var startedAt = System.nanoTime();
+        queueLatency.recordNanos(startedAt - queuedAt);
+        if (executionCreateService.isFinished(execution)) {
+            log.info("Execution {} was stopped before it was submitted", execution.getExecutionId());
+            return;
+        }
+        try {
+            executionCreateService.prepare(execution);
+        } catch (RuntimeException e) {
+            onSubmissionFailed(execution, e, startedAt);
+            return;
+        }
+        pullImage(execution)
+                .thenCompose(imagePath -> startExecution(execution))
+                .whenComplete((startOutput, ex) -> {
+                    if (ex != null) {
+                        var cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                        onSubmissionFailed(execution, cause, startedAt);
+                        return;
+                    }
+                    submitLatency.recordNanos(System.nanoTime() - startedAt);
+                    if (!executionCreateService.markStarted(execution, startOutput)) {
+                        executionService.stopJob(execution);
+                        return;
+                    }
+                    executionService.markSubmitted(execution);
+                });
+    }
+
+    /**
+     * Make sure the headnode image is in the cache before the headnode job starts
+     */
+    private CompletableFuture<Path> pullImage(Execution execution) {
+        var headnodeImage = execution.getHeadnodeImage();
+        if (headnodeImage == null || !headnodeImageCache.isEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return headnodeImageCache.ensure(headnodeImage);
+    }
+
+    /**
+     * Start the execution in an idle pilot, as part of a batch if enabled, otherwise on its own
+     */
+    private CompletableFuture<ExecutionStartOutput> startExecution(Execution execution) {
+        if (executionCreateService.isFinished(execution)) {
+            return CompletableFuture.failedFuture(new ExecutionException("Execution was stopped before it was submitted"));
+        }
+        if (pilotPool.isEnabled()) {
+            var pilotStartOutput = pilotPool.tryDispatch(execution);
+            if (pilotStartOutput.isPresent()) {
+                return CompletableFuture.completedFuture(pilotStartOutput.get());
+            }
+        }
+        if (executionBatchSubmitter.isEnabled()) {
+            return executionBatchSubmitter.submit(execution);
+        }
+        try {
+            return CompletableFuture.completedFuture(executionCreateService.start(execution));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Fail the execution and report it to the portal,
+     * unless it was stopped in the meantime and the portal already has its final status
+     */
+    private void onSubmissionFailed(Execution execution, Throwable cause, long startedAt) {
+        var message = execution.getMessageData();
+        admissionController.release(message.getDatasetId());
+        submitLatency.recordNanos(System.nanoTime() - startedAt);
+        if (!executionCreateService.markFailed(execution, cause)) {
+            log.info("Execution {} was stopped while it was being submitted: {}", message.getDatasetId(), cause.getMessage());
+            return;
+        }
+        failedCount.increment();
+        log.error("Error running analysis {}: {}", message.getDatasetId(), cause.getMessage(), cause);
+        executionService.sendMessage(buildUpdate(message, Status.FAILED, cause.getMessage()));
+    }
+
+    private static AnalysisUpdateMessage buildUpdate(RunAnalysisCommandMessage message,
+                                                     Status status,
+                                                     String statusMessage) {
+        return AnalysisUpdateMessage.builder()
+                .datasetId(message.getDatasetId())
+                .projectId(message.getProjectId())
+                .nativeJobId(null)
+                .message(statusMessage)
+                .status(status)
+                .build();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Submissions still running at shutdown: {}", executor.getActiveCount());
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "submission";
+    }
+
+    @Override
+    public SubmissionStats getStats() {
+        return new SubmissionStats(
+                admissionController.getQueuedCount() + executor.getQueue().size(),
+                executor.getActiveCount(),
+                executor.getCompletedTaskCount(),
+                failedCount.sum(),
+                rejectedCount.sum(),
+                queueLatency.snapshot(),
+                submitLatency.snapshot()
+        );
+    }
+
+    @Serdeable
+    public record SubmissionStats(
+            int queueDepth,
+            int active,
+            long completed,
+            long failed,
+            long rejected,
+            LatencyRecorder.Snapshot queueLatency,
+            LatencyRecorder.Snapshot submitLatency
+    ) {
+    }
+}
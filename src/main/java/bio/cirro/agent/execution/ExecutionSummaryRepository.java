@@ -0,0 +1,150 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.models.Status;
+import io.micronaut.transaction.jdbc.DelegatingDataSource;
+import jakarta.inject.Singleton;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Lists executions a page at a time, reading only the indexed columns.
+ * <p>
+ * Pages are positioned with a cursor on the creation time and ID of the last execution of the previous page
+ * (keyset pagination), so the cost of a page does not grow with the number of stored executions
+ * or with how far into the listing it is.
+ */
+@Singleton
+public class ExecutionSummaryRepository {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    private static final String COLUMNS = "id, project_id, username, status, created_at, finished_at";
+
+    private final DataSource dataSource;
+    private final AgentConfig agentConfig;
+
+    public ExecutionSummaryRepository(DataSource dataSource, AgentConfig agentConfig) {
+        this.dataSource = DelegatingDataSource.unwrapDataSource(dataSource);
+        this.agentConfig = agentConfig;
+    }
+
+    public ExecutionPage list(ExecutionFilter filter) {
+        var limit = filter.limit() <= 0 ? DEFAULT_LIMIT : Math.min(filter.limit(), MAX_LIMIT);
+        var conditions = new ArrayList<String>();
+        var parameters = new ArrayList<Object>();
+        if (filter.statuses() != null && !filter.statuses().isEmpty()) {
+            conditions.add("status IN (" + String.join(", ", filter.statuses().stream().map(s -> "?").toList()) + ")");
+            filter.statuses().stream().map(Status::name).forEach(parameters::add);
+        }
+        if (filter.projectId() != null) {
+            conditions.add("project_id = ?");
+            parameters.add(filter.projectId());
+        }
+        if (filter.username() != null) {
+            conditions.add("username = ?");
+            parameters.add(filter.username());
+        }
+        if (filter.createdAfter() != null) {
+            conditions.add("created_at >= ?");
+            parameters.add(Timestamp.from(filter.createdAfter()));
+        }
+        if (filter.createdBefore() != null) {
+            conditions.add("created_at < ?");
+            parameters.add(Timestamp.from(filter.createdBefore()));
+        }
+        if (filter.cursor() != null) {
+            var cursor = Cursor.decode(filter.cursor());
+            var comparison = filter.ascending() ? ">" : "<";
+            conditions.add(String.format("(created_at %1$s ? OR (created_at = ? AND id %1$s ?))", comparison));
+            parameters.add(Timestamp.from(cursor.createdAt()));
+            parameters.add(Timestamp.from(cursor.createdAt()));
+            parameters.add(cursor.id());
+        }
+        var direction = filter.ascending() ? "ASC" : "DESC";
+        var sql = new StringBuilder("SELECT ").append(COLUMNS).append(" FROM executions");
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(String.format(" ORDER BY created_at %1$s, id %1$s LIMIT ?", direction));
+        // One more row tells whether there is a next page
+        parameters.add(limit + 1);
+
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(sql.toString())) {
+            bind(statement, parameters);
+            return read(statement, limit);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to list executions: " + e.getMessage(), e);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+
+    private ExecutionPage read(PreparedStatement statement, int limit) throws SQLException {
+        var executions = new ArrayList<ExecutionDto>(Math.min(limit, DEFAULT_LIMIT));
+        Cursor last = null;
+        var hasMore = false;
+        try (var resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                if (executions.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                var dto = toDto(resultSet);
+                executions.add(dto);
+                last = new Cursor(dto.createdAt(), dto.datasetId());
+            }
+        }
+        return new ExecutionPage(executions, hasMore ? last.encode() : null);
+    }
+
+    private ExecutionDto toDto(ResultSet resultSet) throws SQLException {
+        var id = resultSet.getString("id");
+        var projectId = resultSet.getString("project_id");
+        var workingDirectory = Execution.getWorkingDirectory(agentConfig.getAbsoluteWorkDirectory(), projectId, id);
+        return new ExecutionDto(
+                id,
+                projectId,
+                workingDirectory.toString(),
+                resultSet.getString("status"),
+                resultSet.getString("username"),
+                toInstant(resultSet.getTimestamp("created_at")),
+                toInstant(resultSet.getTimestamp("finished_at"))
+        );
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+    private record Cursor(Instant createdAt, String id) {
+        String encode() {
+            var value = createdAt + "/" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                var value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                var separator = value.indexOf('/');
+                return new Cursor(Instant.parse(value.substring(0, separator)), value.substring(separator + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
+}
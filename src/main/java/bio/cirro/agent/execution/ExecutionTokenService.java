@@ -3,68 +3,270 @@ package bio.cirro.agent.execution;
 import bio.cirro.agent.AgentConfig;
 import bio.cirro.agent.aws.AwsCredentials;
 import bio.cirro.agent.aws.AwsTokenClient;
+import bio.cirro.agent.aws.StsRateLimiter;
+import bio.cirro.agent.execution.CredentialCache.CachedCredentials;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.runtime.event.annotation.EventListener;
+import io.micronaut.serde.annotation.Serdeable;
 import jakarta.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.services.sts.StsClient;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Issues the S3 credentials used by the jobs of an execution.
+ * <p>
+ * Credentials are generated while the execution is being set up, and refreshed in the background
+ * once {@code credential-refresh-percent} of their lifetime has passed,
+ * so that requests from the jobs are served from memory.
+ * If a refresh fails, the current credentials are served until they expire.
+ * Credentials are dropped once they expire, or once the grace period of a finished execution has passed.
+ * <p>
+ * Concurrent requests for the credentials of an execution share a single STS call,
+ * and STS calls across executions are rate limited by the {@link StsRateLimiter}.
+ */
 @Singleton
 @Slf4j
-public class ExecutionTokenService {
+public class ExecutionTokenService implements StatsProvider {
+    // Credentials are not handed out when they expire sooner than this
+    private static final Duration MIN_VALIDITY = Duration.ofMinutes(1);
+    // Time given to a finished execution to clean up
+    private static final Duration FINISHED_GRACE = Duration.ofMinutes(1);
+
     private final ExecutionRepository executionRepository;
     private final StsClient stsClient;
+    private final StsRateLimiter stsRateLimiter;
+    private final CredentialsFileWriter credentialsFileWriter;
     private final AgentConfig agentConfig;
-    private final Map<String, AwsCredentials> executionCredentialsCache;
+    private final CredentialCache executionCredentialsCache;
+    private final Map<String, CompletableFuture<CachedCredentials>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder sharedCount = new LongAdder();
+    private final LongAdder refreshFailedCount = new LongAdder();
 
-    public ExecutionTokenService(ExecutionRepository executionRepository, StsClient stsClient, AgentConfig agentConfig) {
+    public ExecutionTokenService(ExecutionRepository executionRepository,
+                                 StsClient stsClient,
+                                 StsRateLimiter stsRateLimiter,
+                                 CredentialsFileWriter credentialsFileWriter,
+                                 AgentConfig agentConfig) {
         this.executionRepository = executionRepository;
         this.stsClient = stsClient;
+        this.stsRateLimiter = stsRateLimiter;
+        this.credentialsFileWriter = credentialsFileWriter;
         this.agentConfig = agentConfig;
-        this.executionCredentialsCache = new ConcurrentHashMap<>();
+        this.executionCredentialsCache = new CredentialCache(agentConfig.getCredentialCacheSize());
     }
 
     public AwsCredentials generateS3Credentials(String executionId) {
+        requestCount.increment();
         var execution = executionRepository.get(executionId);
-
-        // Don't let the credentials be generated if the execution is already completed
-        // but allow a grace period to allow for the execution to clean up
-        // finishedAt will not be set unless the execution has completed or failed.
-        var isAfterThreshold = Optional.ofNullable(execution.getFinishedAt())
-                .map(finished -> finished.plus(Duration.ofMinutes(1)))
-                .map(threshold ->threshold.isBefore(Instant.now()))
-                .orElse(false);
-        if (isAfterThreshold) {
+        if (isPastGracePeriod(execution)) {
             throw new IllegalStateException("Execution already completed");
         }
 
-        if (executionCredentialsCache.containsKey(executionId)) {
-            var cachedCreds = executionCredentialsCache.get(executionId);
-            if (cachedCreds.getExpiration() != null &&
-                    cachedCreds.getExpiration().isAfter(Instant.now())) {
-                log.debug("Using cached S3 credentials for execution: {}", executionId);
-                return cachedCreds;
+        var cached = executionCredentialsCache.get(executionId);
+        if (cached != null && cached.isValidFor(MIN_VALIDITY)) {
+            log.debug("Using cached S3 credentials for execution: {}", executionId);
+            hitCount.increment();
+            return cached.credentials();
+        }
+
+        missCount.increment();
+        try {
+            return refresh(execution, true).credentials();
+        } catch (RuntimeException e) {
+            // Better to hand out credentials that expire soon than none
+            if (cached != null && cached.isValidFor(Duration.ZERO)) {
+                log.warn("Failed to refresh S3 credentials for execution {}, using current ones: {}",
+                        executionId, e.getMessage());
+                return cached.credentials();
             }
+            throw e;
         }
+    }
 
-        log.debug("Generating S3 credentials for execution: {}", executionId);
+    /**
+     * Generate the credentials of a new execution in the background, before its jobs ask for them
+     */
+    public CompletableFuture<Void> prewarm(Execution execution) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                refresh(execution, false);
+            } catch (RuntimeException e) {
+                log.warn("Failed to generate S3 credentials for execution {}: {}",
+                        execution.getExecutionId(), e.getMessage());
+            }
+        }, runnable -> Thread.ofVirtual().name("credentials-" + execution.getExecutionId()).start(runnable));
+    }
+
+    /**
+     * Refresh the credentials that have reached their refresh time,
+     * and drop those that have expired or belong to executions that have finished or been removed
+     */
+    public void refreshDue() {
+        var now = Instant.now();
+        evictExpired(now);
+        for (var entry : executionCredentialsCache.getDueForRefresh(now)) {
+            var executionId = entry.getKey();
+            var cached = entry.getValue();
+            Execution execution;
+            try {
+                execution = executionRepository.get(executionId);
+            } catch (IllegalArgumentException e) {
+                executionCredentialsCache.remove(executionId, cached);
+                continue;
+            }
+            if (isPastGracePeriod(execution)) {
+                executionCredentialsCache.remove(executionId, cached);
+                credentialsFileWriter.delete(execution);
+                continue;
+            }
+            try {
+                refresh(execution, false);
+            } catch (RuntimeException e) {
+                refreshFailedCount.increment();
+                log.warn("Failed to refresh S3 credentials for execution {}: {}", executionId, e.getMessage());
+            }
+        }
+        // Let the jobs fall back to the credential helper rather than read credentials that are about to expire
+        credentialsFileWriter.deleteExpiring(now.plus(MIN_VALIDITY));
+    }
+
+    int evictExpired(Instant now) {
+        return executionCredentialsCache.removeExpired(now);
+    }
+
+    @EventListener
+    public void onStatusChanged(ExecutionStatusChangedEvent event) {
+        if (event.isTerminal()) {
+            executionCredentialsCache.evictAt(event.executionId(), Instant.now().plus(FINISHED_GRACE));
+        }
+    }
+
+    /**
+     * Drop the credentials of executions that have been cleaned up
+     */
+    public void evictAll(Collection<String> executionIds) {
+        executionCredentialsCache.removeAll(executionIds);
+    }
+
+    /**
+     * Generate new credentials, or wait for those already being generated for the execution
+     *
+     * @param reuseValid use the cached credentials if they were refreshed in the meantime
+     */
+    private CachedCredentials refresh(Execution execution, boolean reuseValid) {
+        var future = new CompletableFuture<CachedCredentials>();
+        var existing = inFlight.putIfAbsent(execution.getExecutionId(), future);
+        if (existing != null) {
+            sharedCount.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            var current = executionCredentialsCache.get(execution.getExecutionId());
+            var cached = reuseValid && current != null && current.isValidFor(MIN_VALIDITY)
+                    ? current
+                    : generate(execution);
+            future.complete(cached);
+            return cached;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(execution.getExecutionId(), future);
+        }
+    }
+
+    private CachedCredentials generate(Execution execution) {
+        log.debug("Generating S3 credentials for execution: {}", execution.getExecutionId());
         var tokenClient = createTokenClient(execution);
-        var creds = tokenClient.generateCredentialsForExecution(execution);
+        var creds = stsRateLimiter.call(() -> tokenClient.generateCredentialsForExecution(execution));
+        var issuedAt = Instant.now();
         var credsResponse = AwsCredentials.builder()
                 .accessKeyId(creds.accessKeyId())
                 .secretAccessKey(creds.secretAccessKey())
                 .sessionToken(creds.sessionToken())
                 .expiration(creds.expirationTime().orElse(null))
                 .build();
-        executionCredentialsCache.put(executionId, credsResponse);
-        return credsResponse;
+        refreshCount.increment();
+        var cached = new CachedCredentials(credsResponse, getRefreshAt(issuedAt, credsResponse.getExpiration()), null);
+        if (credsResponse.getExpiration() != null) {
+            executionCredentialsCache.put(execution.getExecutionId(), cached);
+            if (credentialsFileWriter.isEnabled()) {
+                credentialsFileWriter.write(execution, credsResponse);
+            }
+        }
+        return cached;
+    }
+
+    private Instant getRefreshAt(Instant issuedAt, Instant expiration) {
+        if (expiration == null) {
+            return issuedAt;
+        }
+        var percent = Math.clamp(agentConfig.getCredentialRefreshPercent(), 0, 100);
+        var lifetime = Duration.between(issuedAt, expiration);
+        return issuedAt.plus(lifetime.multipliedBy(percent).dividedBy(100));
+    }
+
+    /**
+     * Don't let the credentials be generated if the execution is already completed
+     * but allow a grace period to allow for the execution to clean up.
+     * finishedAt will not be set unless the execution has completed or failed.
+     */
+    private static boolean isPastGracePeriod(Execution execution) {
+        return Optional.ofNullable(execution.getFinishedAt())
+                .map(finished -> finished.plus(FINISHED_GRACE))
+                .map(threshold -> threshold.isBefore(Instant.now()))
+                .orElse(false);
     }
 
     protected AwsTokenClient createTokenClient(Execution execution) {
         return new AwsTokenClient(stsClient, execution.getFileAccessRoleArn(), agentConfig.getId());
     }
+
+    @Override
+    public String getStatsName() {
+        return "s3Credentials";
+    }
+
+    @Override
+    public CredentialStats getStats() {
+        return new CredentialStats(
+                executionCredentialsCache.getStats(),
+                requestCount.sum(),
+                hitCount.sum(),
+                missCount.sum(),
+                refreshCount.sum(),
+                sharedCount.sum(),
+                refreshFailedCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record CredentialStats(
+            CredentialCache.CacheStats cache,
+            long requests,
+            long hits,
+            long misses,
+            long generated,
+            long shared,
+            long refreshFailures
+    ) {
+    }
 }
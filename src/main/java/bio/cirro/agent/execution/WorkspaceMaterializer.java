@@ -0,0 +1,180 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.image.HeadnodeImageCache;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.FileUtils;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sets up the working directory of an execution with as few file system operations as possible,
+ * since each one is slow on shared file systems.
+ * <ul>
+ *     <li>Templates are read from the classpath once</li>
+ *     <li>The credential helper script is the same for every execution, so it is written once
+ *     to a template directory in the agent work directory and linked into each working directory</li>
+ *     <li>Per-execution files are written atomically with their permissions set on creation</li>
+ * </ul>
+ */
+@Singleton
+@Slf4j
+public class WorkspaceMaterializer implements StatsProvider {
+    private static final String AWS_CONFIG_TEMPLATE = "aws-config.properties";
+    private static final String CREDENTIALS_HELPER_TEMPLATE = "credentials-helper.sh";
+    private static final String CONTAINER_CREDENTIALS_AWS_CONFIG = "[profile default]\n";
+    private static final Path TEMPLATE_DIRECTORY = Path.of(".agent", "templates");
+    private static final Set<PosixFilePermission> SCRIPT_PERMISSIONS = PosixFilePermissions.fromString("rwxr-xr--");
+    private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private final AgentConfig agentConfig;
+    private final HeadnodeImageCache headnodeImageCache;
+    private final String awsConfigTemplate;
+    private final String credentialsHelperScript;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final LongAdder materializedCount = new LongAdder();
+    private final LongAdder filesWrittenCount = new LongAdder();
+    private volatile Path credentialsHelperTemplate;
+    private volatile LinkMode linkMode = LinkMode.HARD_LINK;
+
+    public WorkspaceMaterializer(AgentConfig agentConfig, HeadnodeImageCache headnodeImageCache) {
+        this.agentConfig = agentConfig;
+        this.headnodeImageCache = headnodeImageCache;
+        this.awsConfigTemplate = FileUtils.getResourceAsString(AWS_CONFIG_TEMPLATE);
+        this.credentialsHelperScript = FileUtils.getResourceAsString(CREDENTIALS_HELPER_TEMPLATE);
+    }
+
+    /**
+     * Create the working directory of the execution and write the files it needs to run
+     *
+     * @param token agent token used by the execution to call back to the agent
+     */
+    public void materialize(Execution execution, String token) {
+        var startedAt = System.nanoTime();
+        try {
+            Files.createDirectories(execution.getWorkingDirectory());
+            FileUtils.writeAtomically(execution.getEnvironmentPath(), renderEnvironment(execution, token), SCRIPT_PERMISSIONS);
+            filesWrittenCount.increment();
+            FileUtils.writeAtomically(execution.getAwsConfigPath(), renderAwsConfig(execution), FILE_PERMISSIONS);
+            filesWrittenCount.increment();
+            linkCredentialsHelper(execution.getCredentialsHelperPath());
+            filesWrittenCount.increment();
+        } catch (IOException e) {
+            throw new ExecutionException("Failed to set up working directory: " + e.getMessage(), e);
+        } finally {
+            latency.recordNanos(System.nanoTime() - startedAt);
+        }
+        materializedCount.increment();
+    }
+
+    private String renderEnvironment(Execution execution, String token) {
+        var environmentVariables = execution.getEnvironment(token, agentConfig.getEndpoint(),
+                agentConfig.isContainerCredentialsEnabled());
+        var environmentSb = new StringBuilder();
+        environmentSb.append("#!/bin/bash\n");
+        for (Map.Entry<String, String> entry : environmentVariables.entrySet()) {
+            environmentSb.append(String.format("export %s=\"%s\"%n", entry.getKey(), entry.getValue()));
+        }
+        // Image pulled by the agent, see HeadnodeImageCache
+        var headnodeImage = execution.getHeadnodeImage();
+        if (headnodeImage != null && headnodeImageCache.isEnabled()) {
+            environmentSb.append(String.format("export PW_HEADNODE_IMAGE_PATH=\"%s\"%n",
+                    headnodeImageCache.getLocalPath(headnodeImage)));
+        }
+        return environmentSb.toString();
+    }
+
+    /*
+     * @implNote The AWS config file has the full path to the credential helper script
+     * because it cannot read from environment variables or relative paths
+     */
+    private String renderAwsConfig(Execution execution) {
+        if (agentConfig.isContainerCredentialsEnabled()) {
+            // Without a credential process, the SDKs move on to the container credentials provider
+            return CONTAINER_CREDENTIALS_AWS_CONFIG;
+        }
+        return awsConfigTemplate
+                .replace("%%CREDENTIAL_PROCESS_SCRIPT%%", execution.getCredentialsHelperPath().toString());
+    }
+
+    /**
+     * Link the credential helper into the working directory, or copy it if the file system does not support hard links.
+     * A symbolic link is not an option, as the template directory is not mounted in the headnode container.
+     */
+    private void linkCredentialsHelper(Path path) throws IOException {
+        if (linkMode == LinkMode.COPY) {
+            FileUtils.writeAtomically(path, credentialsHelperScript, SCRIPT_PERMISSIONS);
+            return;
+        }
+        var template = getCredentialsHelperTemplate();
+        try {
+            // Left over from a previous run of the same dataset
+            Files.deleteIfExists(path);
+            Files.createLink(path, template);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Cannot create hard link for credential helper ({}), copying it instead", e.getMessage());
+            linkMode = LinkMode.COPY;
+            FileUtils.writeAtomically(path, credentialsHelperScript, SCRIPT_PERMISSIONS);
+        }
+    }
+
+    private Path getCredentialsHelperTemplate() throws IOException {
+        var template = credentialsHelperTemplate;
+        if (template != null) {
+            return template;
+        }
+        synchronized (this) {
+            if (credentialsHelperTemplate == null) {
+                var templateDirectory = agentConfig.getAbsoluteWorkDirectory().resolve(TEMPLATE_DIRECTORY);
+                Files.createDirectories(templateDirectory);
+                // Replace rather than overwrite, so links from previous versions keep their content
+                var path = templateDirectory.resolve(CREDENTIALS_HELPER_TEMPLATE);
+                FileUtils.writeAtomically(path, credentialsHelperScript, SCRIPT_PERMISSIONS);
+                log.debug("Wrote credential helper template to {}", path);
+                credentialsHelperTemplate = path;
+            }
+            return credentialsHelperTemplate;
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "workspace";
+    }
+
+    @Override
+    public WorkspaceStats getStats() {
+        return new WorkspaceStats(
+                materializedCount.sum(),
+                filesWrittenCount.sum(),
+                linkMode.name(),
+                latency.snapshot()
+        );
+    }
+
+    enum LinkMode {
+        HARD_LINK,
+        COPY
+    }
+
+    @Serdeable
+    public record WorkspaceStats(
+            long materialized,
+            long filesWritten,
+            String linkMode,
+            LatencyRecorder.Snapshot latency
+    ) {
+    }
+}
@@ -0,0 +1,188 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.TokenBucket;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes the working directories of cleaned up executions without overloading the shared filesystem.
+ * <p>
+ * A working directory is first renamed into the trash directory under the work directory, which is instant,
+ * then deleted in the background by a bounded number of workers sharing a limit of file deletions per second.
+ * Anything left in the trash when the agent stops is deleted once it is back.
+ */
+@Singleton
+@Slf4j
+public class WorkspaceReclaimer implements StatsProvider {
+    private final AgentConfig agentConfig;
+    private final TokenBucket deleteRate;
+    private final ExecutorService workers;
+    private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+    private final LongAdder bytesReclaimed = new LongAdder();
+    private final LongAdder filesDeleted = new LongAdder();
+    private final LongAdder workspacesReclaimed = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+
+    public WorkspaceReclaimer(AgentConfig agentConfig) {
+        this.agentConfig = agentConfig;
+        var opsPerSecond = agentConfig.getCleanupDeleteOpsPerSecond();
+        this.deleteRate = new TokenBucket(Math.max(1, opsPerSecond), opsPerSecond);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, agentConfig.getCleanupDeleteConcurrency()),
+                Thread.ofPlatform().name("workspace-reclaimer-", 0).daemon().factory());
+    }
+
+    public boolean isEnabled() {
+        return agentConfig.isCleanupDeleteFiles();
+    }
+
+    public Path getTrashDirectory() {
+        return agentConfig.getAbsoluteWorkDirectory().resolve(".agent/trash");
+    }
+
+    /**
+     * Move the working directory of the execution to the trash, it is deleted in the background
+     */
+    public void reclaim(Execution execution) throws IOException {
+        var workingDirectory = execution.getWorkingDirectory();
+        if (!Files.exists(workingDirectory)) {
+            return;
+        }
+        var trashDirectory = getTrashDirectory();
+        Files.createDirectories(trashDirectory);
+        var trashEntry = trashDirectory.resolve(String.format("%s-%s", execution.getExecutionId(), UUID.randomUUID()));
+        Files.move(workingDirectory, trashEntry, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Moved {} to {}", workingDirectory, trashEntry);
+        submit(trashEntry);
+    }
+
+    /**
+     * Delete anything left in the trash, such as directories whose deletion was interrupted by a restart
+     */
+    public void resume() {
+        var trashDirectory = getTrashDirectory();
+        if (!Files.isDirectory(trashDirectory)) {
+            return;
+        }
+        try (var entries = Files.list(trashDirectory)) {
+            entries.forEach(this::submit);
+        } catch (IOException e) {
+            log.warn("Failed to list {}: {}", trashDirectory, e.getMessage());
+        }
+    }
+
+    private void submit(Path trashEntry) {
+        if (inProgress.add(trashEntry)) {
+            workers.execute(() -> delete(trashEntry));
+        }
+    }
+
+    private void delete(Path trashEntry) {
+        try {
+            Files.walkFileTree(trashEntry, new ThrottledDeleter());
+            workspacesReclaimed.increment();
+            log.debug("Deleted {}", trashEntry);
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            errorCount.increment();
+            log.warn("Failed to delete {}: {}", trashEntry, e.getMessage());
+        } finally {
+            inProgress.remove(trashEntry);
+        }
+    }
+
+    /**
+     * Wait for the rate limit before each file or directory deletion
+     */
+    private void acquire() throws InterruptedIOException {
+        try {
+            while (!deleteRate.tryAcquire()) {
+                Thread.sleep(Math.max(1, deleteRate.timeUntilAvailable().toMillis()));
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while deleting");
+        }
+    }
+
+    private class ThrottledDeleter extends SimpleFileVisitor<Path> {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            acquire();
+            Files.deleteIfExists(file);
+            bytesReclaimed.add(attrs.size());
+            filesDeleted.increment();
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            if (e instanceof NoSuchFileException) {
+                return FileVisitResult.CONTINUE;
+            }
+            throw e;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) {
+                throw e;
+            }
+            acquire();
+            Files.deleteIfExists(dir);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "reclaim";
+    }
+
+    @Override
+    public ReclaimStats getStats() {
+        return new ReclaimStats(
+                isEnabled(),
+                inProgress.size(),
+                workspacesReclaimed.sum(),
+                filesDeleted.sum(),
+                bytesReclaimed.sum(),
+                errorCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record ReclaimStats(
+            boolean enabled,
+            int pending,
+            long workspacesReclaimed,
+            long filesDeleted,
+            long bytesReclaimed,
+            long errors
+    ) {
+    }
+}
@@ -0,0 +1,311 @@
+package bio.cirro.agent.image;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.FileUtils;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Keeps headnode images pulled in {@code <shared directory>/headnode_images}, so that headnode jobs
+ * do not each pull the image when they start.
+ * <ul>
+ *     <li>Concurrent requests for the same image share a single pull</li>
+ *     <li>Images are pulled in the background as soon as an analysis using them is received</li>
+ *     <li>An image is only pulled again when its digest in the registry has changed</li>
+ *     <li>The least recently used images are removed when the cache is over its size budget</li>
+ * </ul>
+ * The digest of each image is stored next to it in a {@code .digest} file,
+ * whose modification time is the last time the image was used.
+ */
+@Singleton
+@Slf4j
+public class HeadnodeImageCache implements StatsProvider {
+    private static final String IMAGE_DIRECTORY = "headnode_images";
+    private static final String IMAGE_EXTENSION = ".sif";
+    private static final String DIGEST_EXTENSION = ".digest";
+    private static final long BYTES_PER_MB = 1024L * 1024;
+
+    private final AgentConfig agentConfig;
+    private final ImagePuller imagePuller;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Instant> digestCheckedAt = new ConcurrentHashMap<>();
+    private final Set<String> seenImages = ConcurrentHashMap.newKeySet();
+    private final LatencyRecorder pullLatency = new LatencyRecorder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder pullCount = new LongAdder();
+    private final LongAdder sharedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+
+    public HeadnodeImageCache(AgentConfig agentConfig, ImagePuller imagePuller) {
+        this.agentConfig = agentConfig;
+        this.imagePuller = imagePuller;
+    }
+
+    /**
+     * The cache is enabled in the configuration and the image pull script exists
+     */
+    public boolean isEnabled() {
+        return agentConfig.isImageCacheEnabled() && Files.exists(agentConfig.getImagePullScript());
+    }
+
+    /**
+     * Path of the image in the cache, which may not have been pulled yet
+     */
+    public Path getLocalPath(String image) {
+        var name = image.replaceAll("[.:/]", "_");
+        return getImageDirectory().resolve(name + IMAGE_EXTENSION);
+    }
+
+    /**
+     * Start pulling the image in the background if it has not been seen yet
+     */
+    public void prefetch(String image) {
+        if (image == null || !isEnabled() || !seenImages.add(image)) {
+            return;
+        }
+        log.debug("Pre-pulling headnode image {}", image);
+        ensure(image).exceptionally(e -> {
+            log.warn("Failed to pre-pull headnode image {}: {}", image, e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Make sure the image is in the cache and up-to-date
+     *
+     * @return future completed with the path of the image once it is available
+     */
+    public CompletableFuture<Path> ensure(String image) {
+        seenImages.add(image);
+        var localPath = getLocalPath(image);
+        if (isRecentlyChecked(image, localPath)) {
+            hitCount.increment();
+            markUsed(localPath);
+            return CompletableFuture.completedFuture(localPath);
+        }
+        var created = new boolean[1];
+        var future = inFlight.computeIfAbsent(image, i -> {
+            created[0] = true;
+            return CompletableFuture.supplyAsync(() -> refresh(i, localPath), executor);
+        });
+        if (created[0]) {
+            future.whenComplete((path, ex) -> inFlight.remove(image, future));
+        } else {
+            sharedCount.increment();
+        }
+        return future;
+    }
+
+    private boolean isRecentlyChecked(String image, Path localPath) {
+        var checkedAt = digestCheckedAt.get(image);
+        return checkedAt != null
+                && checkedAt.plus(agentConfig.imageDigestCheckInterval()).isAfter(Instant.now())
+                && Files.exists(localPath);
+    }
+
+    private Path refresh(String image, Path localPath) {
+        String digest;
+        try {
+            digest = imagePuller.getDigest(image);
+        } catch (RuntimeException e) {
+            log.warn("Failed to get digest of {}: {}", image, e.getMessage());
+            digest = null;
+        }
+        var digestPath = getDigestPath(localPath);
+        if (Files.exists(localPath) && (digest == null || digest.equals(readDigest(digestPath)))) {
+            log.debug("Headnode image {} is up-to-date", image);
+            hitCount.increment();
+            digestCheckedAt.put(image, Instant.now());
+            markUsed(localPath);
+            return localPath;
+        }
+
+        var startedAt = System.nanoTime();
+        var tempPath = localPath.resolveSibling(String.format(".%s.%s.tmp", localPath.getFileName(), UUID.randomUUID()));
+        try {
+            Files.createDirectories(getImageDirectory());
+            imagePuller.pull(image, tempPath);
+            Files.move(tempPath, localPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileUtils.writeAtomically(digestPath, digest == null ? "" : digest,
+                    PosixFilePermissions.fromString("rw-r--r--"));
+        } catch (IOException | RuntimeException e) {
+            failedCount.increment();
+            deleteQuietly(tempPath);
+            throw new ExecutionException(String.format("Failed to pull headnode image %s: %s", image, e.getMessage()), e);
+        } finally {
+            pullLatency.recordNanos(System.nanoTime() - startedAt);
+        }
+        pullCount.increment();
+        digestCheckedAt.put(image, Instant.now());
+        log.info("Pulled headnode image {} to {}", image, localPath);
+        evict(localPath);
+        return localPath;
+    }
+
+    /**
+     * Remove the least recently used images until the cache fits in its budget
+     */
+    synchronized void evict(Path keep) {
+        var budget = agentConfig.getImageCacheMaxMb() * BYTES_PER_MB;
+        var images = listImages();
+        var total = images.stream().mapToLong(CachedImage::size).sum();
+        if (budget <= 0 || total <= budget) {
+            return;
+        }
+        var inUse = inFlight.keySet().stream()
+                .map(this::getLocalPath)
+                .toList();
+        var candidates = images.stream()
+                .filter(image -> !image.path().equals(keep) && !inUse.contains(image.path()))
+                .sorted(Comparator.comparing(CachedImage::lastUsed))
+                .toList();
+        for (var image : candidates) {
+            if (total <= budget) {
+                break;
+            }
+            log.info("Removing headnode image {} last used {}", image.path(), image.lastUsed());
+            deleteQuietly(image.path());
+            deleteQuietly(getDigestPath(image.path()));
+            digestCheckedAt.entrySet().removeIf(entry -> getLocalPath(entry.getKey()).equals(image.path()));
+            total -= image.size();
+            evictedCount.increment();
+            evictedBytes.add(image.size());
+        }
+    }
+
+    private Stream<Path> imageFiles() throws IOException {
+        var directory = getImageDirectory();
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+        return Files.list(directory)
+                .filter(path -> path.getFileName().toString().endsWith(IMAGE_EXTENSION));
+    }
+
+    private List<CachedImage> listImages() {
+        try (var files = imageFiles()) {
+            return files.map(path -> {
+                try {
+                    var digestPath = getDigestPath(path);
+                    var lastUsed = Files.exists(digestPath)
+                            ? Files.getLastModifiedTime(digestPath)
+                            : Files.getLastModifiedTime(path);
+                    return new CachedImage(path, Files.size(path), lastUsed);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to list headnode images: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void markUsed(Path localPath) {
+        var digestPath = getDigestPath(localPath);
+        try {
+            Files.setLastModifiedTime(Files.exists(digestPath) ? digestPath : localPath, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            log.debug("Failed to mark {} as used: {}", localPath, e.getMessage());
+        }
+    }
+
+    private static String readDigest(Path digestPath) {
+        try {
+            return Files.exists(digestPath) ? Files.readString(digestPath).trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private Path getImageDirectory() {
+        return agentConfig.getAbsoluteSharedDirectory().resolve(IMAGE_DIRECTORY);
+    }
+
+    private static Path getDigestPath(Path localPath) {
+        return localPath.resolveSibling(localPath.getFileName() + DIGEST_EXTENSION);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "images";
+    }
+
+    @Override
+    public ImageCacheStats getStats() {
+        var images = listImages();
+        return new ImageCacheStats(
+                isEnabled(),
+                images.size(),
+                images.stream().mapToLong(CachedImage::size).sum(),
+                inFlight.size(),
+                hitCount.sum(),
+                pullCount.sum(),
+                sharedCount.sum(),
+                failedCount.sum(),
+                evictedCount.sum(),
+                evictedBytes.sum(),
+                pullLatency.snapshot()
+        );
+    }
+
+    private record CachedImage(Path path, long size, FileTime lastUsed) {
+    }
+
+    @Serdeable
+    public record ImageCacheStats(
+            boolean enabled,
+            int images,
+            long bytes,
+            int pulling,
+            long hits,
+            long pulls,
+            long sharedPulls,
+            long failed,
+            long evicted,
+            long evictedBytes,
+            LatencyRecorder.Snapshot pullLatency
+    ) {
+    }
+}
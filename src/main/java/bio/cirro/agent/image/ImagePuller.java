@@ -0,0 +1,20 @@
+package bio.cirro.agent.image;
+
+import java.nio.file.Path;
+
+/**
+ * Pulls headnode images to the local file system
+ */
+public interface ImagePuller {
+    /**
+     * Get the digest of the image in the registry
+     *
+     * @return the digest, or null if it cannot be determined
+     */
+    String getDigest(String image);
+
+    /**
+     * Pull the image to the destination file
+     */
+    void pull(String image, Path destination);
+}
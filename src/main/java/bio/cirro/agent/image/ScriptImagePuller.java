@@ -0,0 +1,77 @@
+package bio.cirro.agent.image;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import bio.cirro.agent.process.ProcessSupervisor;
+import jakarta.inject.Singleton;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls images with the image pull script in the shared directory, called as
+ * {@code image_pull.sh <image> <destination>}.
+ * <p>
+ * The digest is read from the last line printed by the optional image digest script,
+ * called as {@code image_digest.sh <image>}.
+ */
+@Singleton
+@Slf4j
+@AllArgsConstructor
+public class ScriptImagePuller implements ImagePuller {
+    private final AgentConfig agentConfig;
+    private final ProcessSupervisor processSupervisor;
+
+    @Override
+    public String getDigest(String image) {
+        var script = agentConfig.getImageDigestScript();
+        if (!Files.exists(script)) {
+            return null;
+        }
+        var output = run("image digest", List.of(script.toAbsolutePath().toString(), image));
+        return Arrays.stream(output.split("\n"))
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .reduce((first, second) -> second)
+                .orElse(null);
+    }
+
+    @Override
+    public void pull(String image, Path destination) {
+        var script = agentConfig.getImagePullScript();
+        if (!Files.exists(script)) {
+            throw new ExecutionException("Image pull script not found");
+        }
+        log.info("Pulling headnode image {}", image);
+        run("image pull", List.of(script.toAbsolutePath().toString(), image, destination.toString()));
+    }
+
+    private String run(String name, List<String> command) {
+        try {
+            var processBuilder = new ProcessBuilder(command)
+                    .directory(agentConfig.getAbsoluteSharedDirectory().toFile())
+                    .redirectErrorStream(true);
+            var process = processSupervisor.start(name, processBuilder, agentConfig.imagePullTimeout());
+            var capture = new ProcessOutputCapture(null, null)
+                    .start(process.getProcess().getInputStream());
+            var exitCode = process.awaitExit();
+            capture.getCompletion().completeOnTimeout(null, 5, TimeUnit.SECONDS).join();
+            if (exitCode != 0) {
+                throw new ExecutionException(String.format("%s failed: %s", name, capture.getTail()));
+            }
+            return capture.getTail();
+        } catch (IOException e) {
+            throw new ExecutionException(String.format("Failed to run %s", name), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException("Thread interrupted", e);
+        }
+    }
+}
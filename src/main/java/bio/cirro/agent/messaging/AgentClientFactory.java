@@ -1,11 +1,14 @@
 package bio.cirro.agent.messaging;
 
 import bio.cirro.agent.aws.AwsRequestSigner;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import io.micronaut.core.type.Argument;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.client.HttpClient;
+import io.micronaut.serde.annotation.Serdeable;
 import io.micronaut.websocket.WebSocketClient;
 import jakarta.inject.Singleton;
 import lombok.Getter;
@@ -13,29 +16,44 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * Sets up a WebSocket client for the agent to connect to the Cirro Portal.
+ * <p>
+ * The token used to connect is renewed in the background before it expires (see {@link #renewTokenIfExpiring()}),
+ * so that reconnecting does not wait on a signed call to the token endpoint.
  */
 @Singleton
 @RequiredArgsConstructor
 @Slf4j
-public class AgentClientFactory {
+public class AgentClientFactory implements StatsProvider {
+    // Tokens are renewed when they expire within this time
+    private static final Duration TOKEN_RENEW_AHEAD = Duration.ofMinutes(5);
+
     private final WebSocketClient webSocketClient;
     private final AwsRequestSigner awsRequestSigner;
     private final HttpClient httpClient;
+    private final LatencyRecorder connectLatency = new LatencyRecorder();
+    private final LatencyRecorder tokenLatency = new LatencyRecorder();
+    private final LongAdder tokenFetchedOnConnectCount = new LongAdder();
+    private final LongAdder tokenRenewedCount = new LongAdder();
 
     @Getter
     private AgentClient clientSocket;
-    private DecodedJWT jwt;
+    private volatile DecodedJWT jwt;
+    private volatile ConnectionInfo lastConnectionInfo;
 
     /**
      * Connects to the Agent WebSocket endpoint.
      */
     public synchronized AgentClient connect(ConnectionInfo connectionInfo,
                                             MessageHandlerFunction messageHandler) {
+        var startedAt = System.nanoTime();
+        lastConnectionInfo = connectionInfo;
         var token = getToken(connectionInfo);
         log.debug("Connecting to WebSocket endpoint at {}", connectionInfo.getWsUrl());
         var request = HttpRequest
@@ -47,21 +65,47 @@ public class AgentClientFactory {
         var clientAsync = webSocketClient.connect(AgentClient.class, request);
         var client = Flux.from(clientAsync)
                 .blockFirst();
-
         assert client != null;
         client.setMessageHandler(messageHandler);
         clientSocket = client;
+        connectLatency.recordNanos(System.nanoTime() - startedAt);
         return client;
     }
 
+    /**
+     * Fetch a new token ahead of the expiry of the current one, called regularly
+     */
+    public void renewTokenIfExpiring() {
+        var connectionInfo = lastConnectionInfo;
+        if (connectionInfo == null || isValidFor(jwt, TOKEN_RENEW_AHEAD)) {
+            return;
+        }
+        try {
+            jwt = fetchToken(connectionInfo);
+            tokenRenewedCount.increment();
+            log.debug("Renewed JWT token, expires at {}", jwt.getExpiresAtAsInstant());
+        } catch (Exception e) {
+            // Tried again on the next call, or when reconnecting
+            log.warn("Failed to renew JWT token: {}", e.getMessage());
+        }
+    }
+
     /**
      * Generates a token used for calling the WebSocket endpoint.
      */
     private DecodedJWT getToken(ConnectionInfo connectionInfo) {
-        if (jwt != null && !jwt.getExpiresAtAsInstant().isBefore(Instant.now())) {
+        var current = jwt;
+        if (isValidFor(current, Duration.ZERO)) {
             log.debug("Using cached JWT token");
-            return jwt;
+            return current;
         }
+        tokenFetchedOnConnectCount.increment();
+        jwt = fetchToken(connectionInfo);
+        return jwt;
+    }
+
+    private DecodedJWT fetchToken(ConnectionInfo connectionInfo) {
+        var startedAt = System.nanoTime();
         log.debug("Fetching new JWT token from {}", connectionInfo.getTokenUrl());
         var request = HttpRequest
                 .POST(connectionInfo.getTokenUrl(), null)
@@ -70,7 +114,44 @@ public class AgentClientFactory {
         var signedRequest = awsRequestSigner.signRequest(request, connectionInfo.region());
         var resp = httpClient.toBlocking().retrieve(signedRequest, Argument.mapOf(String.class, String.class));
         var tokenRaw = resp.get("token");
-        jwt = JWT.decode(tokenRaw);
-        return jwt;
+        var decoded = JWT.decode(tokenRaw);
+        tokenLatency.recordNanos(System.nanoTime() - startedAt);
+        return decoded;
+    }
+
+    private static boolean isValidFor(DecodedJWT token, Duration duration) {
+        return token != null && token.getExpiresAtAsInstant().isAfter(Instant.now().plus(duration));
+    }
+
+    @Override
+    public String getStatsName() {
+        return "connection";
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        var current = jwt;
+        return new ConnectionStats(
+                connectLatency.snapshot(),
+                tokenLatency.snapshot(),
+                tokenFetchedOnConnectCount.sum(),
+                tokenRenewedCount.sum(),
+                current == null ? null : current.getExpiresAtAsInstant()
+        );
+    }
+
+    /**
+     * @param connect                time taken to (re)connect, including fetching a token when needed
+     * @param tokenFetch             time taken to fetch a token
+     * @param tokensFetchedOnConnect connections that had to wait for a new token
+     */
+    @Serdeable
+    public record ConnectionStats(
+            LatencyRecorder.Snapshot connect,
+            LatencyRecorder.Snapshot tokenFetch,
+            long tokensFetchedOnConnect,
+            long tokensRenewed,
+            Instant tokenExpiresAt
+    ) {
     }
 }
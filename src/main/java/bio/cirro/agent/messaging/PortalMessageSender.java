@@ -0,0 +1,101 @@
+package bio.cirro.agent.messaging;
+
+import bio.cirro.agent.messaging.dto.PortalMessage;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Sends messages to the portal in the order they were queued, from a single sender thread,
+ * so that callers never wait on the connection while holding their own locks.
+ * <p>
+ * Messages are kept while the connection is down and only removed once they have been sent,
+ * a message that fails to send stays at the head of the queue until the next flush.
+ */
+@Singleton
+@Slf4j
+public class PortalMessageSender {
+    // Messages kept while the connection to Cirro is down, the oldest are dropped beyond this
+    static final int MAX_PENDING_MESSAGES = 10_000;
+
+    private final AgentClientFactory agentClientFactory;
+    private final BlockingDeque<PortalMessage> pendingMessages = new LinkedBlockingDeque<>();
+    private final Thread sender;
+    private boolean flushRequested;
+
+    public PortalMessageSender(AgentClientFactory agentClientFactory) {
+        this.agentClientFactory = agentClientFactory;
+        this.sender = Thread.ofPlatform().name("portal-message-sender").daemon().start(this::run);
+    }
+
+    /**
+     * Queue a message to be sent once the connection is open
+     */
+    public void send(PortalMessage message) {
+        pendingMessages.addLast(message);
+        if (pendingMessages.size() > MAX_PENDING_MESSAGES) {
+            pendingMessages.pollFirst();
+            log.warn("Too many messages waiting for the connection, dropping the oldest");
+        }
+        flush();
+    }
+
+    /**
+     * Wake up the sender to send the messages waiting, if the connection is open
+     */
+    public synchronized void flush() {
+        flushRequested = true;
+        notifyAll();
+    }
+
+    public int getPendingMessageCount() {
+        return pendingMessages.size();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                awaitFlush();
+                sendPending();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void awaitFlush() throws InterruptedException {
+        while (!flushRequested) {
+            wait();
+        }
+        flushRequested = false;
+    }
+
+    private void sendPending() {
+        var socket = agentClientFactory.getClientSocket();
+        if (socket == null || !socket.isOpen()) {
+            log.debug("Socket is closed, {} messages waiting", getPendingMessageCount());
+            return;
+        }
+        PortalMessage message;
+        while ((message = pendingMessages.peekFirst()) != null && socket.isOpen()) {
+            try {
+                socket.sendMessage(message);
+            } catch (RuntimeException e) {
+                log.warn("Failed to send message, {} messages waiting: {}", getPendingMessageCount(), e.getMessage());
+                return;
+            }
+            // Unless it was dropped as the oldest while being sent
+            if (pendingMessages.peekFirst() == message) {
+                pendingMessages.pollFirst();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        sender.interrupt();
+    }
+}
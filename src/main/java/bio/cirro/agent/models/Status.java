@@ -7,5 +7,17 @@ public enum Status {
     PENDING,
     RUNNING,
     COMPLETED,
-    FAILED
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
+
+    /**
+     * Whether moving from this status to {@code next} would go backwards.
+     * Statuses only move forward, and a terminal status is final.
+     */
+    public boolean isRegression(Status next) {
+        return isTerminal() || (this == RUNNING && next == PENDING);
+    }
 }
@@ -0,0 +1,59 @@
+package bio.cirro.agent.pilot;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * A long-lived headnode allocation that runs executions handed over by the {@link PilotPool}.
+ * <p>
+ * The agent and the pilot communicate through files in the pilot directory:
+ * <ul>
+ *     <li>{@code ready}: created by the pilot once its allocation has started</li>
+ *     <li>{@code heartbeat}: touched by the pilot regularly</li>
+ *     <li>{@code assignment}: written by the agent with the environment file of the execution to run,
+ *     renamed to {@code running} by the pilot when it picks it up, and removed once the execution has finished</li>
+ *     <li>{@code exit_code}: written by the pilot with the exit code of the headnode, before {@code running} is removed</li>
+ *     <li>{@code shutdown}: created by the agent to release the allocation</li>
+ * </ul>
+ */
+@Getter
+@Setter
+public class Pilot {
+    static final String READY_FILE = "ready";
+    static final String HEARTBEAT_FILE = "heartbeat";
+    static final String ASSIGNMENT_FILE = "assignment";
+    static final String RUNNING_FILE = "running";
+    static final String SHUTDOWN_FILE = "shutdown";
+    static final String EXIT_CODE_FILE = "exit_code";
+
+    private final String id;
+    private final Path directory;
+    private final Instant submittedAt;
+    private volatile String jobId;
+    private volatile PilotState state;
+    private volatile String executionId;
+    // Set when an execution is handed over, until the pilot picks it up
+    private volatile Instant assignedAt;
+    private volatile Instant idleSince;
+
+    Pilot(String id, Path directory) {
+        this.id = id;
+        this.directory = directory;
+        this.submittedAt = Instant.now();
+        this.state = PilotState.SUBMITTING;
+    }
+
+    Path resolve(String file) {
+        return directory.resolve(file);
+    }
+
+    public enum PilotState {
+        SUBMITTING,
+        QUEUED,
+        IDLE,
+        BUSY
+    }
+}
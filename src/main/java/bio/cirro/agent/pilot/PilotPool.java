@@ -0,0 +1,428 @@
+package bio.cirro.agent.pilot;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.execution.Execution;
+import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.execution.ExecutionStartOutput;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import bio.cirro.agent.pilot.Pilot.PilotState;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import bio.cirro.agent.process.ProcessSupervisor;
+import bio.cirro.agent.stats.StatsProvider;
+import bio.cirro.agent.utils.FileUtils;
+import io.micronaut.scheduling.TaskScheduler;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a pool of long-lived headnode allocations (pilots) so that executions
+ * do not wait in the scheduler queue for their own allocation.
+ * <ul>
+ *     <li>Executions are handed to an idle pilot through its pilot directory, see {@link Pilot}</li>
+ *     <li>When no pilot is idle, the execution is submitted on its own as usual
+ *     and a new pilot is requested, up to the maximum pool size</li>
+ *     <li>Pilots idle for longer than the idle timeout are released, down to the minimum pool size</li>
+ *     <li>Pilots that do not pick up their execution within the ack timeout, or stop sending heartbeats,
+ *     are released and their execution is failed</li>
+ *     <li>Executions whose headnode exits without reporting that they have finished are failed</li>
+ * </ul>
+ * Pilots are started with the pilot submit script, run from the pilot directory with
+ * {@code PW_PILOT_DIR} and {@code PW_PILOT_IDLE_TIMEOUT} set. It must print the job ID of the pilot.
+ */
+@Singleton
+@Slf4j
+public class PilotPool implements StatsProvider {
+    private static final Pattern JOB_ID_REGEX = Pattern.compile("^(\\d+)(;\\S+)?$");
+
+    private final AgentConfig agentConfig;
+    private final ProcessSupervisor processSupervisor;
+    private final TaskScheduler taskScheduler;
+    private final ExecutionService executionService;
+    private final Map<String, Pilot> pilots = new TreeMap<>();
+    private final LongAdder dispatchedCount = new LongAdder();
+    private final LongAdder missedCount = new LongAdder();
+    private final LongAdder launchedCount = new LongAdder();
+    private final LongAdder releasedCount = new LongAdder();
+    private final LongAdder lostCount = new LongAdder();
+
+    public PilotPool(AgentConfig agentConfig,
+                     ProcessSupervisor processSupervisor,
+                     TaskScheduler taskScheduler,
+                     ExecutionService executionService) {
+        this.agentConfig = agentConfig;
+        this.processSupervisor = processSupervisor;
+        this.taskScheduler = taskScheduler;
+        this.executionService = executionService;
+    }
+
+    /**
+     * Pilot mode is enabled in the configuration and the pilot submit script exists
+     */
+    public boolean isEnabled() {
+        return agentConfig.getPilotMaxSize() > 0 && Files.exists(agentConfig.getPilotSubmitScript());
+    }
+
+    /**
+     * Start maintaining the pool
+     */
+    public void start() {
+        var interval = agentConfig.pilotPollInterval();
+        log.info("Keeping up to {} pilot headnodes, checking every {}", agentConfig.getPilotMaxSize(), interval);
+        taskScheduler.scheduleWithFixedDelay(Duration.ZERO, interval, this::maintainSafely);
+    }
+
+    /**
+     * Hand the execution to an idle pilot
+     *
+     * @return the start output of the execution, or empty if no pilot is idle
+     */
+    public synchronized Optional<ExecutionStartOutput> tryDispatch(Execution execution) {
+        var pilot = pilots.values().stream()
+                .filter(p -> p.getState() == PilotState.IDLE)
+                .min(Comparator.comparing(Pilot::getIdleSince))
+                .orElse(null);
+        if (pilot == null) {
+            missedCount.increment();
+            grow();
+            return Optional.empty();
+        }
+        // Written while holding the lock so the pilot is not seen as busy without an assignment
+        try {
+            FileUtils.writeAtomically(pilot.resolve(Pilot.ASSIGNMENT_FILE),
+                    execution.getEnvironmentPath().toString(),
+                    PosixFilePermissions.fromString("rw-r--r--"));
+        } catch (IOException e) {
+            log.error("Failed to hand execution {} to pilot {}: {}", execution.getDatasetId(), pilot.getId(), e.getMessage());
+            release(pilot, "handoff failed");
+            return Optional.empty();
+        }
+        pilot.setState(PilotState.BUSY);
+        pilot.setExecutionId(execution.getDatasetId());
+        pilot.setAssignedAt(Instant.now());
+        dispatchedCount.increment();
+        log.info("Execution {} handed to pilot {} (job {})", execution.getDatasetId(), pilot.getId(), pilot.getJobId());
+        var stdout = String.format("Running in pilot %s", pilot.getId());
+        return Optional.of(new ExecutionStartOutput(stdout, pilot.getJobId(), null, null));
+    }
+
+    private void maintainSafely() {
+        try {
+            maintain();
+        } catch (Exception e) {
+            log.error("Failed to maintain pilot pool: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Update the state of each pilot from its directory, release idle or unresponsive pilots,
+     * and fail the executions that were held by lost pilots or whose headnode exited without finishing them
+     */
+    void maintain() {
+        var lostExecutions = new TreeMap<String, String>();
+        var exitedExecutions = new TreeMap<String, String>();
+        updatePilots(lostExecutions, exitedExecutions);
+        for (var entry : exitedExecutions.entrySet()) {
+            try {
+                if (executionService.failIfUnfinished(entry.getKey(), entry.getValue())) {
+                    log.warn("Failed execution {}: {}", entry.getKey(), entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to check execution {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        for (var entry : lostExecutions.entrySet()) {
+            log.warn("Failing execution {}: {}", entry.getKey(), entry.getValue());
+            var request = UpdateStatusRequest.builder()
+                    .status(Status.FAILED)
+                    .message(entry.getValue())
+                    .build();
+            try {
+                executionService.updateStatus(entry.getKey(), request);
+            } catch (RuntimeException e) {
+                log.error("Failed to fail execution {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param lostExecutions filled with the IDs of the executions held by lost pilots, with the reason they were lost
+     * @param exitedExecutions filled with the IDs of the executions whose headnode has exited, with its exit code
+     */
+    private synchronized void updatePilots(Map<String, String> lostExecutions, Map<String, String> exitedExecutions) {
+        var now = Instant.now();
+        for (var pilot : List.copyOf(pilots.values())) {
+            switch (pilot.getState()) {
+                case SUBMITTING -> {
+                    // Waiting for the submit script
+                }
+                case QUEUED -> {
+                    if (Files.exists(pilot.resolve(Pilot.READY_FILE))) {
+                        log.info("Pilot {} (job {}) is ready", pilot.getId(), pilot.getJobId());
+                        markIdle(pilot, now);
+                    } else if (pilot.getSubmittedAt().plus(agentConfig.pilotIdleTimeout()).isBefore(now)) {
+                        // Make room for another pilot in case this one is stuck in the queue
+                        release(pilot, "not started in time");
+                    }
+                }
+                case IDLE, BUSY -> {
+                    if (isUnresponsive(pilot, now)) {
+                        releaseLost(pilot, "no heartbeat", lostExecutions);
+                    } else if (pilot.getState() == PilotState.BUSY && isNotPickedUp(pilot, now)) {
+                        releaseLost(pilot, "execution not picked up", lostExecutions);
+                    } else if (pilot.getState() == PilotState.BUSY && !hasAssignment(pilot)) {
+                        log.debug("Pilot {} finished execution {}", pilot.getId(), pilot.getExecutionId());
+                        exitedExecutions.put(pilot.getExecutionId(), String.format("Headnode exited in pilot %s (job %s) with exit code %s",
+                                pilot.getId(), pilot.getJobId(), readExitCode(pilot)));
+                        markIdle(pilot, now);
+                    } else if (pilot.getState() == PilotState.IDLE
+                            && pilot.getIdleSince().plus(agentConfig.pilotIdleTimeout()).isBefore(now)
+                            && pilots.size() > agentConfig.getPilotMinSize()) {
+                        release(pilot, "idle timeout");
+                    }
+                }
+            }
+        }
+        while (pilots.size() < Math.min(agentConfig.getPilotMinSize(), agentConfig.getPilotMaxSize())) {
+            launch();
+        }
+    }
+
+    synchronized Optional<Pilot> getPilot(String id) {
+        return Optional.ofNullable(pilots.get(id));
+    }
+
+    private boolean hasAssignment(Pilot pilot) {
+        return Files.exists(pilot.resolve(Pilot.ASSIGNMENT_FILE)) || Files.exists(pilot.resolve(Pilot.RUNNING_FILE));
+    }
+
+    /**
+     * Whether the pilot has not picked up its execution in time, in which case the assignment is withdrawn
+     */
+    private boolean isNotPickedUp(Pilot pilot, Instant now) {
+        var assignedAt = pilot.getAssignedAt();
+        if (assignedAt == null) {
+            return false;
+        }
+        if (Files.exists(pilot.resolve(Pilot.RUNNING_FILE))) {
+            pilot.setAssignedAt(null);
+            return false;
+        }
+        if (assignedAt.plus(agentConfig.pilotAckTimeout()).isAfter(now)) {
+            return false;
+        }
+        try {
+            // Only one of the agent and the pilot gets the assignment file
+            return Files.deleteIfExists(pilot.resolve(Pilot.ASSIGNMENT_FILE));
+        } catch (IOException e) {
+            log.warn("Failed to withdraw assignment of pilot {}: {}", pilot.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Exit code of the last headnode run by the pilot, removing it so that it is not read for the next one
+     */
+    private String readExitCode(Pilot pilot) {
+        var file = pilot.resolve(Pilot.EXIT_CODE_FILE);
+        try {
+            var exitCode = Files.readString(file).strip();
+            Files.deleteIfExists(file);
+            return exitCode;
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private boolean isUnresponsive(Pilot pilot, Instant now) {
+        try {
+            var heartbeat = Files.getLastModifiedTime(pilot.resolve(Pilot.HEARTBEAT_FILE)).toInstant();
+            return heartbeat.plus(agentConfig.pilotHeartbeatTimeout()).isBefore(now);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void markIdle(Pilot pilot, Instant now) {
+        pilot.setState(PilotState.IDLE);
+        pilot.setExecutionId(null);
+        pilot.setIdleSince(now);
+    }
+
+    /**
+     * Request another pilot if none is on its way and the pool is not full
+     */
+    private void grow() {
+        var starting = pilots.values().stream()
+                .anyMatch(p -> p.getState() == PilotState.SUBMITTING || p.getState() == PilotState.QUEUED);
+        if (!starting && pilots.size() < agentConfig.getPilotMaxSize()) {
+            launch();
+        }
+    }
+
+    private void launch() {
+        var id = UUID.randomUUID().toString().substring(0, 8);
+        var pilot = new Pilot(id, agentConfig.getAbsoluteWorkDirectory().resolve("pilots").resolve(id));
+        pilots.put(id, pilot);
+        launchedCount.increment();
+        Thread.ofVirtual().name("pilot-submit-" + id).start(() -> submit(pilot));
+    }
+
+    private void submit(Pilot pilot) {
+        try {
+            Files.createDirectories(pilot.getDirectory());
+            var processBuilder = new ProcessBuilder()
+                    .directory(pilot.getDirectory().toFile())
+                    .command(agentConfig.getPilotSubmitScript().toAbsolutePath().toString())
+                    .redirectErrorStream(true);
+            var env = processBuilder.environment();
+            env.put("PW_PILOT_DIR", pilot.getDirectory().toString());
+            env.put("PW_SHARED_DIR", agentConfig.getAbsoluteSharedDirectory().toString());
+            // The pilot also exits on its own in case the agent goes away
+            env.put("PW_PILOT_IDLE_TIMEOUT", String.valueOf(agentConfig.pilotIdleTimeout().multipliedBy(2).toSeconds()));
+            // Pilots are not tied to an analysis, so its headnode settings come from the agent
+            putIfNotBlank(env, "HEADNODE_ACCOUNTING", agentConfig.getPilotAccounting());
+            putIfNotBlank(env, "HEADNODE_JOB_QUEUE", agentConfig.getPilotJobQueue());
+
+            var process = processSupervisor.start("pilot submit " + pilot.getId(), processBuilder, agentConfig.submitScriptTimeout());
+            var capture = new ProcessOutputCapture(pilot.resolve("submit.log"), JOB_ID_REGEX)
+                    .start(process.getProcess().getInputStream());
+            var exitCode = process.awaitExit();
+            capture.getCompletion().completeOnTimeout(null, 5, TimeUnit.SECONDS).join();
+            var jobId = capture.getLatestJobId();
+            if (exitCode != 0 || jobId == null) {
+                throw new ExecutionException("Pilot submission failed: " + capture.getTail());
+            }
+            synchronized (this) {
+                pilot.setJobId(jobId);
+                pilot.setState(PilotState.QUEUED);
+            }
+            log.info("Submitted pilot {} as job {}", pilot.getId(), jobId);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to submit pilot {}: {}", pilot.getId(), e.getMessage());
+            removePilot(pilot);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            removePilot(pilot);
+        }
+    }
+
+    private static void putIfNotBlank(Map<String, String> env, String name, String value) {
+        if (value == null || value.isBlank()) {
+            env.remove(name);
+        } else {
+            env.put(name, value);
+        }
+    }
+
+    private synchronized void removePilot(Pilot pilot) {
+        pilots.remove(pilot.getId());
+    }
+
+    private void releaseLost(Pilot pilot, String reason, Map<String, String> lostExecutions) {
+        lostCount.increment();
+        if (pilot.getState() == PilotState.BUSY && pilot.getExecutionId() != null) {
+            try {
+                // Do not let the pilot run an execution that is about to be failed
+                Files.deleteIfExists(pilot.resolve(Pilot.ASSIGNMENT_FILE));
+            } catch (IOException e) {
+                log.warn("Failed to withdraw assignment of pilot {}: {}", pilot.getId(), e.getMessage());
+            }
+            lostExecutions.put(pilot.getExecutionId(), String.format("Pilot %s (job %s) lost: %s",
+                    pilot.getId(), pilot.getJobId(), reason));
+        }
+        release(pilot, reason);
+    }
+
+    private synchronized void release(Pilot pilot, String reason) {
+        log.info("Releasing pilot {} (job {}): {}", pilot.getId(), pilot.getJobId(), reason);
+        pilots.remove(pilot.getId());
+        releasedCount.increment();
+        try {
+            Files.createDirectories(pilot.getDirectory());
+            Files.writeString(pilot.resolve(Pilot.SHUTDOWN_FILE), reason);
+        } catch (IOException e) {
+            log.warn("Failed to signal pilot {} to shut down: {}", pilot.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Release all pilots, busy pilots exit once the execution assigned to them has finished
+     */
+    @PreDestroy
+    public synchronized void close() {
+        for (var pilot : new ArrayList<>(pilots.values())) {
+            release(pilot, "agent shutting down");
+        }
+    }
+
+    @Override
+    public String getStatsName() {
+        return "pilots";
+    }
+
+    @Override
+    public synchronized PilotStats getStats() {
+        var now = Instant.now();
+        var current = pilots.values().stream()
+                .map(p -> new PilotInfo(
+                        p.getId(),
+                        p.getJobId(),
+                        p.getState().name(),
+                        p.getExecutionId(),
+                        Duration.between(p.getSubmittedAt(), now).toSeconds()
+                ))
+                .toList();
+        return new PilotStats(
+                isEnabled(),
+                current,
+                dispatchedCount.sum(),
+                missedCount.sum(),
+                launchedCount.sum(),
+                releasedCount.sum(),
+                lostCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record PilotInfo(
+            String id,
+            String jobId,
+            String state,
+            String executionId,
+            long ageSeconds
+    ) {
+    }
+
+    @Serdeable
+    public record PilotStats(
+            boolean enabled,
+            List<PilotInfo> pilots,
+            long dispatched,
+            long missed,
+            long launched,
+            long released,
+            long lost
+    ) {
+    }
+}
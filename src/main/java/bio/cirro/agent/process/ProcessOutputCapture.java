@@ -0,0 +1,151 @@
+package bio.cirro.agent.process;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the output of a process line by line as it is produced.
+ * <p>
+ * The full output is written to a spill file, only the last lines are kept in memory.
+ * The job ID is taken from the last line matching the job ID pattern, as scripts may print other
+ * matching lines before the output of the scheduler. {@link #getJobId()} is completed once the output
+ * has been read to the end, and {@link #getJobIdReported()} as soon as a matching line is read,
+ * so that callers can give up waiting on a script that keeps running after reporting the job ID.
+ */
+@Slf4j
+public class ProcessOutputCapture {
+    private static final int MAX_TAIL_LINES = 200;
+    private static final int MAX_TAIL_CHARS = 4000;
+
+    @Getter
+    private final Path outputFile;
+    private final Pattern jobIdPattern;
+    private final Deque<String> tail = new ArrayDeque<>();
+    @Getter
+    private final CompletableFuture<String> jobId = new CompletableFuture<>();
+    @Getter
+    private final CompletableFuture<Void> jobIdReported = new CompletableFuture<>();
+    private String latestJobId;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private int tailChars;
+    private long lineCount;
+    private long charCount;
+
+    /**
+     * @param outputFile   file the full output is written to, or null to only keep the tail
+     * @param jobIdPattern pattern of a line containing the job ID, or null if not expected
+     */
+    public ProcessOutputCapture(Path outputFile, Pattern jobIdPattern) {
+        this.outputFile = outputFile;
+        this.jobIdPattern = jobIdPattern;
+    }
+
+    /**
+     * Start reading the output on a separate thread
+     */
+    public ProcessOutputCapture start(InputStream inputStream) {
+        Thread.ofVirtual().name("process-output").start(() -> consume(inputStream));
+        return this;
+    }
+
+    /**
+     * Future completed once the output has been read to the end
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    private void consume(InputStream inputStream) {
+        try (var reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+             var writer = openOutputFile()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                append(line);
+                if (writer != null) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Stopped reading process output: {}", e.getMessage());
+        } finally {
+            jobId.complete(getLatestJobId());
+            completion.complete(null);
+        }
+    }
+
+    private BufferedWriter openOutputFile() throws IOException {
+        if (outputFile == null) {
+            return null;
+        }
+        return Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void append(String line) {
+        lineCount++;
+        charCount += line.length() + 1;
+        if (jobIdPattern != null) {
+            var matcher = jobIdPattern.matcher(line.trim());
+            if (matcher.matches()) {
+                latestJobId = matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+                jobIdReported.complete(null);
+            }
+        }
+        tail.addLast(line);
+        tailChars += line.length() + 1;
+        while (tail.size() > MAX_TAIL_LINES || (tailChars > MAX_TAIL_CHARS && tail.size() > 1)) {
+            tailChars -= tail.removeFirst().length() + 1;
+        }
+    }
+
+    /**
+     * Last lines of the output
+     */
+    public synchronized String getTail() {
+        var sb = new StringBuilder();
+        if (isTruncated()) {
+            sb.append(String.format("[... %d earlier lines in %s]%n", lineCount - tail.size(), outputFile));
+        }
+        for (var line : tail) {
+            sb.append(line).append("\n");
+        }
+        var tailString = sb.toString();
+        // A single line longer than the limit is cut
+        if (tailString.length() > MAX_TAIL_CHARS) {
+            return tailString.substring(tailString.length() - MAX_TAIL_CHARS);
+        }
+        return tailString;
+    }
+
+    /**
+     * Job ID from the last matching line read so far, or null if none has been read
+     */
+    public synchronized String getLatestJobId() {
+        return latestJobId;
+    }
+
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    public synchronized long getCharCount() {
+        return charCount;
+    }
+
+    public synchronized boolean isTruncated() {
+        return lineCount > tail.size();
+    }
+}
@@ -0,0 +1,170 @@
+package bio.cirro.agent.process;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the scripts called by the agent (submit, stop, etc.) and makes sure they cannot exhaust the agent.
+ * <ul>
+ *     <li>The number of scripts running at once is capped</li>
+ *     <li>Scripts running past their timeout are sent TERM, then KILL after a grace period,
+ *     along with all the processes they started</li>
+ *     <li>Scripts in flight and their ages are reported in the stats</li>
+ * </ul>
+ */
+@Singleton
+@Slf4j
+public class ProcessSupervisor implements StatsProvider {
+    private final Semaphore permits;
+    private final Duration killGrace;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<Long, SupervisedProcess> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongAdder startedCount = new LongAdder();
+    private final LongAdder timedOutCount = new LongAdder();
+    private final LongAdder killedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public ProcessSupervisor(AgentConfig agentConfig) {
+        this.permits = new Semaphore(Math.max(1, agentConfig.getMaxConcurrentScripts()), true);
+        this.killGrace = agentConfig.scriptKillGrace();
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("process-supervisor").daemon().factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Start a process, waiting for a free slot if too many are already running.
+     *
+     * @param name    name of the script, used in logs and stats
+     * @param builder process to start
+     * @param timeout time after which the process (and its children) are terminated
+     */
+    public SupervisedProcess start(String name, ProcessBuilder builder, Duration timeout) throws IOException, InterruptedException {
+        if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            rejectedCount.increment();
+            throw new ExecutionException(String.format("Too many scripts running, could not start %s", name));
+        }
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        startedCount.increment();
+        var id = nextId.incrementAndGet();
+        var supervised = new SupervisedProcess(name, process, timeout);
+        inFlight.put(id, supervised);
+        log.debug("Started {} (pid {})", name, process.pid());
+
+        var timeoutTask = timer.schedule(() -> onTimeout(supervised), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        process.onExit().whenComplete((p, ex) -> {
+            timeoutTask.cancel(false);
+            inFlight.remove(id);
+            permits.release();
+            log.debug("{} (pid {}) exited after {}", name, process.pid(), supervised.getAge());
+        });
+        return supervised;
+    }
+
+    private void onTimeout(SupervisedProcess supervised) {
+        var process = supervised.getProcess();
+        if (!process.isAlive()) {
+            return;
+        }
+        timedOutCount.increment();
+        supervised.markTimedOut();
+        log.warn("{} (pid {}) did not finish within {}, terminating", supervised.getName(), process.pid(), supervised.getTimeout());
+        // Capture the children now, they are re-parented once the script exits
+        var descendants = process.descendants().toList();
+        descendants.forEach(ProcessHandle::destroy);
+        process.destroy();
+        timer.schedule(() -> kill(supervised, descendants), killGrace.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void kill(SupervisedProcess supervised, List<ProcessHandle> descendants) {
+        var process = supervised.getProcess();
+        var aliveDescendants = descendants.stream().filter(ProcessHandle::isAlive).toList();
+        if (!process.isAlive() && aliveDescendants.isEmpty()) {
+            return;
+        }
+        killedCount.increment();
+        log.warn("{} (pid {}) still running after TERM, killing", supervised.getName(), process.pid());
+        aliveDescendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public String getStatsName() {
+        return "processes";
+    }
+
+    @Override
+    public ProcessStats getStats() {
+        var now = Instant.now();
+        var running = inFlight.values().stream()
+                .sorted(Comparator.comparing(SupervisedProcess::getStartedAt))
+                .map(p -> new RunningProcess(
+                        p.getName(),
+                        p.getProcess().pid(),
+                        p.getStartedAt(),
+                        Duration.between(p.getStartedAt(), now).toSeconds(),
+                        p.isTimedOut()
+                ))
+                .toList();
+        return new ProcessStats(
+                running,
+                permits.availablePermits(),
+                permits.getQueueLength(),
+                startedCount.sum(),
+                timedOutCount.sum(),
+                killedCount.sum(),
+                rejectedCount.sum()
+        );
+    }
+
+    @Serdeable
+    public record ProcessStats(
+            List<RunningProcess> running,
+            int availableSlots,
+            int waiting,
+            long started,
+            long timedOut,
+            long killed,
+            long rejected
+    ) {
+    }
+
+    @Serdeable
+    public record RunningProcess(
+            String name,
+            long pid,
+            Instant startedAt,
+            long ageSeconds,
+            boolean timedOut
+    ) {
+    }
+}
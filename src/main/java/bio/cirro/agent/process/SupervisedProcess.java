@@ -0,0 +1,56 @@
+package bio.cirro.agent.process;
+
+import bio.cirro.agent.exception.ExecutionException;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A process started by the {@link ProcessSupervisor}
+ */
+@Getter
+public class SupervisedProcess {
+    private final String name;
+    private final Process process;
+    private final Duration timeout;
+    private final Instant startedAt;
+    private volatile boolean timedOut;
+
+    SupervisedProcess(String name, Process process, Duration timeout) {
+        this.name = name;
+        this.process = process;
+        this.timeout = timeout;
+        this.startedAt = Instant.now();
+    }
+
+    void markTimedOut() {
+        this.timedOut = true;
+    }
+
+    public Duration getAge() {
+        return Duration.between(startedAt, Instant.now());
+    }
+
+    /**
+     * Completes once the process has exited, which the supervisor guarantees even if it hangs
+     */
+    public CompletableFuture<Process> onExit() {
+        return process.onExit();
+    }
+
+    /**
+     * Wait for the process to exit
+     *
+     * @return the exit code of the process
+     * @throws ExecutionException if the process was terminated because it timed out
+     */
+    public int awaitExit() {
+        var exitCode = onExit().join().exitValue();
+        if (timedOut) {
+            throw new ExecutionException(String.format("%s timed out after %s", name, timeout));
+        }
+        return exitCode;
+    }
+}
@@ -0,0 +1,15 @@
+package bio.cirro.agent.scheduler;
+
+/**
+ * State of a job as reported by the scheduler
+ */
+public enum JobState {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED;
+
+    public boolean isActive() {
+        return this == PENDING || this == RUNNING;
+    }
+}
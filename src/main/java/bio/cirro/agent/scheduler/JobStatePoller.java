@@ -0,0 +1,177 @@
+package bio.cirro.agent.scheduler;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.execution.Execution;
+import bio.cirro.agent.execution.ExecutionRepository;
+import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.execution.ExecutionStartOutput;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import bio.cirro.agent.stats.LatencyRecorder;
+import bio.cirro.agent.stats.StatsProvider;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.TaskScheduler;
+import io.micronaut.serde.annotation.Serdeable;
+import jakarta.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically checks the scheduler for the jobs of active executions,
+ * and fails executions whose job has ended or disappeared without the headnode reporting back.
+ * <p>
+ * All jobs are queried at once on each poll. The interval between polls grows with the number of active jobs,
+ * adding the minimum interval for every 100 jobs, up to the maximum interval.
+ */
+@Singleton
+@Slf4j
+@Requires(beans = SchedulerAdapter.class)
+public class JobStatePoller implements StatsProvider {
+    private static final int JOBS_PER_INTERVAL_STEP = 100;
+    // A job that just ended may not have reported its status yet
+    private static final int POLLS_BEFORE_LOST = 2;
+
+    private final SchedulerAdapter schedulerAdapter;
+    private final ExecutionRepository executionRepository;
+    private final ExecutionService executionService;
+    private final TaskScheduler taskScheduler;
+    private final AgentConfig agentConfig;
+    private final Map<String, Integer> endedPolls = new ConcurrentHashMap<>();
+    private final LatencyRecorder pollLatency = new LatencyRecorder();
+    private final LongAdder lostCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private volatile int activeJobs;
+    private volatile Duration interval;
+
+    public JobStatePoller(SchedulerAdapter schedulerAdapter,
+                          ExecutionRepository executionRepository,
+                          ExecutionService executionService,
+                          TaskScheduler taskScheduler,
+                          AgentConfig agentConfig) {
+        this.schedulerAdapter = schedulerAdapter;
+        this.executionRepository = executionRepository;
+        this.executionService = executionService;
+        this.taskScheduler = taskScheduler;
+        this.agentConfig = agentConfig;
+        this.interval = agentConfig.schedulerPollMinInterval();
+    }
+
+    /**
+     * Start polling the scheduler
+     */
+    public void start() {
+        log.info("Polling scheduler for job states every {} or more", interval);
+        taskScheduler.schedule(interval, this::pollAndReschedule);
+    }
+
+    private void pollAndReschedule() {
+        try {
+            poll();
+        } catch (Exception e) {
+            errorCount.increment();
+            log.error("Failed to poll scheduler: {}", e.getMessage());
+        } finally {
+            interval = nextInterval(activeJobs);
+            taskScheduler.schedule(interval, this::pollAndReschedule);
+        }
+    }
+
+    /**
+     * Check the state of all active executions with a single scheduler query
+     */
+    void poll() {
+        var executions = executionRepository.getActive().stream()
+                .filter(execution -> getJobId(execution) != null)
+                .collect(Collectors.toMap(JobStatePoller::getJobId, Function.identity(), (a, b) -> a));
+        activeJobs = executions.size();
+        endedPolls.keySet().retainAll(executions.keySet());
+        if (executions.isEmpty()) {
+            return;
+        }
+
+        var startedAt = System.nanoTime();
+        Map<String, JobState> states;
+        try {
+            states = schedulerAdapter.getJobStates(executions.keySet());
+        } finally {
+            pollLatency.recordNanos(System.nanoTime() - startedAt);
+        }
+
+        for (var entry : executions.entrySet()) {
+            var jobId = entry.getKey();
+            var state = states.get(jobId);
+            if (state != null && state.isActive()) {
+                endedPolls.remove(jobId);
+                continue;
+            }
+            var polls = endedPolls.merge(jobId, 1, Integer::sum);
+            if (polls >= POLLS_BEFORE_LOST) {
+                endedPolls.remove(jobId);
+                markLost(entry.getValue(), jobId, state);
+            }
+        }
+    }
+
+    private void markLost(Execution execution, String jobId, JobState state) {
+        var message = state == null
+                ? String.format("Job %s is no longer known to the scheduler", jobId)
+                : String.format("Job %s ended (%s) without reporting its status", jobId, state);
+        log.warn("Execution {}: {}", execution.getDatasetId(), message);
+        lostCount.increment();
+        var request = UpdateStatusRequest.builder()
+                .status(Status.FAILED)
+                .message(message)
+                .build();
+        try {
+            executionService.updateStatus(execution.getExecutionId(), request);
+        } catch (IllegalArgumentException e) {
+            log.debug("Execution {} was removed", execution.getExecutionId());
+        }
+    }
+
+    Duration nextInterval(int jobs) {
+        var min = agentConfig.schedulerPollMinInterval();
+        var max = agentConfig.schedulerPollMaxInterval();
+        var scaled = min.multipliedBy(1L + jobs / JOBS_PER_INTERVAL_STEP);
+        return scaled.compareTo(max) > 0 ? max : scaled;
+    }
+
+    private static String getJobId(Execution execution) {
+        return Optional.ofNullable(execution.getStartOutput())
+                .map(ExecutionStartOutput::localJobId)
+                .orElse(null);
+    }
+
+    @Override
+    public String getStatsName() {
+        return "scheduler";
+    }
+
+    @Override
+    public PollerStats getStats() {
+        return new PollerStats(
+                activeJobs,
+                interval.toSeconds(),
+                lostCount.sum(),
+                errorCount.sum(),
+                pollLatency.snapshot()
+        );
+    }
+
+    @Serdeable
+    public record PollerStats(
+            int activeJobs,
+            long intervalSeconds,
+            long lost,
+            long errors,
+            LatencyRecorder.Snapshot pollLatency
+    ) {
+    }
+}
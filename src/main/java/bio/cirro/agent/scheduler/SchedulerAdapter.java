@@ -0,0 +1,18 @@
+package bio.cirro.agent.scheduler;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Queries the compute environment's scheduler for the state of the jobs submitted by the agent.
+ */
+public interface SchedulerAdapter {
+    /**
+     * Get the state of the given jobs in as few scheduler calls as possible.
+     *
+     * @param jobIds IDs of the jobs as returned by the submit script
+     * @return state of each job known to the scheduler, jobs the scheduler no longer knows about are omitted
+     * @throws bio.cirro.agent.exception.SchedulerException if the scheduler could not be queried
+     */
+    Map<String, JobState> getJobStates(Collection<String> jobIds);
+}
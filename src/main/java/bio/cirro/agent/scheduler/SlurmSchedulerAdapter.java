@@ -0,0 +1,148 @@
+package bio.cirro.agent.scheduler;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.exception.SchedulerException;
+import bio.cirro.agent.process.ProcessSupervisor;
+import io.micronaut.context.annotation.Requires;
+import jakarta.inject.Singleton;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gets job states from Slurm with one {@code squeue} call for all jobs,
+ * followed by one {@code sacct} call for the jobs that have left the queue.
+ */
+@Singleton
+@Slf4j
+@AllArgsConstructor
+@Requires(property = "cirro.agent.scheduler-type", value = "slurm")
+public class SlurmSchedulerAdapter implements SchedulerAdapter {
+    private static final Set<String> PENDING_STATES = Set.of(
+            "PENDING", "CONFIGURING", "REQUEUED", "REQUEUE_HOLD", "REQUEUE_FED", "RESIZING", "SUSPENDED", "STOPPED"
+    );
+    private static final Set<String> RUNNING_STATES = Set.of(
+            "RUNNING", "COMPLETING", "SIGNALING", "STAGE_OUT"
+    );
+
+    private final AgentConfig agentConfig;
+    private final ProcessSupervisor processSupervisor;
+
+    @Override
+    public Map<String, JobState> getJobStates(Collection<String> jobIds) {
+        var states = new HashMap<String, JobState>();
+        if (jobIds.isEmpty()) {
+            return states;
+        }
+        var jobList = String.join(",", jobIds);
+        var queued = run(List.of(
+                agentConfig.getSqueueCommand(),
+                "--noheader",
+                "--array",
+                "--states=all",
+                "--format=%i|%T",
+                "--jobs=" + jobList
+        ), true);
+        parseStates(queued, states);
+
+        var finishedJobIds = jobIds.stream()
+                .filter(jobId -> !states.containsKey(jobId))
+                .toList();
+        if (!finishedJobIds.isEmpty()) {
+            var accounted = run(List.of(
+                    agentConfig.getSacctCommand(),
+                    "--noheader",
+                    "--parsable2",
+                    "--allocations",
+                    "--format=JobID,State",
+                    "--jobs=" + String.join(",", finishedJobIds)
+            ), false);
+            parseStates(accounted, states);
+        }
+        log.debug("Found {} of {} jobs on Slurm", states.size(), jobIds.size());
+        return states;
+    }
+
+    /**
+     * Parse lines in the format {@code <jobId>|<state>}
+     */
+    static void parseStates(List<String> lines, Map<String, JobState> states) {
+        for (var line : lines) {
+            var parts = line.trim().split("\\|");
+            if (parts.length < 2 || parts[0].isBlank()) {
+                continue;
+            }
+            var state = toJobState(parts[1]);
+            if (state != null) {
+                states.put(parts[0], state);
+            }
+        }
+    }
+
+    /**
+     * Map a Slurm job state (e.g. {@code CANCELLED by 1234}) to a job state
+     */
+    static JobState toJobState(String slurmState) {
+        var state = slurmState.trim().split("\\s+")[0].replace("+", "");
+        if (state.isEmpty()) {
+            return null;
+        }
+        if (PENDING_STATES.contains(state)) {
+            return JobState.PENDING;
+        }
+        if (RUNNING_STATES.contains(state)) {
+            return JobState.RUNNING;
+        }
+        if (state.equals("COMPLETED")) {
+            return JobState.COMPLETED;
+        }
+        return JobState.FAILED;
+    }
+
+    /**
+     * Run a Slurm command and return its output lines
+     *
+     * @param allowInvalidJobs squeue exits with an error when none of the jobs are in the queue
+     */
+    private List<String> run(List<String> command, boolean allowInvalidJobs) {
+        try {
+            var process = processSupervisor.start(command.getFirst(),
+                    new ProcessBuilder(command).redirectErrorStream(true),
+                    agentConfig.schedulerCommandTimeout());
+            var lines = new ArrayList<String>();
+            try (var reader = new BufferedReader(new InputStreamReader(process.getProcess().getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            var exitCode = process.awaitExit();
+            if (exitCode != 0) {
+                var output = String.join("\n", lines);
+                if (allowInvalidJobs && output.contains("Invalid job id")) {
+                    return List.of();
+                }
+                throw new SchedulerException(String.format("%s failed: %s", command.getFirst(), output));
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new SchedulerException(String.format("Failed to run %s", command.getFirst()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchedulerException("Thread interrupted", e);
+        } catch (ExecutionException e) {
+            throw new SchedulerException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package bio.cirro.agent.stats;
+
+import io.micronaut.serde.annotation.Serdeable;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations of an operation and provides summary statistics.
+ * Safe to use from multiple threads.
+ */
+public class LatencyRecorder {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+    private volatile long lastNanos;
+
+    public void record(Duration duration) {
+        recordNanos(duration.toNanos());
+    }
+
+    public void recordNanos(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        lastNanos = nanos;
+    }
+
+    public Snapshot snapshot() {
+        var currentCount = count.sum();
+        var average = currentCount == 0 ? 0 : totalNanos.sum() / (double) currentCount;
+        return new Snapshot(
+                currentCount,
+                average / NANOS_PER_MILLI,
+                maxNanos.get() / NANOS_PER_MILLI,
+                lastNanos / NANOS_PER_MILLI
+        );
+    }
+
+    @Serdeable
+    public record Snapshot(long count, double avgMillis, double maxMillis, double lastMillis) {
+    }
+}
@@ -0,0 +1,28 @@
+package bio.cirro.agent.stats;
+
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exposes the runtime statistics of the agent components.
+ */
+@Controller("/stats")
+@AllArgsConstructor
+public class StatsController {
+    private final List<StatsProvider> statsProviders;
+
+    @Get
+    public HttpResponse<Map<String, Object>> stats() {
+        var stats = new TreeMap<String, Object>();
+        for (var provider : statsProviders) {
+            stats.put(provider.getStatsName(), provider.getStats());
+        }
+        return HttpResponse.ok(stats);
+    }
+}
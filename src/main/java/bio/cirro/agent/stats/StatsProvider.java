@@ -0,0 +1,16 @@
+package bio.cirro.agent.stats;
+
+/**
+ * Implemented by components that report runtime statistics on the {@link StatsController}.
+ */
+public interface StatsProvider {
+    /**
+     * Name used as the key for these statistics
+     */
+    String getStatsName();
+
+    /**
+     * Current snapshot of the statistics, must be serializable
+     */
+    Object getStats();
+}
@@ -5,10 +5,18 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.UUID;
 
 @Slf4j
 public class FileUtils {
@@ -17,20 +25,36 @@ public class FileUtils {
     }
 
     /**
-     * Writes a script to a file and sets the file permissions to be executable.
-     * @param scriptPath Path to write the script to
-     * @param script Script content
+     * Writes a file atomically by writing to a temporary file next to it and renaming it into place.
+     * The permissions are set when the temporary file is created, so no further calls are needed.
+     * @param path Path to write the file to
+     * @param content File content
+     * @param permissions Permissions of the file, ignored on non-POSIX file systems
      * @throws IOException if an I/O error occurs
      */
-    public static void writeScript(Path scriptPath, String script) throws IOException {
-        Files.writeString(scriptPath, script);
+    public static void writeAtomically(Path path, String content, Set<PosixFilePermission> permissions) throws IOException {
+        var tempPath = path.resolveSibling(String.format(".%s.%s.tmp", path.getFileName(), UUID.randomUUID()));
         try {
-            var permissions = Files.getPosixFilePermissions(scriptPath);
-            permissions.add(PosixFilePermission.OWNER_EXECUTE);
-            permissions.add(PosixFilePermission.GROUP_EXECUTE);
-            Files.setPosixFilePermissions(scriptPath, permissions);
+            try (var channel = createChannel(tempPath, permissions)) {
+                var buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+    }
+
+    private static SeekableByteChannel createChannel(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        var options = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            return Files.newByteChannel(path, options, PosixFilePermissions.asFileAttribute(permissions));
         } catch (UnsupportedOperationException e) {
-            log.debug("Cannot set script permissions on non-POSIX file system: {}", scriptPath);
+            log.debug("Cannot set file permissions on non-POSIX file system: {}", path);
+            return Files.newByteChannel(path, options);
         }
     }
 
@@ -0,0 +1,70 @@
+package bio.cirro.agent.utils;
+
+import java.time.Duration;
+
+/**
+ * Token bucket rate limiter, allowing bursts of up to {@code capacity}
+ * and refilling at a steady rate after that.
+ * A rate of zero or less disables the limit.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity   maximum number of tokens that can be taken at once
+     * @param ratePerSec tokens added per second
+     */
+    public TokenBucket(int capacity, double ratePerSec) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = ratePerSec / Duration.ofSeconds(1).toNanos();
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public boolean isLimited() {
+        return tokensPerNano > 0;
+    }
+
+    /**
+     * Take a token if one is available
+     */
+    public synchronized boolean tryAcquire() {
+        if (!isLimited()) {
+            return true;
+        }
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Time until the next token is available
+     */
+    public synchronized Duration timeUntilAvailable() {
+        if (!isLimited()) {
+            return Duration.ZERO;
+        }
+        refill();
+        if (tokens >= 1) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos((long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    public synchronized double getAvailableTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        var now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
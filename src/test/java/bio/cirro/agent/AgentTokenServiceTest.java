@@ -16,6 +16,7 @@ class AgentTokenServiceTest {
         agentConfig.setJwtSecret("secret".getBytes());
         agentConfig.setId(MOCK_AGENT_ID);
         agentConfig.setJwtExpiryDays(1);
+        agentConfig.setJwtCacheSize(10);
         agentTokenService = new AgentTokenService(agentConfig);
     }
 
@@ -45,4 +46,36 @@ class AgentTokenServiceTest {
         Assertions.assertThrows(SecurityException.class,
                 () -> agentTokenService.validate("bad-token", "1"));
     }
+
+    @Test
+    void testVerifyCachedToken() {
+        var mockExecutionId = UUID.randomUUID().toString();
+        var token = agentTokenService.generateForExecution(mockExecutionId);
+        Assertions.assertDoesNotThrow(() -> agentTokenService.validate("Bearer " + token, mockExecutionId));
+        Assertions.assertDoesNotThrow(() -> agentTokenService.validate("Bearer " + token, mockExecutionId));
+        // A verified token still only gives access to its own execution
+        Assertions.assertThrows(SecurityException.class,
+                () -> agentTokenService.validate("Bearer " + token, UUID.randomUUID().toString()));
+    }
+
+    @Test
+    void testVerifyMoreTokensThanCacheSize() {
+        for (int i = 0; i < 25; i++) {
+            var executionId = String.valueOf(i);
+            var token = agentTokenService.generateForExecution(executionId);
+            Assertions.assertDoesNotThrow(() -> agentTokenService.validate(token, executionId));
+            Assertions.assertDoesNotThrow(() -> agentTokenService.validate(token, executionId));
+        }
+    }
+
+    @Test
+    void testVerifyTamperedToken() {
+        var token = agentTokenService.generateForExecution("1");
+        agentTokenService.validate(token, "1");
+        var parts = token.split("\\.");
+        var otherPayload = agentTokenService.generateForExecution("2").split("\\.")[1];
+        var tampered = parts[0] + "." + otherPayload + "." + parts[2];
+        Assertions.assertThrows(SecurityException.class,
+                () -> agentTokenService.validate(tampered, "2"));
+    }
 }
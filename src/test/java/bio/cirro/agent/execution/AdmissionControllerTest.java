@@ -0,0 +1,143 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+class AdmissionControllerTest {
+    AgentConfig agentConfig;
+    AdmissionController admissionController;
+    List<String> admitted;
+
+    @BeforeEach
+    void setUp() {
+        agentConfig = new AgentConfig();
+        agentConfig.setSubmitConcurrency(1);
+        agentConfig.setSubmitQueueDepth(100);
+        agentConfig.setSubmitBurst(10);
+        admitted = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        admissionController.close();
+    }
+
+    @Test
+    void testSubmit_unlimited() {
+        admissionController = new AdmissionController(agentConfig);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertTrue(submit("d" + i, "alice", "p1"));
+        }
+        Assertions.assertEquals(5, admitted.size());
+    }
+
+    @Test
+    void testSubmit_perUserLimitReleasedOnTerminalStatus() {
+        agentConfig.setMaxActiveExecutionsPerUser(1);
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("d1", "alice", "p1"));
+        Assertions.assertFalse(submit("d2", "alice", "p1"));
+        Assertions.assertTrue(submit("d3", "bob", "p1"));
+        Assertions.assertEquals(1, admissionController.getQueuedCount());
+
+        admissionController.onStatusChanged(new ExecutionStatusChangedEvent("d1", "p1", "alice", Status.RUNNING));
+        Assertions.assertEquals(List.of("d1", "d3"), admitted);
+
+        admissionController.onStatusChanged(new ExecutionStatusChangedEvent("d1", "p1", "alice", Status.COMPLETED));
+        Assertions.assertEquals(List.of("d1", "d3", "d2"), admitted);
+        Assertions.assertEquals(0, admissionController.getQueuedCount());
+    }
+
+    @Test
+    void testSubmit_perProjectLimitSkipsToOtherProject() {
+        agentConfig.setMaxActiveExecutionsPerProject(1);
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("d1", "alice", "p1"));
+        Assertions.assertFalse(submit("d2", "alice", "p1"));
+        Assertions.assertTrue(submit("d3", "alice", "p2"));
+        Assertions.assertEquals(List.of("d1", "d3"), admitted);
+    }
+
+    @Test
+    void testSubmit_weightedFairAcrossUsers() {
+        agentConfig.setMaxActiveExecutions(1);
+        agentConfig.setUserWeights(Map.of("bob", 2));
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("hold", "carol", "p1"));
+        for (int i = 0; i < 6; i++) {
+            submit("a" + i, "alice", "p1");
+        }
+        for (int i = 0; i < 6; i++) {
+            submit("b" + i, "bob", "p1");
+        }
+
+        // Release one slot at a time and record who gets it
+        var previous = "hold";
+        for (int i = 0; i < 6; i++) {
+            admissionController.release(previous);
+            previous = admitted.getLast();
+        }
+        var served = admitted.subList(1, admitted.size());
+        var bobCount = served.stream().filter(id -> id.startsWith("b")).count();
+        Assertions.assertEquals(4, bobCount, "Bob has twice the weight: " + served);
+    }
+
+    @Test
+    void testSubmit_rateLimited() {
+        agentConfig.setSubmitBurst(2);
+        agentConfig.setSubmitRatePerMinute(1);
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("d1", "alice", "p1"));
+        Assertions.assertTrue(submit("d2", "alice", "p1"));
+        Assertions.assertFalse(submit("d3", "alice", "p1"));
+        Assertions.assertEquals(1, admissionController.getStats().throttled());
+    }
+
+    @Test
+    void testSubmit_queueFull() {
+        agentConfig.setSubmitQueueDepth(1);
+        agentConfig.setMaxActiveExecutions(1);
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("d1", "alice", "p1"));
+        Assertions.assertFalse(submit("d2", "alice", "p1"));
+        Assertions.assertThrows(RejectedExecutionException.class, () -> submit("d3", "alice", "p1"));
+    }
+
+    @Test
+    void testCancel_removesQueuedExecution() {
+        agentConfig.setMaxActiveExecutions(1);
+        admissionController = new AdmissionController(agentConfig);
+        Assertions.assertTrue(submit("d1", "alice", "p1"));
+        Assertions.assertFalse(submit("d2", "alice", "p1"));
+        Assertions.assertFalse(submit("d3", "alice", "p1"));
+
+        Assertions.assertTrue(admissionController.cancel("d2"));
+        Assertions.assertFalse(admissionController.cancel("d2"));
+        // Admitted executions cannot be cancelled
+        Assertions.assertFalse(admissionController.cancel("d1"));
+        Assertions.assertEquals(1, admissionController.getQueuedCount());
+        Assertions.assertEquals(1, admissionController.getStats().cancelled());
+
+        admissionController.onStatusChanged(new ExecutionStatusChangedEvent("d1", "p1", "alice", Status.COMPLETED));
+        Assertions.assertEquals(List.of("d1", "d3"), admitted);
+    }
+
+    private boolean submit(String datasetId, String username, String projectId) {
+        var message = RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .username(username)
+                .projectId(projectId)
+                .build();
+        return admissionController.submit(message, () -> admitted.add(datasetId));
+    }
+}
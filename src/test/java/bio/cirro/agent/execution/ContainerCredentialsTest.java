@@ -0,0 +1,156 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.AgentTokenService;
+import bio.cirro.agent.aws.AwsTokenClient;
+import bio.cirro.agent.aws.StsRateLimiter;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micronaut.serde.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Fetches credentials from the container credentials endpoint with the AWS SDK provider
+ */
+class ContainerCredentialsTest {
+    private static final String FULL_URI_PROPERTY = "aws.containerCredentialsFullUri";
+    private static final String AUTHORIZATION_TOKEN_PROPERTY = "aws.containerAuthorizationToken";
+
+    final AtomicInteger requestCount = new AtomicInteger();
+    final Instant expiration = Instant.now().plus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+    AgentTokenService agentTokenService;
+    ExecutionController executionController;
+    HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        var agentConfig = new AgentConfig();
+        agentConfig.setId("agent");
+        agentConfig.setJwtSecret("secret".getBytes());
+        agentConfig.setJwtExpiryDays(1);
+        agentConfig.setCredentialCacheSize(10);
+        agentTokenService = new AgentTokenService(agentConfig);
+
+        var executionRepository = mock(ExecutionRepository.class);
+        doAnswer(invocation -> makeExecution(invocation.getArgument(0))).when(executionRepository).get(anyString());
+        var tokenClient = new AwsTokenClient(null, null, null) {
+            @Override
+            public AwsSessionCredentials generateCredentialsForExecution(Execution execution) {
+                return AwsSessionCredentials.builder()
+                        .accessKeyId("access-" + execution.getExecutionId())
+                        .secretAccessKey("secret")
+                        .sessionToken("token")
+                        .expirationTime(expiration)
+                        .build();
+            }
+        };
+        var executionTokenService = new ExecutionTokenService(executionRepository, null,
+                new StsRateLimiter(agentConfig), new CredentialsFileWriter(agentConfig), agentConfig) {
+            @Override
+            protected AwsTokenClient createTokenClient(Execution execution) {
+                return tokenClient;
+            }
+        };
+        executionController = new ExecutionController(agentTokenService, mock(ExecutionService.class), executionTokenService);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/executions/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        System.clearProperty(FULL_URI_PROPERTY);
+        System.clearProperty(AUTHORIZATION_TOKEN_PROPERTY);
+    }
+
+    @Test
+    void testResolveCredentials() {
+        var execution = makeExecution("123");
+        var environment = execution.getEnvironment(agentTokenService.generateForExecution("123"), getEndpoint(), true);
+        System.setProperty(FULL_URI_PROPERTY, environment.get("AWS_CONTAINER_CREDENTIALS_FULL_URI"));
+        System.setProperty(AUTHORIZATION_TOKEN_PROPERTY, environment.get("AWS_CONTAINER_AUTHORIZATION_TOKEN"));
+
+        try (var provider = ContainerCredentialsProvider.builder().build()) {
+            var credentials = provider.resolveCredentials();
+            Assertions.assertEquals("access-123", credentials.accessKeyId());
+            Assertions.assertEquals("secret", credentials.secretAccessKey());
+            var sessionCredentials = Assertions.assertInstanceOf(AwsSessionCredentials.class, credentials);
+            Assertions.assertEquals("token", sessionCredentials.sessionToken());
+            Assertions.assertEquals(expiration, sessionCredentials.expirationTime().orElseThrow());
+
+            // Cached by the SDK until close to expiration
+            provider.resolveCredentials();
+            Assertions.assertEquals(1, requestCount.get());
+        }
+    }
+
+    @Test
+    void testResolveCredentials_otherExecutionToken() {
+        System.setProperty(FULL_URI_PROPERTY, getEndpoint() + "/executions/123/container-credentials");
+        System.setProperty(AUTHORIZATION_TOKEN_PROPERTY, agentTokenService.generateForExecution("456"));
+
+        try (var provider = ContainerCredentialsProvider.builder().build()) {
+            Assertions.assertThrows(SdkClientException.class, provider::resolveCredentials);
+        }
+    }
+
+    /**
+     * Routes the request to the controller, as the embedded server would
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        var executionId = exchange.getRequestURI().getPath().split("/")[2];
+        var authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        try (exchange) {
+            try {
+                var response = executionController.getContainerCredentials(executionId, authorization);
+                var body = ObjectMapper.getDefault().writeValueAsBytes(response.body());
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (SecurityException e) {
+                exchange.sendResponseHeaders(403, -1);
+            }
+        }
+    }
+
+    private String getEndpoint() {
+        return String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    private static Execution makeExecution(String executionId) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(executionId)
+                .projectId("456")
+                .username("username")
+                .region("us-west-2")
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(Path.of("work"))
+                .agentSharedDirectory(Path.of("shared"))
+                .build();
+    }
+}
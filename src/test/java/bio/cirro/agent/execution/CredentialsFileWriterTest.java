@@ -0,0 +1,79 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.aws.AwsCredentials;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+
+class CredentialsFileWriterTest {
+    @TempDir
+    Path workDirectory;
+
+    CredentialsFileWriter credentialsFileWriter;
+    Execution execution;
+
+    @BeforeEach
+    void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setCredentialsFileEnabled(true);
+        credentialsFileWriter = new CredentialsFileWriter(agentConfig);
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId("123")
+                .projectId("456")
+                .build();
+        execution = Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(workDirectory)
+                .agentSharedDirectory(workDirectory)
+                .build();
+    }
+
+    @Test
+    void testWrite() throws IOException {
+        credentialsFileWriter.write(execution, credentials("first", Duration.ofHours(1)));
+        credentialsFileWriter.write(execution, credentials("second", Duration.ofHours(1)));
+
+        var path = execution.getAwsCredentialsFilePath();
+        var content = Files.readString(path);
+        Assertions.assertTrue(content.startsWith("[default]"));
+        Assertions.assertTrue(content.contains("aws_access_key_id = second"));
+        Assertions.assertTrue(content.contains("aws_session_token = token"));
+        Assertions.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+        // No temporary files are left behind
+        try (var files = Files.list(path.getParent())) {
+            Assertions.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testDeleteExpiring() {
+        credentialsFileWriter.write(execution, credentials("first", Duration.ofSeconds(30)));
+
+        credentialsFileWriter.deleteExpiring(Instant.now());
+        Assertions.assertTrue(Files.exists(execution.getAwsCredentialsFilePath()));
+
+        credentialsFileWriter.deleteExpiring(Instant.now().plus(Duration.ofMinutes(1)));
+        Assertions.assertFalse(Files.exists(execution.getAwsCredentialsFilePath()));
+        Assertions.assertEquals(0, credentialsFileWriter.getStats().files());
+        Assertions.assertEquals(1, credentialsFileWriter.getStats().deletes());
+    }
+
+    private static AwsCredentials credentials(String accessKeyId, Duration lifetime) {
+        return AwsCredentials.builder()
+                .accessKeyId(accessKeyId)
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.now().plus(lifetime))
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.process.ProcessSupervisor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CompletionException;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class ExecutionBatchStopperTest {
+    @TempDir
+    Path directory;
+
+    ProcessSupervisor processSupervisor;
+    ExecutionBatchStopper executionBatchStopper;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(directory);
+        agentConfig.setAbsoluteSharedDirectory(directory);
+        agentConfig.setStopScriptName("stop_headnode.sh");
+        agentConfig.setStopBatchScriptName("stop_headnode_batch.sh");
+        agentConfig.setStopBatchWindowMillis(200);
+        agentConfig.setStopScriptTimeout(10);
+        agentConfig.setMaxConcurrentScripts(4);
+        agentConfig.setScriptKillGrace(1);
+        writeScript("stop_headnode_batch.sh", "echo \"$PW_JOB_IDS\" >> batch.calls");
+        processSupervisor = new ProcessSupervisor(agentConfig);
+        executionBatchStopper = new ExecutionBatchStopper(agentConfig, processSupervisor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executionBatchStopper.close();
+        processSupervisor.close();
+    }
+
+    @Test
+    void testStop_coalescesIntoSingleCall() throws IOException {
+        var first = executionBatchStopper.stop(makeExecution("1001"));
+        var second = executionBatchStopper.stop(makeExecution("1002"));
+
+        Assertions.assertEquals(0, first.join());
+        Assertions.assertEquals(0, second.join());
+        Assertions.assertEquals("1001 1002\n", Files.readString(directory.resolve("batch.calls")));
+        Assertions.assertEquals(1, executionBatchStopper.getStats().scriptsRun());
+        Assertions.assertEquals(2.0, executionBatchStopper.getStats().averageBatchSize());
+    }
+
+    @Test
+    void testStop_singleUsesStopScript() throws IOException {
+        writeScript("stop_headnode.sh", "echo \"$PW_JOB_ID\" >> " + directory.resolve("single.calls"));
+        var execution = makeExecution("1001");
+        doReturn(directory).when(execution).getWorkingDirectory();
+        doReturn(directory.resolve("env.list")).when(execution).getEnvironmentPath();
+
+        Assertions.assertEquals(0, executionBatchStopper.stop(execution).join());
+        Assertions.assertEquals("1001\n", Files.readString(directory.resolve("single.calls")));
+        Assertions.assertFalse(Files.exists(directory.resolve("batch.calls")));
+    }
+
+    @Test
+    void testStop_batchFailureFallsBackToSingleStops() throws IOException {
+        writeScript("stop_headnode_batch.sh", "exit 1");
+        // Only the first job can be stopped
+        writeScript("stop_headnode.sh", "test \"$PW_JOB_ID\" = 1001");
+        var first = makeExecution("1001");
+        var second = makeExecution("1002");
+        for (var execution : new Execution[]{first, second}) {
+            doReturn(directory).when(execution).getWorkingDirectory();
+            doReturn(directory.resolve("env.list")).when(execution).getEnvironmentPath();
+        }
+
+        var firstResult = executionBatchStopper.stop(first);
+        var secondResult = executionBatchStopper.stop(second);
+
+        Assertions.assertEquals(0, firstResult.join());
+        Assertions.assertEquals(1, secondResult.join());
+        Assertions.assertEquals(3, executionBatchStopper.getStats().scriptsRun());
+        Assertions.assertEquals(1, executionBatchStopper.getStats().failed());
+    }
+
+    @Test
+    void testStop_withoutJobId() {
+        var execution = mock(Execution.class);
+        doReturn(new ExecutionStartOutput("", null, null, null)).when(execution).getStartOutput();
+
+        Assertions.assertThrows(CompletionException.class, () -> executionBatchStopper.stop(execution).join());
+    }
+
+    private Execution makeExecution(String jobId) {
+        var execution = mock(Execution.class);
+        doReturn("dataset-" + jobId).when(execution).getDatasetId();
+        doReturn(new ExecutionStartOutput("", jobId, null, null)).when(execution).getStartOutput();
+        return execution;
+    }
+
+    private void writeScript(String name, String body) throws IOException {
+        var script = directory.resolve(name);
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+}
@@ -0,0 +1,86 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.process.ProcessOutputCapture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+class ExecutionBatchSubmitterTest {
+
+    @Test
+    void testParseJobIds() {
+        var jobIds = ExecutionBatchSubmitter.toJobIds(parseArrayJobId("Submitting 3 analyses\n4321\n"), 3);
+        Assertions.assertEquals(List.of("4321_0", "4321_1", "4321_2"), jobIds);
+    }
+
+    @Test
+    void testParseJobIds_withClusterName() {
+        var jobIds = ExecutionBatchSubmitter.toJobIds(parseArrayJobId("4321;cluster\n"), 2);
+        Assertions.assertEquals(List.of("4321_0", "4321_1"), jobIds);
+    }
+
+    @Test
+    void testParseJobIds_missing() {
+        var arrayJobId = parseArrayJobId("sbatch: error: invalid partition\n");
+        Assertions.assertThrows(ExecutionException.class,
+                () -> ExecutionBatchSubmitter.toJobIds(arrayJobId, 2));
+    }
+
+    @Test
+    void testToJobIds() {
+        var jobIds = ExecutionBatchSubmitter.toJobIds("4321", 3);
+        Assertions.assertEquals(List.of("4321_0", "4321_1", "4321_2"), jobIds);
+    }
+
+    @Test
+    void testToJobIds_missing() {
+        Assertions.assertThrows(ExecutionException.class,
+                () -> ExecutionBatchSubmitter.toJobIds(null, 2));
+    }
+
+    @Test
+    void testGetBatchKey() {
+        var first = makeExecution("1", Map.of("HEADNODE_ACCOUNTING", "lab-a", "HEADNODE_JOB_QUEUE", "short", "OTHER", "x"));
+        var sameSettings = makeExecution("2", Map.of("HEADNODE_ACCOUNTING", "lab-a", "HEADNODE_JOB_QUEUE", "short", "OTHER", "y"));
+        var otherAccount = makeExecution("3", Map.of("HEADNODE_ACCOUNTING", "lab-b", "HEADNODE_JOB_QUEUE", "short"));
+        var otherQueue = makeExecution("4", Map.of("HEADNODE_ACCOUNTING", "lab-a", "HEADNODE_JOB_QUEUE", "long"));
+
+        var key = ExecutionBatchSubmitter.getBatchKey(first);
+        Assertions.assertEquals(key, ExecutionBatchSubmitter.getBatchKey(sameSettings));
+        Assertions.assertNotEquals(key, ExecutionBatchSubmitter.getBatchKey(otherAccount));
+        Assertions.assertNotEquals(key, ExecutionBatchSubmitter.getBatchKey(otherQueue));
+    }
+
+    @Test
+    void testGetBatchKey_noEnvironment() {
+        var key = ExecutionBatchSubmitter.getBatchKey(makeExecution("1", null));
+        Assertions.assertEquals(ExecutionBatchSubmitter.BATCH_SETTINGS.size(), key.size());
+        Assertions.assertEquals(key, ExecutionBatchSubmitter.getBatchKey(makeExecution("2", Map.of())));
+    }
+
+    private static String parseArrayJobId(String output) {
+        var capture = new ProcessOutputCapture(null, ExecutionBatchSubmitter.ARRAY_JOB_ID_REGEX)
+                .start(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        return capture.getJobId().join();
+    }
+
+    private Execution makeExecution(String datasetId, Map<String, String> environment) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("project")
+                .environment(environment)
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(Path.of("."))
+                .agentSharedDirectory(Path.of("."))
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+class ExecutionCacheTest {
+
+    @Test
+    void testEvict_terminalFirst() {
+        var cache = new ExecutionCache(3);
+        cache.put(makeExecution("active-1", Status.RUNNING));
+        cache.put(makeExecution("finished", Status.COMPLETED));
+        cache.put(makeExecution("active-2", Status.RUNNING));
+        cache.put(makeExecution("active-3", Status.PENDING));
+
+        Assertions.assertNull(cache.peek("finished"));
+        Assertions.assertNotNull(cache.peek("active-1"));
+
+        // Then least recently used among the active ones
+        cache.get("active-1");
+        cache.put(makeExecution("active-4", Status.PENDING));
+        Assertions.assertNull(cache.peek("active-2"));
+        Assertions.assertNotNull(cache.peek("active-1"));
+        Assertions.assertEquals(2, cache.getStats().evictions());
+    }
+
+    @Test
+    void testPut_movesExecutionOnStatusChange() {
+        var cache = new ExecutionCache(2);
+        var execution = makeExecution("1", Status.RUNNING);
+        cache.put(execution);
+        cache.put(makeExecution("2", Status.RUNNING));
+        execution.setStatus(Status.FAILED);
+        cache.put(execution);
+        cache.put(makeExecution("3", Status.RUNNING));
+
+        Assertions.assertNull(cache.peek("1"));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testPutIfAbsent_keepsExistingInstance() {
+        var cache = new ExecutionCache(10);
+        var updated = makeExecution("1", Status.RUNNING);
+        cache.put(updated);
+        Assertions.assertSame(updated, cache.putIfAbsent(makeExecution("1", Status.PENDING)));
+    }
+
+    @Test
+    void testStats_hitRate() {
+        var cache = new ExecutionCache(10);
+        cache.put(makeExecution("1", Status.RUNNING));
+        cache.get("1");
+        cache.get("1");
+        cache.get("1");
+        cache.get("2");
+
+        var stats = cache.getStats();
+        Assertions.assertEquals(3, stats.hits());
+        Assertions.assertEquals(1, stats.misses());
+        Assertions.assertEquals(0.75, stats.hitRate());
+    }
+
+    @Test
+    void testDisabled() {
+        var cache = new ExecutionCache(0);
+        cache.put(makeExecution("1", Status.RUNNING));
+        Assertions.assertNull(cache.get("1"));
+    }
+
+    private Execution makeExecution(String id, Status status) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(id)
+                .projectId("project")
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(Path.of("work"))
+                .agentSharedDirectory(Path.of("shared"))
+                .status(status)
+                .build();
+    }
+}
@@ -0,0 +1,49 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ExecutionCleanupServiceTest {
+    ExecutionRepository executionRepository;
+    WorkspaceReclaimer workspaceReclaimer;
+    ExecutionCleanupService executionCleanupService;
+
+    @BeforeEach
+    void setUp() {
+        executionRepository = mock(ExecutionRepository.class);
+        workspaceReclaimer = mock(WorkspaceReclaimer.class);
+        doReturn(true).when(workspaceReclaimer).isEnabled();
+        var agentConfig = new AgentConfig();
+        agentConfig.setCleanupBatchSize(1);
+        executionCleanupService = new ExecutionCleanupService(executionRepository, workspaceReclaimer,
+                mock(ExecutionStatusHistory.class), mock(ExecutionTokenService.class), agentConfig);
+    }
+
+    @Test
+    void testCleanup_skipsExecutionsThatFailedToReclaim() throws IOException {
+        var stuck = mock(Execution.class);
+        var other = mock(Execution.class);
+        doReturn(List.of("stuck", "other")).when(executionRepository).getTerminalIdsCreatedBefore(any());
+        doReturn(stuck).when(executionRepository).get("stuck");
+        doReturn(other).when(executionRepository).get("other");
+        doThrow(new IOException("Device or resource busy")).when(workspaceReclaimer).reclaim(stuck);
+
+        executionCleanupService.cleanupOldExecutions();
+        verify(executionRepository).removeAll(List.of());
+
+        executionCleanupService.cleanupOldExecutions();
+        verify(workspaceReclaimer, times(1)).reclaim(stuck);
+        verify(executionRepository).removeAll(List.of("other"));
+    }
+}
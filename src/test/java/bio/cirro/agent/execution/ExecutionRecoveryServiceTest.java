@@ -0,0 +1,149 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.SchedulerException;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.scheduler.JobState;
+import bio.cirro.agent.scheduler.SchedulerAdapter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ExecutionRecoveryServiceTest {
+    private static final int STORED_EXECUTIONS = 5_000;
+
+    @TempDir
+    Path workDirectory;
+
+    ExecutionRepository executionRepository;
+    ExecutionService executionService;
+    SchedulerAdapter schedulerAdapter;
+    AdmissionController admissionController;
+    ExecutionSubmissionService executionSubmissionService;
+    ExecutionRecoveryService executionRecoveryService;
+
+    @BeforeEach
+    void setUp() {
+        executionRepository = mock(ExecutionRepository.class);
+        executionService = mock(ExecutionService.class);
+        schedulerAdapter = mock(SchedulerAdapter.class);
+        admissionController = new AdmissionController(new AgentConfig());
+        executionSubmissionService = mock(ExecutionSubmissionService.class);
+        executionRecoveryService = new ExecutionRecoveryService(executionRepository, executionService,
+                admissionController, executionSubmissionService, Optional.of(schedulerAdapter));
+    }
+
+    @Test
+    void testRecover_reconcilesWithSingleSchedulerQuery() {
+        var executions = new ArrayList<Execution>();
+        var states = new HashMap<String, JobState>();
+        for (int i = 0; i < STORED_EXECUTIONS; i++) {
+            var jobId = String.valueOf(1000 + i);
+            executions.add(makeExecution("running-" + i, jobId));
+            states.put(jobId, JobState.RUNNING);
+        }
+        executions.add(makeExecution("ended", "1"));
+        var queued = makeExecution("queued", null);
+        executions.add(queued);
+        doReturn(executions).when(executionRepository).getActive();
+        doReturn(Map.copyOf(states)).when(schedulerAdapter).getJobStates(anyCollection());
+
+        var stats = executionRecoveryService.recover();
+
+        verify(schedulerAdapter, times(1)).getJobStates(anyCollection());
+        verify(executionService).updateStatus(eq("ended"), argThat(request -> request.status() == Status.FAILED));
+        verify(executionService, times(1)).updateStatus(any(), any());
+        verify(executionSubmissionService).resubmit(queued);
+        Assertions.assertEquals(STORED_EXECUTIONS + 2, stats.loaded());
+        Assertions.assertEquals(STORED_EXECUTIONS, stats.running());
+        Assertions.assertEquals(1, stats.requeued());
+        Assertions.assertTrue(stats.reconciled());
+        Assertions.assertEquals(STORED_EXECUTIONS, admissionController.getStats().active());
+        // Restart-to-serving budget, the work is linear in the number of executions
+        Assertions.assertTrue(stats.totalMillis() < 5_000, "Recovery took " + stats.totalMillis() + " ms");
+    }
+
+    @Test
+    void testRecover_schedulerUnavailable() {
+        doReturn(List.of(makeExecution("running", "100"))).when(executionRepository).getActive();
+        doThrow(new SchedulerException("squeue failed")).when(schedulerAdapter).getJobStates(anyCollection());
+
+        var stats = executionRecoveryService.recover();
+
+        verify(executionService, never()).updateStatus(any(), any());
+        Assertions.assertFalse(stats.reconciled());
+        Assertions.assertEquals(1, stats.running());
+        Assertions.assertEquals(1, admissionController.getStats().active());
+    }
+
+    @Test
+    void testRecover_submissionInProgress() throws IOException {
+        var execution = makeExecution("submitting", null);
+        Files.createDirectories(execution.getWorkingDirectory());
+        Files.writeString(execution.getEnvironmentPath(), "");
+        doReturn(List.of(execution)).when(executionRepository).getActive();
+
+        var stats = executionRecoveryService.recover();
+
+        verify(executionService).updateStatus(eq("submitting"), argThat(request -> request.status() == Status.FAILED));
+        verify(executionSubmissionService, never()).resubmit(any());
+        Assertions.assertEquals(1, stats.unsubmitted());
+        Assertions.assertEquals(0, stats.requeued());
+    }
+
+    @Test
+    void testRecover_keepsSubmittedWithoutJobId() {
+        // Local containers report a container ID, not a job ID
+        var execution = makeExecution("local", null);
+        execution.setStatus(Status.RUNNING);
+        execution.setStartOutput(new ExecutionStartOutput("3f2a9c", null, null, null));
+        doReturn(List.of(execution)).when(executionRepository).getActive();
+
+        var stats = executionRecoveryService.recover();
+
+        verify(executionService, never()).updateStatus(any(), any());
+        verify(schedulerAdapter, never()).getJobStates(anyCollection());
+        Assertions.assertEquals(1, stats.running());
+        Assertions.assertEquals(1, stats.unknown());
+        Assertions.assertEquals(0, stats.unsubmitted());
+        Assertions.assertEquals(1, admissionController.getStats().active());
+    }
+
+    private Execution makeExecution(String id, String jobId) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(id)
+                .projectId("project")
+                .username("username")
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(workDirectory)
+                .agentSharedDirectory(Path.of("shared"))
+                .status(jobId == null ? Status.PENDING : Status.RUNNING)
+                .startOutput(jobId == null ? null : new ExecutionStartOutput("", jobId, null, null))
+                .build();
+    }
+}
@@ -0,0 +1,109 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import io.micronaut.serde.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ExecutionRepositoryTest {
+    ExecutionDataRepository executionDataRepository;
+    ExecutionRepository executionRepository;
+
+    @BeforeEach
+    void setUp() {
+        executionDataRepository = mock(ExecutionDataRepository.class);
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("/work"));
+        agentConfig.setAbsoluteSharedDirectory(Path.of("/shared"));
+        agentConfig.setExecutionCacheSize(10);
+        executionRepository = new ExecutionRepository(executionDataRepository, ObjectMapper.getDefault(), agentConfig);
+    }
+
+    @Test
+    void testAdd_fillsIndexedColumns() {
+        var execution = executionRepository.getNew(makeMessage("123"));
+        execution.setStartOutput(new ExecutionStartOutput("", "4242", null, null));
+        executionRepository.add(execution);
+
+        var captor = ArgumentCaptor.forClass(ExecutionData.class);
+        verify(executionDataRepository).save(captor.capture());
+        var data = captor.getValue();
+        Assertions.assertEquals("456", data.getProjectId());
+        Assertions.assertEquals("username", data.getUsername());
+        Assertions.assertEquals("4242", data.getJobId());
+    }
+
+    @Test
+    void testBackfillIndexedColumns() throws Exception {
+        var row = ExecutionData.builder()
+                .id("123")
+                .messageDataJson(ObjectMapper.getDefault().writeValueAsString(makeMessage("123")))
+                .status(Status.COMPLETED)
+                .createdAt(Instant.now())
+                .build();
+        doReturn(List.of(row)).when(executionDataRepository).findByProjectIdIsNull();
+
+        Assertions.assertEquals(1, executionRepository.backfillIndexedColumns());
+
+        var captor = ArgumentCaptor.forClass(ExecutionData.class);
+        verify(executionDataRepository).update(captor.capture());
+        Assertions.assertEquals("456", captor.getValue().getProjectId());
+        Assertions.assertEquals("username", captor.getValue().getUsername());
+    }
+
+    @Test
+    void testRemoveAll_evictsCachedExecutions() {
+        var execution = executionRepository.getNew(makeMessage("123"));
+        executionRepository.add(execution);
+        executionRepository.removeAll(List.of("123"));
+
+        verify(executionDataRepository).deleteByIdInList(List.of("123"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> executionRepository.get("123"));
+        verify(executionDataRepository).findById(any());
+    }
+
+    @Test
+    void testUpdate_failedWriteEvictsCachedExecution() throws Exception {
+        var execution = executionRepository.getNew(makeMessage("123"));
+        executionRepository.add(execution);
+        var stored = ExecutionData.builder()
+                .id("123")
+                .messageDataJson(ObjectMapper.getDefault().writeValueAsString(makeMessage("123")))
+                .status(Status.PENDING)
+                .createdAt(Instant.now())
+                .build();
+        doReturn(Optional.of(stored)).when(executionDataRepository).findById("123");
+        doThrow(new IllegalStateException("Database unavailable")).when(executionDataRepository).update(any());
+
+        var cached = executionRepository.get("123");
+        cached.setStatus(Status.RUNNING);
+        Assertions.assertThrows(IllegalStateException.class, () -> executionRepository.update(cached));
+
+        // The next lookup sees what the database has
+        Assertions.assertEquals(Status.PENDING, executionRepository.get("123").getStatus());
+        verify(executionDataRepository).findById("123");
+    }
+
+    private static RunAnalysisCommandMessage makeMessage(String datasetId) {
+        return RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("456")
+                .username("username")
+                .build();
+    }
+}
@@ -0,0 +1,164 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import io.micronaut.serde.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ExecutionSchemaMigratorTest {
+    private static final String URL = "jdbc:h2:mem:migration;DB_CLOSE_DELAY=-1";
+
+    Connection connection;
+    ExecutionSchemaMigrator executionSchemaMigrator;
+
+    @BeforeEach
+    void setUp() throws SQLException, IOException {
+        connection = DriverManager.getConnection(URL);
+        // Schema created by the agent before the indexed columns were added
+        try (var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE executions (id VARCHAR(255) PRIMARY KEY, "
+                    + "message_data_json VARCHAR(10000), status VARCHAR(255), "
+                    + "start_output_json VARCHAR(10000), finish_output_json VARCHAR(10000), "
+                    + "created_at TIMESTAMP, finished_at TIMESTAMP)");
+        }
+        var objectMapper = ObjectMapper.getDefault();
+        try (var insert = connection.prepareStatement("INSERT INTO executions "
+                + "(id, message_data_json, status, start_output_json, created_at) VALUES (?, ?, ?, ?, ?)")) {
+            insert.setString(1, "123");
+            insert.setString(2, objectMapper.writeValueAsString(makeMessage("123")));
+            insert.setString(3, Status.RUNNING.name());
+            insert.setString(4, objectMapper.writeValueAsString(new ExecutionStartOutput("", "4242", null, null)));
+            insert.setTimestamp(5, Timestamp.from(Instant.parse("2024-01-01T00:00:00Z")));
+            insert.executeUpdate();
+        }
+
+        var dataSource = mock(DataSource.class);
+        doAnswer(invocation -> DriverManager.getConnection(URL)).when(dataSource).getConnection();
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("/work"));
+        agentConfig.setAbsoluteSharedDirectory(Path.of("/shared"));
+        var executionRepository = new ExecutionRepository(makeDataRepository(), objectMapper, agentConfig);
+        executionSchemaMigrator = new ExecutionSchemaMigrator(dataSource, executionRepository);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testMigrate_baselineSchema() throws SQLException {
+        executionSchemaMigrator.migrate();
+
+        var columns = new HashSet<String>();
+        try (var resultSet = connection.getMetaData().getColumns(null, null, "EXECUTIONS", null)) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME"));
+            }
+        }
+        Assertions.assertTrue(columns.containsAll(Set.of("PROJECT_ID", "USERNAME", "JOB_ID")), columns.toString());
+
+        var indexes = getIndexes("EXECUTIONS");
+        Assertions.assertTrue(indexes.containsAll(Set.of(
+                "EXECUTIONS_STATUS_IDX",
+                "EXECUTIONS_PROJECT_IDX",
+                "EXECUTIONS_USERNAME_IDX",
+                "EXECUTIONS_JOB_ID_IDX",
+                "EXECUTIONS_CREATED_AT_IDX",
+                "EXECUTIONS_FINISHED_AT_IDX"
+        )), indexes.toString());
+        Assertions.assertTrue(getIndexes("EXECUTION_STATUS_HISTORY").contains("EXECUTION_STATUS_HISTORY_EXECUTION_IDX"));
+
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT project_id, username, job_id FROM executions WHERE id = '123'")) {
+            Assertions.assertTrue(resultSet.next());
+            Assertions.assertEquals("456", resultSet.getString("project_id"));
+            Assertions.assertEquals("username", resultSet.getString("username"));
+            Assertions.assertEquals("4242", resultSet.getString("job_id"));
+        }
+    }
+
+    @Test
+    void testMigrate_isRepeatable() {
+        executionSchemaMigrator.migrate();
+        Assertions.assertDoesNotThrow(() -> executionSchemaMigrator.migrate());
+    }
+
+    private Set<String> getIndexes(String table) throws SQLException {
+        var indexes = new HashSet<String>();
+        try (var resultSet = connection.getMetaData().getIndexInfo(null, null, table, false, false)) {
+            while (resultSet.next()) {
+                indexes.add(resultSet.getString("INDEX_NAME"));
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Stand-in for the generated repository, reading and writing the rows used by the backfill
+     */
+    private ExecutionDataRepository makeDataRepository() {
+        var executionDataRepository = mock(ExecutionDataRepository.class);
+        doAnswer(invocation -> {
+            var rows = new ArrayList<ExecutionData>();
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("SELECT id, message_data_json, status, start_output_json, "
+                         + "created_at FROM executions WHERE project_id IS NULL")) {
+                while (resultSet.next()) {
+                    rows.add(ExecutionData.builder()
+                            .id(resultSet.getString("id"))
+                            .messageDataJson(resultSet.getString("message_data_json"))
+                            .status(Status.valueOf(resultSet.getString("status")))
+                            .startOutputJson(resultSet.getString("start_output_json"))
+                            .createdAt(resultSet.getTimestamp("created_at").toInstant())
+                            .build());
+                }
+            }
+            return rows;
+        }).when(executionDataRepository).findByProjectIdIsNull();
+        doAnswer(invocation -> {
+            ExecutionData row = invocation.getArgument(0);
+            try (var update = connection.prepareStatement(
+                    "UPDATE executions SET project_id = ?, username = ?, job_id = ? WHERE id = ?")) {
+                update.setString(1, row.getProjectId());
+                update.setString(2, row.getUsername());
+                update.setString(3, row.getJobId());
+                update.setString(4, row.getId());
+                update.executeUpdate();
+            }
+            return row;
+        }).when(executionDataRepository).update(any());
+        return executionDataRepository;
+    }
+
+    private static RunAnalysisCommandMessage makeMessage(String datasetId) {
+        return RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("456")
+                .username("username")
+                .build();
+    }
+}
@@ -0,0 +1,212 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.AgentTokenService;
+import bio.cirro.agent.messaging.AgentClient;
+import bio.cirro.agent.messaging.AgentClientFactory;
+import bio.cirro.agent.messaging.PortalMessageSender;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.messaging.dto.StopAnalysisMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import bio.cirro.agent.process.ProcessSupervisor;
+import io.micronaut.context.event.ApplicationEventPublisher;
+import io.micronaut.serde.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Hammers a single execution with status updates from many threads, while it is being started and stopped
+ */
+class ExecutionServiceConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int UPDATES_PER_THREAD = 2_000;
+
+    final ConcurrentHashMap<String, ExecutionData> rows = new ConcurrentHashMap<>();
+    // Every status written to the database, in order
+    final List<Status> writtenStatuses = new ArrayList<>();
+
+    ExecutionRepository executionRepository;
+    ExecutionStatusHistory executionStatusHistory;
+    ExecutionBatchStopper executionBatchStopper;
+    ApplicationEventPublisher<ExecutionStatusChangedEvent> statusChangedPublisher;
+    ExecutionService executionService;
+    ExecutionCreateService executionCreateService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var executionDataRepository = mock(ExecutionDataRepository.class);
+        doAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<String>getArgument(0))))
+                .when(executionDataRepository).findById(anyString());
+        doAnswer(invocation -> {
+            ExecutionData data = invocation.getArgument(0);
+            synchronized (writtenStatuses) {
+                rows.put(data.getId(), data);
+                writtenStatuses.add(data.getStatus());
+            }
+            return data;
+        }).when(executionDataRepository).update(any());
+        doAnswer(invocation -> {
+            ExecutionData data = invocation.getArgument(0);
+            rows.put(data.getId(), data);
+            return data;
+        }).when(executionDataRepository).save(any());
+
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("/work"));
+        agentConfig.setAbsoluteSharedDirectory(Path.of("/shared"));
+        // Without the cache every read returns a new instance, as after an eviction
+        agentConfig.setExecutionCacheSize(0);
+        executionRepository = new ExecutionRepository(executionDataRepository, ObjectMapper.getDefault(), agentConfig);
+        var socket = mock(AgentClient.class);
+        doReturn(true).when(socket).isOpen();
+        var agentClientFactory = mock(AgentClientFactory.class);
+        doReturn(socket).when(agentClientFactory).getClientSocket();
+        executionStatusHistory = mock(ExecutionStatusHistory.class);
+        executionBatchStopper = mock(ExecutionBatchStopper.class);
+        statusChangedPublisher = mock(ApplicationEventPublisher.class);
+        var executionLocks = new ExecutionLocks();
+        executionService = new ExecutionService(executionRepository, mock(ExecutionSummaryRepository.class),
+                executionStatusHistory, executionLocks, new ExecutionStatusCoalescer(agentConfig, executionLocks),
+                agentConfig, new PortalMessageSender(agentClientFactory),
+                executionBatchStopper, mock(AdmissionController.class), statusChangedPublisher);
+        executionCreateService = new ExecutionCreateService(agentConfig, mock(AgentTokenService.class), executionRepository,
+                mock(ProcessSupervisor.class), mock(WorkspaceMaterializer.class), executionStatusHistory, executionLocks,
+                mock(ExecutionTokenService.class));
+
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId("123")
+                .projectId("456")
+                .build();
+        executionRepository.add(executionRepository.getNew(messageData));
+    }
+
+    @Test
+    void testUpdateStatus_concurrentUpdatesNeverRegress() throws InterruptedException {
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            var thread = t;
+            executor.execute(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                    executionService.updateStatus("123", nextUpdate(thread, i));
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        var total = THREADS * UPDATES_PER_THREAD;
+
+        // No update is lost from the history
+        verify(executionStatusHistory, times(total)).record(eq("123"), any(), any(), any());
+
+        // Statuses only move forward and nothing is written after the first terminal status
+        var previous = Status.PENDING;
+        for (var status : writtenStatuses) {
+            Assertions.assertFalse(previous.isRegression(status), previous + " -> " + status);
+            previous = status;
+        }
+        Assertions.assertTrue(previous.isTerminal());
+        Assertions.assertEquals(1, writtenStatuses.stream().filter(Status::isTerminal).count());
+        Assertions.assertEquals(previous, rows.get("123").getStatus());
+    }
+
+    @Test
+    void testStopAndStart_concurrentWithUpdates() throws InterruptedException {
+        doReturn(true).when(executionBatchStopper).isAvailable();
+        doReturn(CompletableFuture.completedFuture(0)).when(executionBatchStopper).stop(any());
+        var startOutput = new ExecutionStartOutput("Submitted batch job 4242", "4242", null, null);
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(THREADS + 2);
+        for (int t = 0; t < THREADS; t++) {
+            var thread = t;
+            executor.execute(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                    executionService.updateStatus("123", UpdateStatusRequest.builder()
+                            .status(i % 10 == 0 ? Status.PENDING : Status.RUNNING)
+                            .message("Update " + i + " from thread " + thread)
+                            .build());
+                }
+            });
+        }
+        executor.execute(() -> {
+            awaitQuietly(start);
+            executionCreateService.markStarted(executionRepository.get("123"), startOutput);
+        });
+        executor.execute(() -> {
+            awaitQuietly(start);
+            executionService.stopExecution(StopAnalysisMessage.builder().datasetId("123").build());
+        });
+        start.countDown();
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        // Stopped whether it was started before or after the stop, and never brought back by a later update
+        var previous = Status.PENDING;
+        for (var status : writtenStatuses) {
+            Assertions.assertFalse(previous.isRegression(status), previous + " -> " + status);
+            previous = status;
+        }
+        var execution = executionRepository.get("123");
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+        var events = ArgumentCaptor.forClass(ExecutionStatusChangedEvent.class);
+        verify(statusChangedPublisher, atLeastOnce()).publishEvent(events.capture());
+        Assertions.assertEquals(1, events.getAllValues().stream().filter(ExecutionStatusChangedEvent::isTerminal).count());
+
+        // The job ID is not overwritten by updates applied to an older copy of the execution
+        Assertions.assertEquals(startOutput, execution.getStartOutput());
+    }
+
+    /**
+     * Mostly progress updates, with late PENDING updates and a few threads finishing the execution
+     */
+    private static UpdateStatusRequest nextUpdate(int thread, int i) {
+        Status status;
+        if (i == UPDATES_PER_THREAD / 2 && thread % 4 == 0) {
+            status = thread % 8 == 0 ? Status.COMPLETED : Status.FAILED;
+        } else if (i % 10 == 0) {
+            status = Status.PENDING;
+        } else {
+            status = Status.RUNNING;
+        }
+        return UpdateStatusRequest.builder()
+                .status(status)
+                .message("Update " + i + " from thread " + thread)
+                .build();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
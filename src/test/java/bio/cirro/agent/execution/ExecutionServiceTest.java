@@ -0,0 +1,190 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.AgentClientFactory;
+import bio.cirro.agent.messaging.PortalMessageSender;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.messaging.dto.StopAnalysisMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import io.micronaut.context.event.ApplicationEventPublisher;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ExecutionServiceTest {
+    ExecutionRepository executionRepository;
+    ExecutionStatusHistory executionStatusHistory;
+    ApplicationEventPublisher<ExecutionStatusChangedEvent> statusChangedPublisher;
+    AdmissionController admissionController;
+    ExecutionBatchStopper executionBatchStopper;
+    ExecutionService executionService;
+    Execution execution;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        executionRepository = mock(ExecutionRepository.class);
+        executionStatusHistory = mock(ExecutionStatusHistory.class);
+        statusChangedPublisher = mock(ApplicationEventPublisher.class);
+        admissionController = mock(AdmissionController.class);
+        executionBatchStopper = mock(ExecutionBatchStopper.class);
+        // Updates are applied right away without a coalescing window
+        var agentConfig = new AgentConfig();
+        var executionLocks = new ExecutionLocks();
+        executionService = new ExecutionService(executionRepository, mock(ExecutionSummaryRepository.class),
+                executionStatusHistory, executionLocks, new ExecutionStatusCoalescer(agentConfig, executionLocks),
+                agentConfig, new PortalMessageSender(mock(AgentClientFactory.class)),
+                executionBatchStopper, admissionController, statusChangedPublisher);
+
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId("123")
+                .projectId("456")
+                .build();
+        execution = Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(Path.of("work"))
+                .agentSharedDirectory(Path.of("shared"))
+                .status(Status.RUNNING)
+                .build();
+        doReturn(execution).when(executionRepository).get("123");
+    }
+
+    @Test
+    void testUpdateStatus_progressOnlyAppendsHistory() {
+        var request = UpdateStatusRequest.builder()
+                .status(Status.RUNNING)
+                .message("Process 12 of 40 done")
+                .details(Map.of("completed", 12))
+                .build();
+        executionService.updateStatus("123", request);
+
+        verify(executionStatusHistory).record("123", Status.RUNNING, "Process 12 of 40 done", Map.of("completed", 12));
+        verify(executionRepository, never()).update(any());
+        verify(statusChangedPublisher, never()).publishEvent(any());
+        Assertions.assertEquals(1, executionService.getPendingMessageCount());
+    }
+
+    @Test
+    void testUpdateStatus_historyRecordedBeforeCoalescing() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setStatusUpdateWindowMillis(60_000);
+        var executionLocks = new ExecutionLocks();
+        var coalescer = new ExecutionStatusCoalescer(agentConfig, executionLocks);
+        executionService = new ExecutionService(executionRepository, mock(ExecutionSummaryRepository.class),
+                executionStatusHistory, executionLocks, coalescer, agentConfig,
+                new PortalMessageSender(mock(AgentClientFactory.class)),
+                executionBatchStopper, admissionController, statusChangedPublisher);
+
+        for (int i = 1; i <= 3; i++) {
+            executionService.updateStatus("123", UpdateStatusRequest.builder()
+                    .status(Status.RUNNING)
+                    .message("Process " + i + " done")
+                    .build());
+        }
+
+        // Each update is in the history, while the combined update waits for the window to end
+        verify(executionStatusHistory).record("123", Status.RUNNING, "Process 1 done", null);
+        verify(executionStatusHistory).record("123", Status.RUNNING, "Process 2 done", null);
+        verify(executionStatusHistory).record("123", Status.RUNNING, "Process 3 done", null);
+        Assertions.assertEquals(0, executionService.getPendingMessageCount());
+        coalescer.close();
+        verify(executionStatusHistory, times(3)).record(any(), any(), any(), any());
+        Assertions.assertEquals(1, executionService.getPendingMessageCount());
+    }
+
+    @Test
+    void testUpdateStatus_statusChangeRewritesExecution() {
+        var request = UpdateStatusRequest.builder()
+                .status(Status.COMPLETED)
+                .message("Done")
+                .build();
+        executionService.updateStatus("123", request);
+
+        verify(executionStatusHistory).record(eq("123"), eq(Status.COMPLETED), eq("Done"), any());
+        verify(executionRepository).update(execution);
+        verify(statusChangedPublisher).publishEvent(any());
+        Assertions.assertEquals(Status.COMPLETED, execution.getStatus());
+        Assertions.assertNotNull(execution.getFinishedAt());
+    }
+
+    @Test
+    void testUpdateStatus_terminalStatusIsFinal() {
+        execution.setStatus(Status.FAILED);
+        var request = UpdateStatusRequest.builder()
+                .status(Status.RUNNING)
+                .build();
+        executionService.updateStatus("123", request);
+
+        verify(executionStatusHistory).record(eq("123"), eq(Status.RUNNING), any(), any());
+        verify(executionRepository, never()).update(any());
+        verify(statusChangedPublisher, never()).publishEvent(any());
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+        Assertions.assertEquals(0, executionService.getPendingMessageCount());
+    }
+
+    @Test
+    void testFailIfUnfinished() {
+        Assertions.assertTrue(executionService.failIfUnfinished("123", "Headnode exited"));
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+        Assertions.assertEquals("Headnode exited", execution.getFinishOutput().message());
+
+        Assertions.assertFalse(executionService.failIfUnfinished("123", "Headnode exited"));
+        verify(executionRepository, times(1)).update(execution);
+        verify(executionStatusHistory, times(1)).record(any(), any(), any(), any());
+    }
+
+    @Test
+    void testStopExecution_cancelsQueuedExecution() {
+        execution.setStatus(Status.PENDING);
+        doReturn(true).when(admissionController).cancel("123");
+
+        executionService.stopExecution(StopAnalysisMessage.builder().datasetId("123").build());
+
+        verify(executionBatchStopper, never()).stop(any());
+        verify(executionRepository).update(execution);
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+    }
+
+    @Test
+    void testStopExecution_cancelsPreparedExecution() {
+        execution.setStatus(Status.PENDING);
+
+        executionService.stopExecution(StopAnalysisMessage.builder().datasetId("123").build());
+
+        verify(admissionController).cancel("123");
+        verify(executionBatchStopper, never()).stop(any());
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+    }
+
+    @Test
+    void testStopExecution_failsOnlyOnSuccessfulStop() {
+        execution.setStartOutput(new ExecutionStartOutput("", "1001", null, null));
+        doReturn(true).when(executionBatchStopper).isAvailable();
+        doReturn(CompletableFuture.completedFuture(1)).when(executionBatchStopper).stop(execution);
+
+        executionService.stopExecution(StopAnalysisMessage.builder().datasetId("123").build());
+
+        verify(executionRepository, never()).update(any());
+        Assertions.assertEquals(Status.RUNNING, execution.getStatus());
+        Assertions.assertEquals(1, executionService.getPendingMessageCount());
+
+        doReturn(CompletableFuture.completedFuture(0)).when(executionBatchStopper).stop(execution);
+        executionService.stopExecution(StopAnalysisMessage.builder().datasetId("123").build());
+
+        verify(executionRepository).update(execution);
+        Assertions.assertEquals(Status.FAILED, execution.getStatus());
+    }
+}
@@ -0,0 +1,130 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.models.UpdateStatusRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
+
+class ExecutionStatusCoalescerTest {
+    AgentConfig agentConfig;
+    ExecutionStatusCoalescer executionStatusCoalescer;
+    List<UpdateStatusRequest> applied;
+    BiConsumer<String, UpdateStatusRequest> apply;
+
+    @BeforeEach
+    void setUp() {
+        agentConfig = new AgentConfig();
+        agentConfig.setStatusUpdateWindowMillis(60_000);
+        executionStatusCoalescer = new ExecutionStatusCoalescer(agentConfig, new ExecutionLocks());
+        applied = new CopyOnWriteArrayList<>();
+        apply = (executionId, request) -> applied.add(request);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executionStatusCoalescer.close();
+    }
+
+    @Test
+    void testSubmit_progressCollapsedBeforeTerminal() {
+        for (int i = 1; i <= 100; i++) {
+            executionStatusCoalescer.submit("123", progress(i), apply);
+        }
+        Assertions.assertTrue(applied.isEmpty());
+
+        executionStatusCoalescer.submit("123", UpdateStatusRequest.builder()
+                .status(Status.COMPLETED)
+                .message("Done")
+                .build(), apply);
+
+        Assertions.assertEquals(2, applied.size());
+        var merged = applied.get(0);
+        Assertions.assertEquals(Status.RUNNING, merged.status());
+        Assertions.assertEquals("Process 100 done", merged.message());
+        Assertions.assertEquals(100, merged.details().get("completed"));
+        Assertions.assertEquals("first", merged.details().get("first"));
+        Assertions.assertEquals(Status.COMPLETED, applied.get(1).status());
+
+        var stats = executionStatusCoalescer.getStats();
+        Assertions.assertEquals(101, stats.received());
+        Assertions.assertEquals(2, stats.applied());
+        Assertions.assertEquals(50.5, stats.coalescingRatio());
+    }
+
+    @Test
+    void testSubmit_flushedAfterWindow() throws InterruptedException {
+        agentConfig.setStatusUpdateWindowMillis(20);
+        executionStatusCoalescer.submit("123", progress(1), apply);
+        executionStatusCoalescer.submit("123", progress(2), apply);
+        executionStatusCoalescer.submit("456", progress(3), apply);
+
+        var deadline = Instant.now().plus(Duration.ofSeconds(10));
+        while (applied.size() < 2) {
+            if (Instant.now().isAfter(deadline)) {
+                Assertions.fail("Updates were not applied");
+            }
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, executionStatusCoalescer.getStats().pending());
+        Assertions.assertEquals(2, applied.size());
+    }
+
+    @Test
+    void testSubmit_slowFlushDoesNotHoldUpOthers() throws InterruptedException {
+        agentConfig.setStatusUpdateWindowMillis(20);
+        agentConfig.setStatusUpdateConcurrency(2);
+        executionStatusCoalescer.close();
+        executionStatusCoalescer = new ExecutionStatusCoalescer(agentConfig, new ExecutionLocks());
+        var release = new CountDownLatch(1);
+        BiConsumer<String, UpdateStatusRequest> slowApply = (executionId, request) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        executionStatusCoalescer.submit("slow", progress(1), slowApply);
+        Thread.sleep(50);
+        executionStatusCoalescer.submit("123", progress(2), apply);
+
+        var deadline = Instant.now().plus(Duration.ofSeconds(10));
+        while (applied.isEmpty()) {
+            if (Instant.now().isAfter(deadline)) {
+                Assertions.fail("Update was held up by a slow flush");
+            }
+            Thread.sleep(10);
+        }
+        release.countDown();
+    }
+
+    @Test
+    void testSubmit_noWindow() {
+        agentConfig.setStatusUpdateWindowMillis(0);
+        executionStatusCoalescer.submit("123", progress(1), apply);
+        executionStatusCoalescer.submit("123", progress(2), apply);
+        Assertions.assertEquals(2, applied.size());
+    }
+
+    private static UpdateStatusRequest progress(int completed) {
+        var details = completed == 1
+                ? Map.<String, Object>of("completed", completed, "first", "first")
+                : Map.<String, Object>of("completed", completed);
+        return UpdateStatusRequest.builder()
+                .status(Status.RUNNING)
+                .message("Process " + completed + " done")
+                .details(details)
+                .build();
+    }
+}
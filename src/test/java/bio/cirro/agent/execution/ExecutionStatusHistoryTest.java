@@ -0,0 +1,53 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.models.Status;
+import io.micronaut.serde.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ExecutionStatusHistoryTest {
+    ExecutionStatusEventRepository executionStatusEventRepository;
+    ExecutionStatusHistory executionStatusHistory;
+
+    @BeforeEach
+    void setUp() {
+        executionStatusEventRepository = mock(ExecutionStatusEventRepository.class);
+        executionStatusHistory = new ExecutionStatusHistory(executionStatusEventRepository, ObjectMapper.getDefault());
+    }
+
+    @Test
+    void testRecord_largeDetailsAreTruncated() {
+        var details = Map.<String, Object>of("log", "x".repeat(20_000));
+        executionStatusHistory.record("123", Status.RUNNING, "Running", details);
+
+        var captor = ArgumentCaptor.forClass(ExecutionStatusEventData.class);
+        verify(executionStatusEventRepository).save(captor.capture());
+        var event = captor.getValue();
+        doReturn(List.of(event)).when(executionStatusEventRepository).findByExecutionIdOrderById("123");
+
+        var timeline = executionStatusHistory.getTimeline("123");
+        Assertions.assertEquals(1, timeline.size());
+        var recorded = timeline.getFirst().details();
+        Assertions.assertEquals(true, recorded.get("truncated"));
+        Assertions.assertEquals(20_010, ((Number) recorded.get("length")).intValue());
+        Assertions.assertEquals("Running", event.getMessage());
+    }
+
+    @Test
+    void testRecord_smallDetailsAreKept() {
+        executionStatusHistory.record("123", Status.RUNNING, null, Map.of("completed", 12));
+
+        var captor = ArgumentCaptor.forClass(ExecutionStatusEventData.class);
+        verify(executionStatusEventRepository).save(captor.capture());
+        Assertions.assertEquals("{\"completed\":12}", captor.getValue().getDetailsJson());
+    }
+}
@@ -0,0 +1,158 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import bio.cirro.agent.image.HeadnodeImageCache;
+import bio.cirro.agent.messaging.dto.AnalysisUpdateMessage;
+import bio.cirro.agent.messaging.dto.PortalMessage;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.pilot.PilotPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class ExecutionSubmissionServiceTest {
+    ExecutionCreateService executionCreateService;
+    ExecutionService executionService;
+    ExecutionSubmissionService executionSubmissionService;
+    RunAnalysisCommandMessage message;
+
+    @BeforeEach
+    void setUp() {
+        executionCreateService = mock(ExecutionCreateService.class);
+        executionService = mock(ExecutionService.class);
+        var executionBatchSubmitter = mock(ExecutionBatchSubmitter.class);
+        var agentConfig = new AgentConfig();
+        agentConfig.setSubmitConcurrency(2);
+        agentConfig.setSubmitQueueDepth(10);
+        executionSubmissionService = new ExecutionSubmissionService(executionCreateService, executionService,
+                executionBatchSubmitter, new AdmissionController(agentConfig), mock(HeadnodeImageCache.class), mock(PilotPool.class), agentConfig);
+        message = RunAnalysisCommandMessage.builder()
+                .datasetId("dataset")
+                .projectId("project")
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executionSubmissionService.close();
+    }
+
+    @Test
+    void testSubmit_acknowledgesAndMarksSubmitted() {
+        var execution = mockExecution();
+        var startOutput = new ExecutionStartOutput("output", "1234", null, null);
+        doReturn(startOutput).when(executionCreateService).start(execution);
+
+        executionSubmissionService.submit(message);
+        verify(executionService).sendMessage(argThat(msg -> msg instanceof AnalysisUpdateMessage update
+                && update.getStatus() == Status.PENDING && "dataset".equals(update.getDatasetId())));
+        verify(executionCreateService).register(message);
+        verify(executionService, timeout(1000)).markSubmitted(execution);
+        verify(executionCreateService).prepare(execution);
+        verify(executionCreateService).markStarted(execution, startOutput);
+    }
+
+    @Test
+    void testSubmit_sendsFailure() {
+        var execution = mockExecution();
+        var error = new ExecutionException("Submit failed");
+        doThrow(error).when(executionCreateService).start(any());
+
+        executionSubmissionService.submit(message);
+        verify(executionService, timeout(1000)).sendMessage(argThat(msg ->
+                msg instanceof AnalysisUpdateMessage update && update.getStatus() == Status.FAILED));
+        verify(executionCreateService).markFailed(execution, error);
+    }
+
+    @Test
+    void testSubmit_acknowledgedBeforeImmediateFailure() {
+        var execution = mockExecution();
+        doThrow(new ExecutionException("Submit failed")).when(executionCreateService).start(any());
+
+        executionSubmissionService.submit(message);
+        var captor = ArgumentCaptor.forClass(PortalMessage.class);
+        verify(executionService, timeout(1000).times(2)).sendMessage(captor.capture());
+        var statuses = captor.getAllValues().stream()
+                .map(msg -> ((AnalysisUpdateMessage) msg).getStatus())
+                .toList();
+        Assertions.assertEquals(List.of(Status.PENDING, Status.FAILED), statuses);
+        verify(executionCreateService).markFailed(eq(execution), any());
+    }
+
+    @Test
+    void testSubmit_stoppedWhileStarting() {
+        var execution = mockExecution();
+        var startOutput = new ExecutionStartOutput("output", "1234", null, null);
+        doReturn(startOutput).when(executionCreateService).start(execution);
+        doReturn(false).when(executionCreateService).markStarted(execution, startOutput);
+
+        executionSubmissionService.submit(message);
+        verify(executionService, timeout(1000)).stopJob(execution);
+        verify(executionService, never()).markSubmitted(any());
+    }
+
+    @Test
+    void testSubmit_stoppedWhileFailing() {
+        var execution = mockExecution();
+        var error = new ExecutionException("Submit failed");
+        doThrow(error).when(executionCreateService).start(any());
+        // Stopped by the user while the submit script was running
+        doReturn(false).when(executionCreateService).markFailed(execution, error);
+
+        executionSubmissionService.submit(message);
+        verify(executionCreateService, timeout(1000)).markFailed(execution, error);
+        verify(executionService, after(200).never()).sendMessage(argThat(msg ->
+                msg instanceof AnalysisUpdateMessage update && update.getStatus() == Status.FAILED));
+        Assertions.assertEquals(0, executionSubmissionService.getStats().failed());
+    }
+
+    @Test
+    void testSubmit_stoppedBeforeStart() {
+        var execution = mockExecution();
+        doReturn(true).when(executionCreateService).isFinished(execution);
+
+        executionSubmissionService.submit(message);
+        verify(executionCreateService, timeout(1000)).isFinished(execution);
+        verify(executionCreateService, never()).prepare(any());
+        verify(executionCreateService, never()).start(any());
+    }
+
+    @Test
+    void testSubmit_registerFails() {
+        doThrow(new IllegalStateException("Database unavailable")).when(executionCreateService).register(message);
+
+        executionSubmissionService.submit(message);
+        verify(executionService).sendMessage(argThat(msg ->
+                msg instanceof AnalysisUpdateMessage update && update.getStatus() == Status.FAILED));
+        verify(executionCreateService, never()).prepare(any());
+    }
+
+    private Execution mockExecution() {
+        var execution = mock(Execution.class);
+        doReturn(message).when(execution).getMessageData();
+        doReturn("dataset").when(execution).getExecutionId();
+        doReturn("dataset").when(execution).getDatasetId();
+        doReturn(execution).when(executionCreateService).register(message);
+        doReturn(execution).when(executionCreateService).prepare(execution);
+        doReturn(true).when(executionCreateService).markStarted(any(), any());
+        doReturn(true).when(executionCreateService).markFailed(any(), any());
+        return execution;
+    }
+}
@@ -0,0 +1,114 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.models.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class ExecutionSummaryRepositoryTest {
+    private static final String URL = "jdbc:h2:mem:summaries;DB_CLOSE_DELAY=-1";
+    private static final int EXECUTIONS = 250;
+
+    Connection connection;
+    ExecutionSummaryRepository executionSummaryRepository;
+    Instant start;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE executions (id VARCHAR(255) PRIMARY KEY, project_id VARCHAR(255), "
+                    + "username VARCHAR(255), job_id VARCHAR(255), message_data_json VARCHAR(10000), status VARCHAR(255), "
+                    + "start_output_json VARCHAR(10000), finish_output_json VARCHAR(10000), "
+                    + "created_at TIMESTAMP, finished_at TIMESTAMP)");
+        }
+        start = Instant.parse("2024-01-01T00:00:00Z");
+        try (var insert = connection.prepareStatement(
+                "INSERT INTO executions (id, project_id, username, status, created_at) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < EXECUTIONS; i++) {
+                insert.setString(1, String.format("execution-%03d", i));
+                insert.setString(2, i % 2 == 0 ? "even" : "odd");
+                insert.setString(3, "user-" + (i % 5));
+                insert.setString(4, i % 10 == 0 ? Status.RUNNING.name() : Status.COMPLETED.name());
+                // Pairs of executions share a creation time, the ID breaks the tie
+                insert.setTimestamp(5, Timestamp.from(start.plusSeconds(i / 2)));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        var dataSource = mock(DataSource.class);
+        doAnswer(invocation -> DriverManager.getConnection(URL)).when(dataSource).getConnection();
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(Path.of("/work"));
+        executionSummaryRepository = new ExecutionSummaryRepository(dataSource, agentConfig);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute("DROP TABLE executions");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testList_pagesThroughAllExecutions() {
+        var seen = new HashSet<String>();
+        String cursor = null;
+        var pages = 0;
+        Instant previous = Instant.MAX;
+        do {
+            var page = executionSummaryRepository.list(ExecutionFilter.builder().limit(100).cursor(cursor).build());
+            for (var execution : page.executions()) {
+                Assertions.assertTrue(seen.add(execution.datasetId()), "Duplicate " + execution.datasetId());
+                Assertions.assertFalse(execution.createdAt().isAfter(previous));
+                previous = execution.createdAt();
+            }
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        Assertions.assertEquals(EXECUTIONS, seen.size());
+        Assertions.assertEquals(3, pages);
+    }
+
+    @Test
+    void testList_filters() {
+        var filter = ExecutionFilter.builder()
+                .statuses(Set.of(Status.RUNNING))
+                .projectId("even")
+                .createdAfter(start.plusSeconds(50))
+                .ascending(true)
+                .build();
+        var page = executionSummaryRepository.list(filter);
+
+        // Every tenth execution is running, and all of them are in the even project
+        Assertions.assertEquals(15, page.executions().size());
+        Assertions.assertEquals("execution-100", page.executions().getFirst().datasetId());
+        Assertions.assertEquals("/work/projects/even/datasets/execution-100", page.executions().getFirst().workingDirectory());
+        Assertions.assertNull(page.nextCursor());
+        page.executions().forEach(execution -> Assertions.assertEquals("RUNNING", execution.status()));
+    }
+
+    @Test
+    void testList_invalidCursor() {
+        var filter = ExecutionFilter.builder().cursor("not-a-cursor").build();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> executionSummaryRepository.list(filter));
+    }
+}
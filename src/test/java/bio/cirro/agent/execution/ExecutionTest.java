@@ -28,6 +28,18 @@ class ExecutionTest {
         Assertions.assertEquals("\\\"exit", env.get("INJECT"));
     }
 
+    @Test
+    void testEnvironmentContainerCredentials() {
+        var execution = makeExecution(Map.of());
+        Assertions.assertNull(execution.getEnvironment("token", "http://localhost:8080")
+                .get("AWS_CONTAINER_CREDENTIALS_FULL_URI"));
+
+        var env = execution.getEnvironment("token", "http://localhost:8080", true);
+        Assertions.assertEquals("http://localhost:8080/executions/123/container-credentials",
+                env.get("AWS_CONTAINER_CREDENTIALS_FULL_URI"));
+        Assertions.assertEquals("token", env.get("AWS_CONTAINER_AUTHORIZATION_TOKEN"));
+    }
+
     private Execution makeExecution(Map<String, String> environment) {
         var messageData = RunAnalysisCommandMessage.builder()
                 .datasetId("123")
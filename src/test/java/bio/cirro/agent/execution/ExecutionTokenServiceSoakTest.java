@@ -0,0 +1,111 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.aws.AwsCredentials;
+import bio.cirro.agent.aws.AwsTokenClient;
+import bio.cirro.agent.aws.StsRateLimiter;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs tens of thousands of executions through the credential cache and checks that its memory stays flat:
+ * the cache holds the same number of entries at each checkpoint, each of the same size,
+ * and the credentials of evicted executions can be garbage collected.
+ */
+class ExecutionTokenServiceSoakTest {
+    private static final int EXECUTIONS = 50_000;
+    private static final int CACHE_SIZE = 1_000;
+    private static final int CHECKPOINT = 10_000;
+    // Executions whose credentials are followed after they have been evicted
+    private static final int TRACKED = 100;
+
+    @Test
+    void testCredentialCache_staysBounded() throws InterruptedException {
+        var agentConfig = new AgentConfig();
+        agentConfig.setCredentialRefreshPercent(75);
+        agentConfig.setCredentialCacheSize(CACHE_SIZE);
+        // Stub only, so that the mock does not keep every invocation
+        var executionRepository = mock(ExecutionRepository.class, withSettings().stubOnly());
+        doAnswer(invocation -> makeExecution(invocation.getArgument(0))).when(executionRepository).get(anyString());
+        var tokenClient = new AwsTokenClient(null, null, null) {
+            @Override
+            public AwsSessionCredentials generateCredentialsForExecution(Execution execution) {
+                return AwsSessionCredentials.builder()
+                        .accessKeyId("key-" + execution.getExecutionId())
+                        .secretAccessKey("secret")
+                        .sessionToken("token".repeat(200))
+                        .expirationTime(Instant.now().plus(Duration.ofHours(1)))
+                        .build();
+            }
+        };
+        var executionTokenService = new ExecutionTokenService(executionRepository, null,
+                new StsRateLimiter(agentConfig), new CredentialsFileWriter(agentConfig), agentConfig) {
+            @Override
+            protected AwsTokenClient createTokenClient(Execution execution) {
+                return tokenClient;
+            }
+        };
+
+        var tracked = new ArrayList<WeakReference<AwsCredentials>>();
+        for (int i = 0; i < EXECUTIONS; i++) {
+            var executionId = "execution-" + i;
+            var credentials = executionTokenService.generateS3Credentials(executionId);
+            executionTokenService.generateS3Credentials(executionId);
+            if (i < TRACKED) {
+                tracked.add(new WeakReference<>(credentials));
+            }
+            if (i % 2 == 0) {
+                executionTokenService.onStatusChanged(new ExecutionStatusChangedEvent(executionId, "project", "user", Status.COMPLETED));
+            }
+            Assertions.assertTrue(executionTokenService.getStats().cache().size() <= CACHE_SIZE);
+            if (i % CHECKPOINT == CHECKPOINT - 1) {
+                // Credentials are all the same size, so the retained size is the same at each checkpoint
+                Assertions.assertEquals(CACHE_SIZE, executionTokenService.getStats().cache().size());
+                executionTokenService.evictExpired(Instant.now().plus(Duration.ofMinutes(2)));
+            }
+        }
+
+        var stats = executionTokenService.getStats();
+        Assertions.assertEquals(EXECUTIONS, stats.hits());
+        Assertions.assertEquals(EXECUTIONS, stats.generated());
+        // Finished executions are dropped at the end of their grace period, the others only when the cache is full
+        Assertions.assertTrue(stats.cache().expired() > 0);
+        Assertions.assertTrue(stats.cache().evictions() > 0);
+        Assertions.assertTrue(stats.cache().size() <= CACHE_SIZE);
+
+        // Nothing else holds on to the credentials of executions that have left the cache
+        for (int attempt = 0; attempt < 20 && tracked.stream().anyMatch(reference -> reference.get() != null); attempt++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assertions.assertTrue(tracked.stream().allMatch(reference -> reference.get() == null));
+    }
+
+    private static Execution makeExecution(String executionId) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(executionId)
+                .projectId("project")
+                .username("user")
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(Path.of("work"))
+                .agentSharedDirectory(Path.of("shared"))
+                .status(Status.RUNNING)
+                .build();
+    }
+}
@@ -0,0 +1,171 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.aws.S3Path;
+import bio.cirro.agent.aws.StsRateLimiter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.StsServiceClientConfiguration;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+import software.amazon.awssdk.services.sts.model.StsException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks the number of calls made to STS, against a fake STS that counts calls and can throttle them
+ */
+class ExecutionTokenServiceStsTest {
+    FakeStsClient stsClient;
+    AgentConfig agentConfig;
+    ExecutionRepository executionRepository;
+
+    @BeforeEach
+    void setUp() {
+        stsClient = new FakeStsClient();
+        agentConfig = new AgentConfig();
+        agentConfig.setId("agent");
+        agentConfig.setCredentialRefreshPercent(75);
+        agentConfig.setCredentialCacheSize(1000);
+        executionRepository = mock(ExecutionRepository.class);
+        var executions = new ConcurrentHashMap<String, Execution>();
+        doAnswer(invocation -> executions.computeIfAbsent(invocation.getArgument(0), ExecutionTokenServiceStsTest::makeExecution))
+                .when(executionRepository).get(anyString());
+    }
+
+    @Test
+    void testGenerateS3Credentials_concurrentCallersShareOneCall() throws Exception {
+        stsClient.latency = Duration.ofMillis(200);
+        var executionTokenService = createService();
+        var start = new CountDownLatch(1);
+        var requests = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 500; i++) {
+            requests.add(CompletableFuture.supplyAsync(() -> {
+                awaitQuietly(start);
+                return executionTokenService.generateS3Credentials("123").getAccessKeyId();
+            }, runnable -> Thread.ofVirtual().start(runnable)));
+        }
+        start.countDown();
+        for (var request : requests) {
+            Assertions.assertEquals("key-1", request.get());
+        }
+
+        Assertions.assertEquals(1, stsClient.calls.get());
+        var stats = executionTokenService.getStats();
+        Assertions.assertEquals(1, stats.generated());
+        Assertions.assertEquals(500, stats.hits() + stats.misses());
+    }
+
+    @Test
+    void testGenerateS3Credentials_retriesThrottledCalls() {
+        stsClient.throttledCalls = 2;
+        var stsRateLimiter = new StsRateLimiter(agentConfig);
+        var executionTokenService = new ExecutionTokenService(executionRepository, stsClient, stsRateLimiter,
+                new CredentialsFileWriter(agentConfig), agentConfig);
+
+        var credentials = executionTokenService.generateS3Credentials("123");
+
+        Assertions.assertEquals("key-3", credentials.getAccessKeyId());
+        Assertions.assertEquals(3, stsClient.calls.get());
+        Assertions.assertEquals(2, stsRateLimiter.getStats().throttled());
+    }
+
+    @Test
+    void testGenerateS3Credentials_rateLimitedAcrossExecutions() {
+        agentConfig.setStsRequestsPerSecond(10);
+        agentConfig.setStsBurst(5);
+        var executionTokenService = createService();
+
+        var started = System.nanoTime();
+        for (int i = 0; i < 15; i++) {
+            executionTokenService.generateS3Credentials("execution-" + i);
+        }
+        var elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+        // 5 calls from the burst, then 10 at 10 per second
+        Assertions.assertEquals(15, stsClient.calls.get());
+        Assertions.assertTrue(elapsed.compareTo(Duration.ofMillis(900)) >= 0, "Took " + elapsed);
+    }
+
+    private ExecutionTokenService createService() {
+        return new ExecutionTokenService(executionRepository, stsClient, new StsRateLimiter(agentConfig),
+                new CredentialsFileWriter(agentConfig), agentConfig);
+    }
+
+    private static Execution makeExecution(String executionId) {
+        var execution = mock(Execution.class);
+        doReturn(executionId).when(execution).getExecutionId();
+        doReturn(executionId).when(execution).getDatasetId();
+        doReturn("user").when(execution).getUsername();
+        doReturn("project").when(execution).getProjectId();
+        doReturn("arn:aws:iam::123456789012:role/Cirro-LocalAgentRole-project").when(execution).getFileAccessRoleArn();
+        doReturn(S3Path.parse("s3://project/datasets/" + executionId)).when(execution).getDatasetS3Path();
+        return execution;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static class FakeStsClient implements StsClient {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile Duration latency = Duration.ZERO;
+        volatile int throttledCalls;
+
+        @Override
+        public AssumeRoleResponse assumeRole(AssumeRoleRequest request) {
+            var call = calls.incrementAndGet();
+            if (call <= throttledCalls) {
+                throw (StsException) StsException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("Throttling").build())
+                        .build();
+            }
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            var credentials = Credentials.builder()
+                    .accessKeyId("key-" + call)
+                    .secretAccessKey("secret")
+                    .sessionToken("token")
+                    .expiration(Instant.now().plus(Duration.ofHours(1)))
+                    .build();
+            return AssumeRoleResponse.builder().credentials(credentials).build();
+        }
+
+        @Override
+        public StsServiceClientConfiguration serviceClientConfiguration() {
+            return StsServiceClientConfiguration.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
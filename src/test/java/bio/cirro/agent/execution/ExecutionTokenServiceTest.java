@@ -3,6 +3,8 @@ package bio.cirro.agent.execution;
 import bio.cirro.agent.AgentConfig;
 import bio.cirro.agent.aws.AwsTokenClient;
 import bio.cirro.agent.aws.S3Path;
+import bio.cirro.agent.aws.StsRateLimiter;
+import bio.cirro.agent.models.Status;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,25 +16,34 @@ import java.time.Instant;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 class ExecutionTokenServiceTest {
     private static final String MOCK_ID = "test";
     ExecutionTokenService executionTokenService;
     Execution mockExecution;
+    AwsTokenClient tokenClient;
+    AgentConfig agentConfig;
 
     @BeforeEach
     void setUp() {
         var executionRepository = mock(ExecutionRepository.class);
         var stsClient = mock(StsClient.class);
-        var agentConfig = mock(AgentConfig.class);
+        agentConfig = mock(AgentConfig.class);
+        doReturn(75).when(agentConfig).getCredentialRefreshPercent();
+        doReturn(100).when(agentConfig).getCredentialCacheSize();
         mockExecution = mock(Execution.class);
         doReturn(MOCK_ID).when(mockExecution).getDatasetId();
+        doReturn(MOCK_ID).when(mockExecution).getExecutionId();
         doReturn(mockExecution).when(executionRepository).get(MOCK_ID);
         doReturn(S3Path.parse("s3://project/dataset")).when(mockExecution).getDatasetS3Path();
-        executionTokenService = spy(new ExecutionTokenService(executionRepository, stsClient, agentConfig));
-        var tokenClient = mock(AwsTokenClient.class);
+        executionTokenService = spy(new ExecutionTokenService(executionRepository, stsClient,
+                new StsRateLimiter(agentConfig), new CredentialsFileWriter(agentConfig), agentConfig));
+        tokenClient = mock(AwsTokenClient.class);
         doReturn(tokenClient).when(executionTokenService).createTokenClient(any());
         doReturn(mock(AwsSessionCredentials.class)).when(tokenClient).generateCredentialsForExecution(any());
     }
@@ -56,4 +67,61 @@ class ExecutionTokenServiceTest {
         Assertions.assertThrows(RuntimeException.class,
                 () -> executionTokenService.generateS3Credentials(MOCK_ID));
     }
+
+    @Test
+    void testPrewarm_servedFromCache() {
+        doReturn(credentials("first", Duration.ofHours(1))).when(tokenClient).generateCredentialsForExecution(any());
+        executionTokenService.prewarm(mockExecution).join();
+
+        Assertions.assertEquals("first", executionTokenService.generateS3Credentials(MOCK_ID).getAccessKeyId());
+        Assertions.assertEquals("first", executionTokenService.generateS3Credentials(MOCK_ID).getAccessKeyId());
+        verify(tokenClient, times(1)).generateCredentialsForExecution(any());
+        Assertions.assertEquals(2, executionTokenService.getStats().hits());
+    }
+
+    @Test
+    void testRefreshDue_refreshesAheadOfExpiry() {
+        // Due for a refresh as soon as they are generated
+        doReturn(0).when(agentConfig).getCredentialRefreshPercent();
+        doReturn(credentials("first", Duration.ofMinutes(10))).when(tokenClient).generateCredentialsForExecution(any());
+        executionTokenService.prewarm(mockExecution).join();
+        doReturn(credentials("second", Duration.ofHours(1))).when(tokenClient).generateCredentialsForExecution(any());
+
+        executionTokenService.refreshDue();
+
+        Assertions.assertEquals("second", executionTokenService.generateS3Credentials(MOCK_ID).getAccessKeyId());
+    }
+
+    @Test
+    void testRefreshDue_failureKeepsValidCredentials() {
+        doReturn(0).when(agentConfig).getCredentialRefreshPercent();
+        doReturn(credentials("first", Duration.ofMinutes(10))).when(tokenClient).generateCredentialsForExecution(any());
+        executionTokenService.prewarm(mockExecution).join();
+        doThrow(new IllegalStateException("Rate exceeded")).when(tokenClient).generateCredentialsForExecution(any());
+
+        executionTokenService.refreshDue();
+
+        Assertions.assertEquals("first", executionTokenService.generateS3Credentials(MOCK_ID).getAccessKeyId());
+        Assertions.assertEquals(1, executionTokenService.getStats().refreshFailures());
+    }
+
+    @Test
+    void testOnStatusChanged_evictsAfterGracePeriod() {
+        doReturn(credentials("first", Duration.ofHours(1))).when(tokenClient).generateCredentialsForExecution(any());
+        executionTokenService.prewarm(mockExecution).join();
+
+        executionTokenService.onStatusChanged(new ExecutionStatusChangedEvent(MOCK_ID, "project", "user", Status.COMPLETED));
+        Assertions.assertEquals(0, executionTokenService.evictExpired(Instant.now()));
+        Assertions.assertEquals(1, executionTokenService.evictExpired(Instant.now().plus(Duration.ofMinutes(2))));
+        Assertions.assertEquals(0, executionTokenService.getStats().cache().size());
+    }
+
+    private static AwsSessionCredentials credentials(String accessKeyId, Duration lifetime) {
+        return AwsSessionCredentials.builder()
+                .accessKeyId(accessKeyId)
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expirationTime(Instant.now().plus(lifetime))
+                .build();
+    }
 }
@@ -0,0 +1,92 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.image.HeadnodeImageCache;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+
+class WorkspaceMaterializerTest {
+    @TempDir
+    Path workDirectory;
+
+    WorkspaceMaterializer workspaceMaterializer;
+
+    @BeforeEach
+    void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(workDirectory);
+        agentConfig.setEndpoint("http://localhost:8080");
+        workspaceMaterializer = new WorkspaceMaterializer(agentConfig, mock(HeadnodeImageCache.class));
+    }
+
+    @Test
+    void testMaterialize() throws IOException {
+        var execution = makeExecution("123");
+        workspaceMaterializer.materialize(execution, "token");
+
+        var environment = Files.readString(execution.getEnvironmentPath());
+        Assertions.assertTrue(environment.contains("export AGENT_TOKEN=\"token\""));
+        Assertions.assertTrue(Files.getPosixFilePermissions(execution.getEnvironmentPath())
+                .contains(PosixFilePermission.OWNER_EXECUTE));
+
+        var awsConfig = Files.readString(execution.getAwsConfigPath());
+        Assertions.assertTrue(awsConfig.contains(execution.getCredentialsHelperPath().toString()));
+
+        var template = workDirectory.resolve(".agent/templates/credentials-helper.sh");
+        Assertions.assertTrue(Files.isSameFile(template, execution.getCredentialsHelperPath()));
+        Assertions.assertTrue(Files.isExecutable(execution.getCredentialsHelperPath()));
+
+        // No temporary files left behind
+        try (var files = Files.list(execution.getWorkingDirectory())) {
+            Assertions.assertEquals(3, files.count());
+        }
+
+        var stats = workspaceMaterializer.getStats();
+        Assertions.assertEquals(1, stats.materialized());
+        Assertions.assertEquals(3, stats.filesWritten());
+        Assertions.assertEquals("HARD_LINK", stats.linkMode());
+    }
+
+    @Test
+    void testMaterialize_existingWorkingDirectory() throws IOException {
+        var execution = makeExecution("123");
+        workspaceMaterializer.materialize(execution, "token");
+        workspaceMaterializer.materialize(execution, "token2");
+
+        var environment = Files.readString(execution.getEnvironmentPath());
+        Assertions.assertTrue(environment.contains("export AGENT_TOKEN=\"token2\""));
+        Assertions.assertTrue(Files.isRegularFile(execution.getCredentialsHelperPath()));
+        Assertions.assertTrue(Files.isSameFile(workDirectory.resolve(".agent/templates/credentials-helper.sh"),
+                execution.getCredentialsHelperPath()));
+        Assertions.assertEquals(2, workspaceMaterializer.getStats().materialized());
+        Assertions.assertEquals(6, workspaceMaterializer.getStats().filesWritten());
+    }
+
+    private Execution makeExecution(String datasetId) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("456")
+                .username("username")
+                .datasetPath("datasetPath")
+                .fileAccessRoleArn("fileAccessRoleArn")
+                .region("region")
+                .environment(Map.of())
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(workDirectory)
+                .agentSharedDirectory(workDirectory)
+                .build();
+    }
+}
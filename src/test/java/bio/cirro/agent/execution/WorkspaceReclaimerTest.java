@@ -0,0 +1,103 @@
+package bio.cirro.agent.execution;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+class WorkspaceReclaimerTest {
+    @TempDir
+    Path workDirectory;
+
+    WorkspaceReclaimer workspaceReclaimer;
+
+    @BeforeEach
+    void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(workDirectory);
+        agentConfig.setCleanupDeleteFiles(true);
+        agentConfig.setCleanupDeleteConcurrency(2);
+        agentConfig.setCleanupDeleteOpsPerSecond(1000);
+        workspaceReclaimer = new WorkspaceReclaimer(agentConfig);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workspaceReclaimer.close();
+    }
+
+    @Test
+    void testReclaim() throws Exception {
+        var execution = makeExecution("123");
+        var workingDirectory = execution.getWorkingDirectory();
+        writeTree(workingDirectory);
+
+        workspaceReclaimer.reclaim(execution);
+        Assertions.assertFalse(Files.exists(workingDirectory));
+        // The project directory is kept
+        Assertions.assertTrue(Files.exists(execution.getProjectRoot()));
+
+        awaitReclaimed(1);
+        var stats = workspaceReclaimer.getStats();
+        Assertions.assertEquals(3, stats.filesDeleted());
+        Assertions.assertEquals(300, stats.bytesReclaimed());
+        try (var entries = Files.list(workspaceReclaimer.getTrashDirectory())) {
+            Assertions.assertEquals(0, entries.count());
+        }
+    }
+
+    @Test
+    void testReclaim_missingDirectory() throws IOException {
+        workspaceReclaimer.reclaim(makeExecution("123"));
+        Assertions.assertEquals(0, workspaceReclaimer.getStats().pending());
+    }
+
+    @Test
+    void testResume_deletesLeftovers() throws Exception {
+        var leftover = workspaceReclaimer.getTrashDirectory().resolve("123-interrupted");
+        writeTree(leftover);
+
+        workspaceReclaimer.resume();
+
+        awaitReclaimed(1);
+        Assertions.assertFalse(Files.exists(leftover));
+    }
+
+    private void awaitReclaimed(long count) throws InterruptedException {
+        var deadline = Instant.now().plus(Duration.ofSeconds(10));
+        while (workspaceReclaimer.getStats().workspacesReclaimed() < count) {
+            if (Instant.now().isAfter(deadline)) {
+                Assertions.fail("Working directory was not deleted");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void writeTree(Path directory) throws IOException {
+        Files.createDirectories(directory.resolve("work/ab/cdef"));
+        Files.write(directory.resolve("nextflow.log"), new byte[100]);
+        Files.write(directory.resolve("work/ab/cdef/.command.sh"), new byte[100]);
+        Files.write(directory.resolve("work/ab/cdef/output.txt"), new byte[100]);
+    }
+
+    private Execution makeExecution(String datasetId) {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId(datasetId)
+                .projectId("456")
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(workDirectory)
+                .agentSharedDirectory(workDirectory)
+                .build();
+    }
+}
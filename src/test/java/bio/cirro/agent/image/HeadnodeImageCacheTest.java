@@ -0,0 +1,132 @@
+package bio.cirro.agent.image;
+
+import bio.cirro.agent.AgentConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class HeadnodeImageCacheTest {
+    @TempDir
+    Path sharedDirectory;
+
+    AgentConfig agentConfig;
+    FakeImagePuller imagePuller;
+    HeadnodeImageCache headnodeImageCache;
+
+    @BeforeEach
+    void setUp() {
+        agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteSharedDirectory(sharedDirectory);
+        agentConfig.setImageDigestCheckInterval(0);
+        agentConfig.setImageCacheMaxMb(1);
+        imagePuller = new FakeImagePuller();
+        headnodeImageCache = new HeadnodeImageCache(agentConfig, imagePuller);
+    }
+
+    @AfterEach
+    void tearDown() {
+        headnodeImageCache.close();
+    }
+
+    @Test
+    void testEnsure_sharesConcurrentPulls() throws InterruptedException {
+        imagePuller.release = new CountDownLatch(1);
+        var first = headnodeImageCache.ensure("registry/image:1");
+        var second = headnodeImageCache.ensure("registry/image:1");
+        Assertions.assertTrue(imagePuller.started.await(5, TimeUnit.SECONDS));
+        imagePuller.release.countDown();
+
+        var path = first.join();
+        Assertions.assertEquals(path, second.join());
+        Assertions.assertTrue(Files.exists(path));
+        Assertions.assertEquals(1, imagePuller.pulls.get());
+        Assertions.assertEquals(1, headnodeImageCache.getStats().sharedPulls());
+    }
+
+    @Test
+    void testEnsure_skipsPullWhenDigestUnchanged() {
+        var path = headnodeImageCache.ensure("registry/image:1").join();
+        Assertions.assertEquals(path, headnodeImageCache.ensure("registry/image:1").join());
+        Assertions.assertEquals(1, imagePuller.pulls.get());
+
+        imagePuller.digest = "sha256:changed";
+        headnodeImageCache.ensure("registry/image:1").join();
+        Assertions.assertEquals(2, imagePuller.pulls.get());
+    }
+
+    @Test
+    void testEnsure_failedPullLeavesNoFile() {
+        imagePuller.fail = true;
+        var future = headnodeImageCache.ensure("registry/image:1");
+        Assertions.assertThrows(Exception.class, future::join);
+        try (var files = Files.list(sharedDirectory.resolve("headnode_images"))) {
+            Assertions.assertEquals(0, files.count());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    void testEvict_removesLeastRecentlyUsed() throws IOException {
+        imagePuller.size = 400 * 1024;
+        var oldest = headnodeImageCache.ensure("registry/image:1").join();
+        var middle = headnodeImageCache.ensure("registry/image:2").join();
+        setLastUsed(oldest, Instant.now().minusSeconds(120));
+        setLastUsed(middle, Instant.now().minusSeconds(60));
+        var newest = headnodeImageCache.ensure("registry/image:3").join();
+
+        Assertions.assertFalse(Files.exists(oldest));
+        Assertions.assertTrue(Files.exists(middle));
+        Assertions.assertTrue(Files.exists(newest));
+        Assertions.assertEquals(1, headnodeImageCache.getStats().evicted());
+    }
+
+    private static void setLastUsed(Path image, Instant instant) throws IOException {
+        Files.setLastModifiedTime(image.resolveSibling(image.getFileName() + ".digest"), FileTime.from(instant));
+    }
+
+    static class FakeImagePuller implements ImagePuller {
+        final AtomicInteger pulls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch release;
+        volatile String digest = "sha256:original";
+        volatile int size = 16;
+        volatile boolean fail;
+
+        @Override
+        public String getDigest(String image) {
+            return digest;
+        }
+
+        @Override
+        public void pull(String image, Path destination) {
+            started.countDown();
+            try {
+                if (release != null) {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                Files.write(destination, new byte[size]);
+                if (fail) {
+                    throw new IllegalStateException("Pull failed");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pulls.incrementAndGet();
+        }
+    }
+}
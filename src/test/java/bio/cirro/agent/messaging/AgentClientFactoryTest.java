@@ -0,0 +1,136 @@
+package bio.cirro.agent.messaging;
+
+import bio.cirro.agent.aws.AwsRequestSigner;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.micronaut.core.type.Argument;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.client.BlockingHttpClient;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.exceptions.HttpClientException;
+import io.micronaut.websocket.WebSocketClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@SuppressWarnings("unchecked")
+class AgentClientFactoryTest {
+    WebSocketClient webSocketClient;
+    BlockingHttpClient tokenEndpoint;
+    AgentClientFactory agentClientFactory;
+    ConnectionInfo connectionInfo;
+
+    @BeforeEach
+    void setUp() {
+        webSocketClient = mock(WebSocketClient.class);
+        doReturn(Flux.just(mock(AgentClient.class)))
+                .when(webSocketClient).connect(eq(AgentClient.class), any(MutableHttpRequest.class));
+        var awsRequestSigner = mock(AwsRequestSigner.class);
+        doAnswer(invocation -> invocation.getArgument(0))
+                .when(awsRequestSigner).signRequest(any(), anyString());
+        tokenEndpoint = mock(BlockingHttpClient.class);
+        var httpClient = mock(HttpClient.class);
+        doReturn(tokenEndpoint).when(httpClient).toBlocking();
+        agentClientFactory = new AgentClientFactory(webSocketClient, awsRequestSigner, httpClient);
+        connectionInfo = ConnectionInfo.builder()
+                .baseUrl("http://localhost")
+                .tokenBaseUrl("http://localhost")
+                .agentId("agent")
+                .userAgent("test")
+                .region("us-east-1")
+                .build();
+    }
+
+    @Test
+    void testRenew_notNeededWhileTokenIsValid() {
+        var token = makeToken(Duration.ofHours(1));
+        doReturn(Map.of("token", token)).when(tokenEndpoint).retrieve(any(HttpRequest.class), any(Argument.class));
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+
+        agentClientFactory.renewTokenIfExpiring();
+
+        verify(tokenEndpoint, times(1)).retrieve(any(HttpRequest.class), any(Argument.class));
+        Assertions.assertEquals(0, agentClientFactory.getStats().tokensRenewed());
+    }
+
+    @Test
+    void testRenew_withinRenewalWindow() {
+        var expiring = makeToken(Duration.ofMinutes(2));
+        var renewed = makeToken(Duration.ofHours(1));
+        doReturn(Map.of("token", expiring), Map.of("token", renewed))
+                .when(tokenEndpoint).retrieve(any(HttpRequest.class), any(Argument.class));
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+
+        agentClientFactory.renewTokenIfExpiring();
+
+        var stats = agentClientFactory.getStats();
+        Assertions.assertEquals(1, stats.tokensRenewed());
+        Assertions.assertEquals(JWT.decode(renewed).getExpiresAtAsInstant(), stats.tokenExpiresAt());
+    }
+
+    @Test
+    void testRenew_failureKeepsCurrentToken() {
+        var expiring = makeToken(Duration.ofMinutes(2));
+        doReturn(Map.of("token", expiring))
+                .doThrow(new HttpClientException("Token endpoint unavailable"))
+                .when(tokenEndpoint).retrieve(any(HttpRequest.class), any(Argument.class));
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+
+        Assertions.assertDoesNotThrow(() -> agentClientFactory.renewTokenIfExpiring());
+
+        var stats = agentClientFactory.getStats();
+        Assertions.assertEquals(0, stats.tokensRenewed());
+        Assertions.assertEquals(JWT.decode(expiring).getExpiresAtAsInstant(), stats.tokenExpiresAt());
+        // Still valid, so reconnecting does not wait on the token endpoint
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+        Assertions.assertEquals("Bearer " + expiring, getLastAuthorization(2));
+        Assertions.assertEquals(1, agentClientFactory.getStats().tokensFetchedOnConnect());
+    }
+
+    @Test
+    void testConnect_reusesRenewedToken() {
+        var expiring = makeToken(Duration.ofMinutes(2));
+        var renewed = makeToken(Duration.ofHours(1));
+        doReturn(Map.of("token", expiring), Map.of("token", renewed))
+                .when(tokenEndpoint).retrieve(any(HttpRequest.class), any(Argument.class));
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+        agentClientFactory.renewTokenIfExpiring();
+
+        agentClientFactory.connect(connectionInfo, message -> Optional.empty());
+
+        Assertions.assertEquals("Bearer " + renewed, getLastAuthorization(2));
+        verify(tokenEndpoint, times(2)).retrieve(any(HttpRequest.class), any(Argument.class));
+        Assertions.assertEquals(1, agentClientFactory.getStats().tokensFetchedOnConnect());
+    }
+
+    private String getLastAuthorization(int connections) {
+        var captor = ArgumentCaptor.forClass(MutableHttpRequest.class);
+        verify(webSocketClient, times(connections)).connect(eq(AgentClient.class), captor.capture());
+        return captor.getValue().getHeaders().get("Authorization");
+    }
+
+    private static String makeToken(Duration validFor) {
+        return JWT.create()
+                .withSubject("agent")
+                .withExpiresAt(Instant.now().plus(validFor).truncatedTo(ChronoUnit.SECONDS))
+                .sign(Algorithm.HMAC256("secret"));
+    }
+}
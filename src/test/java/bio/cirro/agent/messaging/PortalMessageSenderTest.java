@@ -0,0 +1,92 @@
+package bio.cirro.agent.messaging;
+
+import bio.cirro.agent.messaging.dto.AckMessage;
+import bio.cirro.agent.messaging.dto.PortalMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class PortalMessageSenderTest {
+    AgentClient socket;
+    PortalMessageSender portalMessageSender;
+    List<PortalMessage> sent;
+
+    @BeforeEach
+    void setUp() {
+        socket = mock(AgentClient.class);
+        doReturn(true).when(socket).isOpen();
+        var agentClientFactory = mock(AgentClientFactory.class);
+        doReturn(socket).when(agentClientFactory).getClientSocket();
+        portalMessageSender = new PortalMessageSender(agentClientFactory);
+        sent = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        portalMessageSender.close();
+    }
+
+    @Test
+    void testSend_failedMessageIsKeptInOrder() throws InterruptedException {
+        var first = new AckMessage("first");
+        var second = new AckMessage("second");
+        doAnswer(invocation -> {
+            throw new IllegalStateException("Session closed");
+        }).doAnswer(invocation -> sent.add(invocation.getArgument(0)))
+                .when(socket).sendMessage(any());
+
+        portalMessageSender.send(first);
+        verify(socket, timeout(1000)).sendMessage(first);
+        Assertions.assertEquals(1, portalMessageSender.getPendingMessageCount());
+
+        portalMessageSender.send(second);
+        awaitSent();
+        verify(socket, times(3)).sendMessage(any());
+        Assertions.assertEquals(List.of(first, second), sent);
+    }
+
+    @Test
+    void testSend_doesNotWaitForConnection() throws InterruptedException {
+        var released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            released.await();
+            return sent.add(invocation.getArgument(0));
+        }).when(socket).sendMessage(any());
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            portalMessageSender.send(new AckMessage("first"));
+            portalMessageSender.send(new AckMessage("second"));
+        });
+        // The message being sent is only removed once it has been sent
+        verify(socket, timeout(1000)).sendMessage(any());
+        Assertions.assertEquals(2, portalMessageSender.getPendingMessageCount());
+
+        released.countDown();
+        awaitSent();
+        Assertions.assertEquals(List.of(new AckMessage("first"), new AckMessage("second")), sent);
+    }
+
+    private void awaitSent() throws InterruptedException {
+        var deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+        while (portalMessageSender.getPendingMessageCount() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Messages were not sent");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
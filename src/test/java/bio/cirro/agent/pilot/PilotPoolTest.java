@@ -0,0 +1,200 @@
+package bio.cirro.agent.pilot;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.execution.Execution;
+import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.messaging.dto.RunAnalysisCommandMessage;
+import bio.cirro.agent.models.Status;
+import bio.cirro.agent.process.ProcessSupervisor;
+import io.micronaut.scheduling.TaskScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class PilotPoolTest {
+    @TempDir
+    Path directory;
+
+    AgentConfig agentConfig;
+    ProcessSupervisor processSupervisor;
+    ExecutionService executionService;
+    PilotPool pilotPool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        agentConfig = new AgentConfig();
+        agentConfig.setAbsoluteWorkDirectory(directory);
+        agentConfig.setAbsoluteSharedDirectory(directory);
+        agentConfig.setPilotSubmitScriptName("submit_pilot.sh");
+        agentConfig.setPilotMaxSize(2);
+        agentConfig.setPilotIdleTimeout(600);
+        agentConfig.setPilotHeartbeatTimeout(60);
+        agentConfig.setPilotAckTimeout(60);
+        agentConfig.setSubmitScriptTimeout(10);
+        agentConfig.setMaxConcurrentScripts(2);
+        agentConfig.setScriptKillGrace(1);
+        var script = directory.resolve("submit_pilot.sh");
+        Files.writeString(script, "#!/bin/sh\necho 4242\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        processSupervisor = new ProcessSupervisor(agentConfig);
+        executionService = mock(ExecutionService.class);
+        pilotPool = new PilotPool(agentConfig, processSupervisor, mock(TaskScheduler.class), executionService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        processSupervisor.close();
+    }
+
+    @Test
+    void testDispatch_toIdlePilot() throws Exception {
+        var execution = makeExecution();
+        Assertions.assertTrue(pilotPool.tryDispatch(execution).isEmpty());
+        var pilot = awaitQueuedPilot();
+        Files.createFile(pilot.resolve(Pilot.READY_FILE));
+        Files.createFile(pilot.resolve(Pilot.HEARTBEAT_FILE));
+        pilotPool.maintain();
+
+        var startOutput = pilotPool.tryDispatch(execution).orElseThrow();
+        Assertions.assertEquals("4242", startOutput.localJobId());
+        Assertions.assertEquals(execution.getEnvironmentPath().toString(),
+                Files.readString(pilot.resolve(Pilot.ASSIGNMENT_FILE)));
+        Assertions.assertEquals(Pilot.PilotState.BUSY, pilot.getState());
+
+        // The pilot picks up the assignment, runs it and finishes
+        Files.move(pilot.resolve(Pilot.ASSIGNMENT_FILE), pilot.resolve(Pilot.RUNNING_FILE));
+        pilotPool.maintain();
+        Assertions.assertEquals(Pilot.PilotState.BUSY, pilot.getState());
+        Files.delete(pilot.resolve(Pilot.RUNNING_FILE));
+        pilotPool.maintain();
+        Assertions.assertEquals(Pilot.PilotState.IDLE, pilot.getState());
+        Assertions.assertEquals(1, pilotPool.getStats().dispatched());
+        verify(executionService, never()).updateStatus(any(), any());
+    }
+
+    @Test
+    void testMaintain_failsExecutionNotPickedUp() throws Exception {
+        agentConfig.setPilotAckTimeout(0);
+        var execution = makeExecution();
+        var pilot = startIdlePilot(execution);
+        pilotPool.tryDispatch(execution).orElseThrow();
+        Thread.sleep(10);
+        pilotPool.maintain();
+
+        Assertions.assertFalse(Files.exists(pilot.resolve(Pilot.ASSIGNMENT_FILE)));
+        Assertions.assertTrue(Files.exists(pilot.resolve(Pilot.SHUTDOWN_FILE)));
+        Assertions.assertTrue(pilotPool.getPilot(pilot.getId()).isEmpty());
+        Assertions.assertEquals(1, pilotPool.getStats().lost());
+        verify(executionService).updateStatus(eq("123"), argThat(request -> request.status() == Status.FAILED));
+    }
+
+    @Test
+    void testMaintain_failsExecutionOfLostPilot() throws Exception {
+        var execution = makeExecution();
+        var pilot = startIdlePilot(execution);
+        pilotPool.tryDispatch(execution).orElseThrow();
+        Files.move(pilot.resolve(Pilot.ASSIGNMENT_FILE), pilot.resolve(Pilot.RUNNING_FILE));
+        pilotPool.maintain();
+        Assertions.assertEquals(Pilot.PilotState.BUSY, pilot.getState());
+        verify(executionService, never()).updateStatus(any(), any());
+
+        // The allocation went away while running the execution
+        Files.setLastModifiedTime(pilot.resolve(Pilot.HEARTBEAT_FILE),
+                FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+        pilotPool.maintain();
+
+        Assertions.assertTrue(pilotPool.getPilot(pilot.getId()).isEmpty());
+        Assertions.assertEquals(1, pilotPool.getStats().lost());
+        verify(executionService).updateStatus(eq("123"), argThat(request -> request.status() == Status.FAILED));
+    }
+
+    @Test
+    void testMaintain_checksExecutionWhenHeadnodeExits() throws Exception {
+        var execution = makeExecution();
+        var pilot = startIdlePilot(execution);
+        pilotPool.tryDispatch(execution).orElseThrow();
+        Files.move(pilot.resolve(Pilot.ASSIGNMENT_FILE), pilot.resolve(Pilot.RUNNING_FILE));
+        pilotPool.maintain();
+
+        // The headnode is killed before it reports the execution as finished
+        Files.writeString(pilot.resolve(Pilot.EXIT_CODE_FILE), "137\n");
+        Files.delete(pilot.resolve(Pilot.RUNNING_FILE));
+        pilotPool.maintain();
+
+        Assertions.assertEquals(Pilot.PilotState.IDLE, pilot.getState());
+        Assertions.assertFalse(Files.exists(pilot.resolve(Pilot.EXIT_CODE_FILE)));
+        verify(executionService).failIfUnfinished(eq("123"), argThat(message ->
+                message.startsWith("Headnode exited in pilot " + pilot.getId()) && message.endsWith("exit code 137")));
+        Assertions.assertEquals(0, pilotPool.getStats().lost());
+    }
+
+    private Pilot startIdlePilot(Execution execution) throws Exception {
+        Assertions.assertTrue(pilotPool.tryDispatch(execution).isEmpty());
+        var pilot = awaitQueuedPilot();
+        Files.createFile(pilot.resolve(Pilot.READY_FILE));
+        Files.createFile(pilot.resolve(Pilot.HEARTBEAT_FILE));
+        pilotPool.maintain();
+        Assertions.assertEquals(Pilot.PilotState.IDLE, pilot.getState());
+        return pilot;
+    }
+
+    @Test
+    void testMaintain_releasesIdlePilot() throws Exception {
+        agentConfig.setPilotIdleTimeout(0);
+        pilotPool.tryDispatch(makeExecution());
+        var pilot = awaitQueuedPilot();
+        Files.createFile(pilot.resolve(Pilot.READY_FILE));
+        Files.createFile(pilot.resolve(Pilot.HEARTBEAT_FILE));
+        pilotPool.maintain();
+        Thread.sleep(10);
+        pilotPool.maintain();
+
+        Assertions.assertTrue(Files.exists(pilot.resolve(Pilot.SHUTDOWN_FILE)));
+        Assertions.assertTrue(pilotPool.getStats().pilots().isEmpty());
+        Assertions.assertEquals(1, pilotPool.getStats().released());
+    }
+
+    private Pilot awaitQueuedPilot() throws InterruptedException {
+        var deadline = Instant.now().plus(Duration.ofSeconds(5));
+        while (Instant.now().isBefore(deadline)) {
+            var pilots = pilotPool.getStats().pilots();
+            if (!pilots.isEmpty() && pilots.getFirst().state().equals("QUEUED")) {
+                return pilotPool.getPilot(pilots.getFirst().id()).orElseThrow();
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Pilot was not submitted");
+    }
+
+    private Execution makeExecution() {
+        var messageData = RunAnalysisCommandMessage.builder()
+                .datasetId("123")
+                .projectId("456")
+                .username("username")
+                .environment(Map.of())
+                .build();
+        return Execution.builder()
+                .messageData(messageData)
+                .agentWorkingDirectory(directory)
+                .agentSharedDirectory(directory)
+                .build();
+    }
+}
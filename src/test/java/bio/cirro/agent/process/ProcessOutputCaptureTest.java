@@ -0,0 +1,63 @@
+package bio.cirro.agent.process;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+class ProcessOutputCaptureTest {
+    private static final Pattern JOB_ID_REGEX = Pattern.compile("^\\d+$");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCapture_keepsTailAndSpillsFullOutput() throws IOException {
+        var output = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            output.append("Pulling layer ").append(i).append("\n");
+        }
+        output.append("12345\n");
+        var outputFile = tempDir.resolve("submit.log");
+
+        var capture = new ProcessOutputCapture(outputFile, JOB_ID_REGEX)
+                .start(new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)));
+        capture.getCompletion().join();
+
+        Assertions.assertEquals("12345", capture.getJobId().join());
+        Assertions.assertEquals(1001, capture.getLineCount());
+        Assertions.assertTrue(capture.isTruncated());
+        Assertions.assertTrue(capture.getTail().length() <= 4000);
+        Assertions.assertTrue(capture.getTail().endsWith("12345\n"));
+        Assertions.assertEquals(1001, Files.readAllLines(outputFile).size());
+    }
+
+    @Test
+    void testCapture_noJobId() {
+        var capture = new ProcessOutputCapture(null, JOB_ID_REGEX)
+                .start(new ByteArrayInputStream("error: invalid partition\n".getBytes(StandardCharsets.UTF_8)));
+        capture.getCompletion().join();
+
+        Assertions.assertNull(capture.getJobId().join());
+        Assertions.assertFalse(capture.isTruncated());
+        Assertions.assertEquals("error: invalid partition\n", capture.getTail());
+    }
+
+    @Test
+    void testCapture_usesLastJobId() {
+        var output = "Found 2 input files\n3\n12345\ndone\n";
+        var capture = new ProcessOutputCapture(null, JOB_ID_REGEX)
+                .start(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+        capture.getCompletion().join();
+
+        Assertions.assertTrue(capture.getJobIdReported().isDone());
+        Assertions.assertEquals("12345", capture.getJobId().join());
+        Assertions.assertEquals("12345", capture.getLatestJobId());
+    }
+}
@@ -0,0 +1,62 @@
+package bio.cirro.agent.process;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.ExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+class ProcessSupervisorTest {
+    ProcessSupervisor processSupervisor;
+
+    @BeforeEach
+    void setUp() {
+        var agentConfig = new AgentConfig();
+        agentConfig.setMaxConcurrentScripts(1);
+        agentConfig.setScriptKillGrace(1);
+        processSupervisor = new ProcessSupervisor(agentConfig);
+    }
+
+    @AfterEach
+    void tearDown() {
+        processSupervisor.close();
+    }
+
+    @Test
+    void testStart_exitCode() throws IOException, InterruptedException {
+        var process = processSupervisor.start("exit", new ProcessBuilder("sh", "-c", "exit 3"), Duration.ofSeconds(10));
+        Assertions.assertEquals(3, process.awaitExit());
+    }
+
+    @Test
+    void testStart_terminatesProcessTree() throws IOException, InterruptedException {
+        // Child ignores TERM so it has to be killed
+        var builder = new ProcessBuilder("sh", "-c", "sh -c 'trap \"\" TERM; sleep 60' & wait");
+        var process = processSupervisor.start("hung", builder, Duration.ofMillis(500));
+        var stats = processSupervisor.getStats();
+        Assertions.assertEquals(1, stats.running().size());
+        Assertions.assertEquals("hung", stats.running().getFirst().name());
+        Thread.sleep(Duration.ofMillis(200));
+        var children = process.getProcess().descendants().toList();
+        Assertions.assertFalse(children.isEmpty());
+
+        Assertions.assertThrows(ExecutionException.class, process::awaitExit);
+        Thread.sleep(Duration.ofSeconds(2));
+        Assertions.assertTrue(children.stream().noneMatch(ProcessHandle::isAlive));
+        Assertions.assertEquals(1, processSupervisor.getStats().timedOut());
+    }
+
+    @Test
+    void testStart_capsConcurrentProcesses() throws IOException, InterruptedException {
+        var running = processSupervisor.start("sleep", new ProcessBuilder("sleep", "5"), Duration.ofSeconds(10));
+        var builder = new ProcessBuilder("true");
+        var timeout = Duration.ofMillis(200);
+        Assertions.assertThrows(ExecutionException.class, () -> processSupervisor.start("true", builder, timeout));
+        running.getProcess().destroy();
+        running.onExit().join();
+    }
+}
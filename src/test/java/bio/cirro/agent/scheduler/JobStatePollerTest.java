@@ -0,0 +1,77 @@
+package bio.cirro.agent.scheduler;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.execution.Execution;
+import bio.cirro.agent.execution.ExecutionRepository;
+import bio.cirro.agent.execution.ExecutionService;
+import bio.cirro.agent.execution.ExecutionStartOutput;
+import bio.cirro.agent.models.Status;
+import io.micronaut.scheduling.TaskScheduler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class JobStatePollerTest {
+    SchedulerAdapter schedulerAdapter;
+    ExecutionService executionService;
+    JobStatePoller jobStatePoller;
+
+    @BeforeEach
+    void setUp() {
+        schedulerAdapter = mock(SchedulerAdapter.class);
+        executionService = mock(ExecutionService.class);
+        var executionRepository = mock(ExecutionRepository.class);
+        var agentConfig = new AgentConfig();
+        agentConfig.setSchedulerPollMinInterval(30);
+        agentConfig.setSchedulerPollMaxInterval(300);
+        doReturn(List.of(
+                makeExecution("running", "100"),
+                makeExecution("lost", "101")
+        )).when(executionRepository).getActive();
+        jobStatePoller = new JobStatePoller(schedulerAdapter, executionRepository, executionService,
+                mock(TaskScheduler.class), agentConfig);
+    }
+
+    @Test
+    void testPoll_marksLostJobsFailed() {
+        doReturn(Map.of("100", JobState.RUNNING)).when(schedulerAdapter).getJobStates(anyCollection());
+
+        jobStatePoller.poll();
+        verify(executionService, never()).updateStatus(any(), any());
+
+        jobStatePoller.poll();
+        verify(schedulerAdapter, times(2)).getJobStates(anyCollection());
+        verify(executionService).updateStatus(eq("lost"), argThat(request -> request.status() == Status.FAILED));
+        verify(executionService, never()).updateStatus(eq("running"), any());
+    }
+
+    @Test
+    void testNextInterval() {
+        Assertions.assertEquals(Duration.ofSeconds(30), jobStatePoller.nextInterval(0));
+        Assertions.assertEquals(Duration.ofSeconds(90), jobStatePoller.nextInterval(250));
+        Assertions.assertEquals(Duration.ofSeconds(300), jobStatePoller.nextInterval(10_000));
+    }
+
+    private Execution makeExecution(String id, String jobId) {
+        var execution = mock(Execution.class);
+        doReturn(id).when(execution).getExecutionId();
+        doReturn(id).when(execution).getDatasetId();
+        doReturn(Status.RUNNING).when(execution).getStatus();
+        doReturn(new ExecutionStartOutput("", jobId, null, null)).when(execution).getStartOutput();
+        return execution;
+    }
+}
@@ -0,0 +1,99 @@
+package bio.cirro.agent.scheduler;
+
+import bio.cirro.agent.AgentConfig;
+import bio.cirro.agent.exception.SchedulerException;
+import bio.cirro.agent.process.ProcessSupervisor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+
+class SlurmSchedulerAdapterTest {
+    @TempDir
+    Path tempDir;
+    AgentConfig agentConfig;
+    ProcessSupervisor processSupervisor;
+    SlurmSchedulerAdapter slurmSchedulerAdapter;
+
+    @BeforeEach
+    void setUp() {
+        agentConfig = new AgentConfig();
+        agentConfig.setMaxConcurrentScripts(2);
+        agentConfig.setScriptKillGrace(1);
+        agentConfig.setSchedulerCommandTimeout(10);
+        processSupervisor = new ProcessSupervisor(agentConfig);
+        slurmSchedulerAdapter = new SlurmSchedulerAdapter(agentConfig, processSupervisor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        processSupervisor.close();
+    }
+
+    @Test
+    void testGetJobStates_singleCallPerCommand() throws IOException {
+        agentConfig.setSqueueCommand(writeStub("squeue", "100|RUNNING\n101_0|PENDING\n", 0));
+        agentConfig.setSacctCommand(writeStub("sacct", "102|CANCELLED by 0\n103|COMPLETED\n", 0));
+
+        var states = slurmSchedulerAdapter.getJobStates(List.of("100", "101_0", "102", "103", "104"));
+
+        Assertions.assertEquals(Map.of(
+                "100", JobState.RUNNING,
+                "101_0", JobState.PENDING,
+                "102", JobState.FAILED,
+                "103", JobState.COMPLETED
+        ), states);
+        Assertions.assertEquals(List.of("--noheader --array --states=all --format=%i|%T --jobs=100,101_0,102,103,104"),
+                Files.readAllLines(tempDir.resolve("squeue.calls")));
+        Assertions.assertEquals(List.of("--noheader --parsable2 --allocations --format=JobID,State --jobs=102,103,104"),
+                Files.readAllLines(tempDir.resolve("sacct.calls")));
+    }
+
+    @Test
+    void testGetJobStates_noneInQueue() throws IOException {
+        agentConfig.setSqueueCommand(writeStub("squeue", "slurm_load_jobs error: Invalid job id specified\n", 1));
+        agentConfig.setSacctCommand(writeStub("sacct", "100|OUT_OF_MEMORY\n", 0));
+
+        var states = slurmSchedulerAdapter.getJobStates(List.of("100"));
+        Assertions.assertEquals(Map.of("100", JobState.FAILED), states);
+    }
+
+    @Test
+    void testGetJobStates_schedulerUnavailable() throws IOException {
+        agentConfig.setSqueueCommand(writeStub("squeue", "squeue: error: Unable to contact slurm controller\n", 1));
+        agentConfig.setSacctCommand(writeStub("sacct", "", 0));
+
+        var jobIds = List.of("100");
+        Assertions.assertThrows(SchedulerException.class, () -> slurmSchedulerAdapter.getJobStates(jobIds));
+    }
+
+    @Test
+    void testGetJobStates_noJobs() {
+        Assertions.assertTrue(slurmSchedulerAdapter.getJobStates(List.of()).isEmpty());
+    }
+
+    /**
+     * Write a fake Slurm command that records its arguments and prints the given output
+     */
+    private String writeStub(String name, String output, int exitCode) throws IOException {
+        var stub = tempDir.resolve(name);
+        var calls = tempDir.resolve(name + ".calls");
+        var script = String.format("""
+                #!/bin/sh
+                echo "$*" >> "%s"
+                printf '%s'
+                exit %d
+                """, calls, output.replace("\n", "\\n"), exitCode);
+        Files.writeString(stub, script);
+        Files.setPosixFilePermissions(stub, PosixFilePermissions.fromString("rwx------"));
+        return stub.toString();
+    }
+}
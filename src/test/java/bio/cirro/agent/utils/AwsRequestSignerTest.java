@@ -3,6 +3,7 @@ package bio.cirro.agent.utils;
 import bio.cirro.agent.aws.AwsRequestSigner;
 import bio.cirro.agent.exception.AgentException;
 import io.micronaut.http.HttpRequest;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,6 +18,11 @@ class AwsRequestSignerTest {
         awsRequestSigner = new AwsRequestSigner();
     }
 
+    @AfterEach
+    void tearDown() {
+        awsRequestSigner.close();
+    }
+
     @Test
     void testSign() {
         var exampleKey = "EXAMPLE_KEY";